@@ -116,11 +116,13 @@ public class Aggregate extends Operator {
         super.open();
 
         if(ag_it == null){
-            child.open();
+            if(!mergeColumns()){
+                child.open();
 
-            while(child.hasNext()){
-                Tuple tp = child.next();
-                ag.mergeTupleIntoGroup(tp);
+                while(child.hasNext()){
+                    Tuple tp = child.next();
+                    ag.mergeTupleIntoGroup(tp);
+                }
             }
 
             ag_it = ag.iterator();
@@ -129,6 +131,42 @@ public class Aggregate extends Operator {
         ag_it.open();
     }
 
+    /**
+     * Aggregates an int field of a table in the PAX layout straight from
+     * its pages, reading only the aggregate and group-by columns and
+     * building no tuples. Only applies when the child is a scan of such a
+     * table.
+     * 
+     * @return false if the child has to be iterated instead
+     */
+    private boolean mergeColumns() throws DbException, TransactionAbortedException { //@ADDED
+        if(!(child instanceof SeqScan) || !(ag instanceof IntegerAggregator))
+            return false;
+        SeqScan scan = (SeqScan)child;
+        if(!(scan.file instanceof PaxHeapFile))
+            return false;
+
+        final IntegerAggregator iag = (IntegerAggregator)ag;
+        ((PaxHeapFile)scan.file).scanPages(scan.tid, new PaxHeapFile.PageVisitor() {
+            int[] vals = null;
+            Field[] groups = null;
+
+            public void visit(PaxHeapPage page){
+                if(vals == null){
+                    vals = new int[page.numSlots];
+                    groups = new Field[page.numSlots];
+                }
+
+                int n = page.readInts(afield, vals);
+                if(gfield != Aggregator.NO_GROUPING)
+                    page.readColumn(gfield, groups);
+                for(int i=0;i<n;i++)
+                    iag.mergeValue(groups[i], vals[i]);
+            }
+        });
+        return true;
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
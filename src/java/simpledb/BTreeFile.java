@@ -0,0 +1,509 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+tree index over one field of a table. Its pages are
+ * BTreePages and go through the BufferPool like those of any other
+ * DbFile; page 0 is the meta page, which holds the number of the root.
+ * <p>
+ * The iterators return the table's tuples in key order.
+ * <p>
+ * Deleting entries never merges pages: a leaf that empties stays in the
+ * tree and is skipped by scans until inserts fill it again. A tree built
+ * by {@link #build} packs its leaves instead of growing them by splits.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile extends IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Fraction of each page filled by {@link #build}, leaving room for inserts. */
+    static final double FILL_FACTOR = 0.9;
+
+    /**
+     * Constructs an index backed by file f.
+     *
+     * @param f the file that stores the index
+     * @param tableid the table the index is over
+     * @param keyField the field of the table's tuples that is indexed
+     * @param td the TupleDesc of the table
+     */
+    public BTreeFile(File f, int tableid, int keyField, TupleDesc td) { //@ADDED
+        super(f, tableid, keyField, td);
+    }
+
+    protected Page parsePage(HeapPageId pid, byte[] data) throws IOException { //@ADDED
+        return new BTreePage(pid, getKeyType(), data);
+    }
+
+    private BTreePage pinNode(TransactionId tid, int pageNo)
+            throws DbException, TransactionAbortedException { //@ADDED
+        return (BTreePage)pin(tid, pageNo);
+    }
+
+    private static void modify(BTreePage page, TransactionId tid, ArrayList<Page> dirtied) { //@ADDED
+        page.beforeModification();
+        page.markDirty(true, tid);
+        if(!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    /** Appends an empty page of the given category to the file, pinned. */
+    private BTreePage allocate(TransactionId tid, int category, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        // the caller holds writeLock, so no one else appends meanwhile
+        int pageNo = numPages();
+        BTreePage empty = new BTreePage(new HeapPageId(getId(), pageNo), getKeyType(),
+                new byte[BufferPool.PAGE_SIZE]);
+        writePage(empty);
+        BTreePage page = pinNode(tid, pageNo);
+        modify(page, tid, dirtied);
+        page.reset(category);
+        return page;
+    }
+
+    /** @return the root of the tree, or 0 if it is empty */
+    private int root(TransactionId tid) throws DbException, TransactionAbortedException { //@ADDED
+        if(numPages() == 0) return 0;
+
+        BTreePage meta = pinNode(tid, 0);
+        try{
+            return meta.next;
+        } finally {
+            unpin(meta);
+        }
+    }
+
+    /** An entry moved up by a split, and the new page to its right. */
+    private static class Split { //@ADDED
+        Field key;
+        int page;
+        int slot;
+        int right;
+    }
+
+    /**
+     * Adds the entry of tuple t, which must just have been inserted into
+     * the table and so have its RecordId set.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            RecordId rid = t.getRecordId();
+            if(rid == null)
+                throw new DbException("tuple is not in the table");
+            Field key = t.getField(getKeyField());
+            int page = rid.getPageId().pageNumber();
+            int slot = rid.tupleno();
+
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            if(numPages() == 0){
+                BTreePage meta = allocate(tid, BTreePage.META, dirtied);
+                unpin(meta);
+            }
+
+            int root = root(tid);
+            if(root == 0){
+                BTreePage leaf = allocate(tid, BTreePage.LEAF, dirtied);
+                root = leaf.getId().pageNumber();
+                unpin(leaf);
+                setRoot(tid, root, dirtied);
+            }
+
+            Split split = insert(tid, root, key, page, slot, dirtied);
+            if(split != null){
+                // the root split: the tree grows a level
+                BTreePage newRoot = allocate(tid, BTreePage.INTERNAL, dirtied);
+                newRoot.children[0] = root;
+                newRoot.insertAt(0, split.key, split.page, split.slot, split.right);
+                setRoot(tid, newRoot.getId().pageNumber(), dirtied);
+                unpin(newRoot);
+            }
+            return dirtied;
+        }
+    }
+
+    private void setRoot(TransactionId tid, int root, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException { //@ADDED
+        BTreePage meta = pinNode(tid, 0);
+        try{
+            modify(meta, tid, dirtied);
+            meta.next = root;
+        } finally {
+            unpin(meta);
+        }
+    }
+
+    /**
+     * Adds an entry to the subtree under pageNo.
+     * @return the entry and page to add to the parent if the page split
+     */
+    private Split insert(TransactionId tid, int pageNo, Field key, int page, int slot,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException { //@ADDED
+        BTreePage node = pinNode(tid, pageNo);
+        try{
+            int pos;
+            int child = 0;
+            if(node.category == BTreePage.LEAF){
+                pos = node.lowerBound(key, page, slot);
+                if(pos < node.count && node.compareAt(pos, key, page, slot) == 0)
+                    throw new DbException("tuple is already in the index");
+            } else {
+                Split below = insert(tid, node.childFor(key, page, slot), key, page, slot, dirtied);
+                if(below == null) return null;
+                key = below.key;
+                page = below.page;
+                slot = below.slot;
+                child = below.right;
+                pos = node.lowerBound(key, page, slot);
+            }
+
+            modify(node, tid, dirtied);
+            node.insertAt(pos, key, page, slot, child);
+            if(node.count <= node.capacity())
+                return null;
+
+            BTreePage right = allocate(tid, node.category, dirtied);
+            try{
+                Split split = new Split();
+                split.right = right.getId().pageNumber();
+                int mid = node.count / 2;
+                if(node.category == BTreePage.LEAF){
+                    node.moveTail(mid, right);
+                    right.next = node.next;
+                    node.next = split.right;
+                    split.key = right.keys[0];
+                    split.page = right.ridPages[0];
+                    split.slot = right.ridSlots[0];
+                } else {
+                    // the middle separator moves up instead of right
+                    split.key = node.keys[mid];
+                    split.page = node.ridPages[mid];
+                    split.slot = node.ridSlots[mid];
+                    node.moveTail(mid + 1, right);
+                    node.count = mid;
+                    node.keys[mid] = null;
+                }
+                return split;
+            } finally {
+                unpin(right);
+            }
+        } finally {
+            unpin(node);
+        }
+    }
+
+    /**
+     * Removes the entry of tuple t, which is being deleted from the table.
+     *
+     * @return the leaf the entry was removed from
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            RecordId rid = t.getRecordId();
+            if(rid == null)
+                throw new DbException("tuple is not in the table");
+            Field key = t.getField(getKeyField());
+            int page = rid.getPageId().pageNumber();
+            int slot = rid.tupleno();
+
+            int pageNo = root(tid);
+            if(pageNo == 0)
+                throw new DbException("tuple is not in the index");
+
+            while(true){
+                BTreePage node = pinNode(tid, pageNo);
+                try{
+                    if(node.category == BTreePage.INTERNAL){
+                        pageNo = node.childFor(key, page, slot);
+                        continue;
+                    }
+
+                    int pos = node.lowerBound(key, page, slot);
+                    if(pos >= node.count || node.compareAt(pos, key, page, slot) != 0)
+                        throw new DbException("tuple is not in the index");
+                    node.beforeModification();
+                    node.markDirty(true, tid);
+                    node.removeAt(pos);
+                    return node;
+                } finally {
+                    unpin(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tuples of the table whose indexed field satisfies
+     * (field op key), in key order.
+     *
+     * @param op EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN,
+     *           LESS_THAN_OR_EQ, or null for every tuple
+     * @throws UnsupportedOperationException for any other op
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) { //@ADDED
+        if(op != null && !supports(op))
+            throw new UnsupportedOperationException("cannot scan an index for " + op);
+        return new IndexIterator(tid, op, key);
+    }
+
+    /** The meta page, then one page per level of the tree. */
+    public int probePages() { //@ADDED
+        int pages = numPages();
+        if(pages <= 2) return pages;
+        // levels above the leaves, each holding about internalCapacity times fewer pages
+        double fanout = BTreePage.internalCapacity(getKeyType()) * FILL_FACTOR;
+        return 2 + (int)Math.ceil(Math.log(pages) / Math.log(fanout));
+    }
+
+    /** A B+tree answers equality and the four range comparisons. */
+    public boolean supports(Predicate.Op op) { //@ADDED
+        return op == Predicate.Op.EQUALS
+            || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+            || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * Walks the leaves from the first entry the predicate can match to the
+     * last, copying each leaf's entries so that no page stays pinned
+     * between calls, and fetches the tuples they point to.
+     */
+    private class IndexIterator implements DbFileIterator { //@ADDED
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+
+        private boolean opened = false;
+        private Field[] keys = new Field[0];
+        private int[] pages = new int[0];
+        private int[] slots = new int[0];
+        private int count = 0;
+        private int pos = 0;
+        private int nextLeaf = 0;
+        private boolean done = false;
+        private Tuple next = null;
+
+        IndexIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            opened = true;
+            done = false;
+            next = null;
+            count = 0;
+            pos = 0;
+
+            int pageNo = root(tid);
+            if(pageNo == 0){
+                done = true;
+                return;
+            }
+
+            // where the first match is, if the predicate bounds it from below
+            boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN;
+            int bound = op == Predicate.Op.GREATER_THAN ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            while(true){
+                BTreePage node = pinNode(tid, pageNo);
+                try{
+                    if(node.category == BTreePage.INTERNAL){
+                        pageNo = seek ? node.childFor(key, bound, bound) : node.children[0];
+                        continue;
+                    }
+                    load(node);
+                    if(seek)
+                        pos = node.lowerBound(key, bound, bound);
+                    return;
+                } finally {
+                    unpin(node);
+                }
+            }
+        }
+
+        private void load(BTreePage leaf) {
+            if(keys.length < leaf.count){
+                keys = new Field[leaf.capacity()];
+                pages = new int[leaf.capacity()];
+                slots = new int[leaf.capacity()];
+            }
+            System.arraycopy(leaf.keys, 0, keys, 0, leaf.count);
+            System.arraycopy(leaf.ridPages, 0, pages, 0, leaf.count);
+            System.arraycopy(leaf.ridSlots, 0, slots, 0, leaf.count);
+            count = leaf.count;
+            pos = 0;
+            nextLeaf = leaf.next;
+        }
+
+        /** @return false once the entries are past the last match */
+        private boolean inRange(Field k) {
+            if(op == null) return true;
+            switch(op){
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return !k.compare(Predicate.Op.GREATER_THAN, key);
+            case LESS_THAN:
+                return k.compare(Predicate.Op.LESS_THAN, key);
+            default:
+                return true;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if(!opened) return false;
+            if(next != null) return true;
+
+            while(!done){
+                if(pos >= count){
+                    if(nextLeaf == 0){
+                        done = true;
+                        break;
+                    }
+                    BTreePage leaf = pinNode(tid, nextLeaf);
+                    try{
+                        load(leaf);
+                    } finally {
+                        unpin(leaf);
+                    }
+                    continue;
+                }
+
+                if(!inRange(keys[pos])){
+                    done = true;
+                    break;
+                }
+                next = fetch(tid, pages[pos], slots[pos]);
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            if(!opened) throw new DbException("iterator not opened");
+            open();
+        }
+
+        public void close() {
+            opened = false;
+            next = null;
+            count = 0;
+        }
+    }
+
+    /** An entry to load into a new tree, ordered as in the tree. */
+    private static class Entry implements Comparable<Entry> { //@ADDED
+        final Field key;
+        final int page;
+        final int slot;
+
+        Entry(Field key, int page, int slot) {
+            this.key = key;
+            this.page = page;
+            this.slot = slot;
+        }
+
+        public int compareTo(Entry o) {
+            return BTreePage.compare(key, page, slot, o.key, o.page, o.slot);
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the entries of every tuple
+     * in the table, building the tree bottom-up from the sorted entries
+     * instead of inserting them one by one. The pages are written straight
+     * to the file, so no other transaction may be using the index.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            DbFileIterator it = Database.getCatalog().getDbFile(getTableId()).iterator(tid);
+            it.open();
+            while(it.hasNext()){
+                Tuple t = it.next();
+                RecordId rid = t.getRecordId();
+                entries.add(new Entry(t.getField(getKeyField()), rid.getPageId().pageNumber(), rid.tupleno()));
+            }
+            it.close();
+            Collections.sort(entries);
+
+            truncate();
+
+            Type type = getKeyType();
+            BTreePage meta = new BTreePage(new HeapPageId(getId(), 0), type, new byte[BufferPool.PAGE_SIZE]);
+            writePage(meta);
+            if(entries.isEmpty()) return;
+
+            // the leaves, each pointing at the next
+            int perLeaf = Math.max(1, (int)(BTreePage.leafCapacity(type) * FILL_FACTOR));
+            int leaves = (entries.size() + perLeaf - 1) / perLeaf;
+            ArrayList<Entry> firsts = new ArrayList<Entry>();
+            ArrayList<Integer> level = new ArrayList<Integer>();
+            for(int l=0;l<leaves;l++){
+                BTreePage leaf = newPage(BTreePage.LEAF);
+                int from = l * perLeaf;
+                int to = Math.min(entries.size(), from + perLeaf);
+                for(int i=from;i<to;i++){
+                    Entry e = entries.get(i);
+                    leaf.insertAt(leaf.count, e.key, e.page, e.slot, 0);
+                }
+                if(l < leaves - 1)
+                    leaf.next = leaf.getId().pageNumber() + 1;
+                writePage(leaf);
+                firsts.add(entries.get(from));
+                level.add(leaf.getId().pageNumber());
+            }
+
+            // internal levels, until one node covers everything
+            int perNode = Math.max(2, (int)(BTreePage.internalCapacity(type) * FILL_FACTOR) + 1);
+            while(level.size() > 1){
+                ArrayList<Entry> upFirsts = new ArrayList<Entry>();
+                ArrayList<Integer> upLevel = new ArrayList<Integer>();
+                for(int from=0;from<level.size();from+=perNode){
+                    int to = Math.min(level.size(), from + perNode);
+                    BTreePage node = newPage(BTreePage.INTERNAL);
+                    node.children[0] = level.get(from);
+                    for(int i=from+1;i<to;i++){
+                        Entry e = firsts.get(i);
+                        node.insertAt(node.count, e.key, e.page, e.slot, level.get(i));
+                    }
+                    writePage(node);
+                    upFirsts.add(firsts.get(from));
+                    upLevel.add(node.getId().pageNumber());
+                }
+                firsts = upFirsts;
+                level = upLevel;
+            }
+
+            meta.next = level.get(0);
+            writePage(meta);
+        }
+    }
+
+    /** @return a new page of the given category at the end of the file, not written yet */
+    private BTreePage newPage(int category) throws IOException { //@ADDED
+        BTreePage page = new BTreePage(new HeapPageId(getId(), pageCount), getKeyType(),
+                new byte[BufferPool.PAGE_SIZE]);
+        page.reset(category);
+        pageCount++;
+        return page;
+    }
+}
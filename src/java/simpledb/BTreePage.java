@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreePage is one page of a BTreeFile: the meta page, a leaf or an
+ * internal node.
+ * <p>
+ * Every page starts with its category (a byte), the number of entries
+ * (an int) and a page number (an int): for the meta page that is the root
+ * of the tree, 0 while the tree is empty; for a leaf it is the leaf to its
+ * right, 0 for the last one. A leaf then holds its entries in order, each
+ * a key followed by the page number and slot (two ints) of the indexed
+ * tuple. An internal node holds its first child, then for each entry a
+ * separator (a key, page number and slot, like a leaf entry) followed by
+ * the child whose entries are all at least that separator.
+ * <p>
+ * Entries are ordered by key, and entries with equal keys by where their
+ * tuple is, so every entry is unique even when keys are not. An all-zero
+ * page is the meta page of an empty tree.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+    static final int META = 0;
+    static final int LEAF = 1;
+    static final int INTERNAL = 2;
+
+    static final int HEADER_SIZE = 9;
+
+    //@ADDED
+    final HeapPageId pid;
+    final Type keyType;
+    int category;
+    int count;
+    /** the root for the meta page, the right sibling for a leaf */
+    int next;
+
+    Field[] keys;
+    int[] ridPages;
+    int[] ridSlots;
+    /** count+1 children of an internal node */
+    int[] children;
+
+    private byte[] oldData;
+    private TransactionId dirty_tid = null;
+    //@ADDED
+
+    /**
+     * Create a BTreePage from the bytes of a page read from disk. The key
+     * type is that of the BTreeFile the page belongs to.
+     */
+    public BTreePage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ((BTreeFile)Database.getCatalog().getDbFile(id.getTableId())).getKeyType(), data);
+    }
+
+    BTreePage(HeapPageId id, Type keyType, byte[] data) throws IOException { //@ADDED
+        this.pid = id;
+        this.keyType = keyType;
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        category = buf.get();
+        count = buf.getInt();
+        next = buf.getInt();
+        if(category < META || category > INTERNAL || count < 0 || count > capacity())
+            throw new IOException("bad B+tree page " + id.pageNumber());
+
+        int cap = Math.max(capacity(), 0) + 1;
+        keys = new Field[cap];
+        ridPages = new int[cap];
+        ridSlots = new int[cap];
+        children = new int[cap + 1];
+
+        int len = keyType.getLen();
+        int pos = HEADER_SIZE;
+        if(category == INTERNAL){
+            children[0] = buf.getInt(pos);
+            pos += 4;
+        }
+        for(int i=0;i<count;i++){
+            keys[i] = keyType.parse(data, pos);
+            ridPages[i] = buf.getInt(pos + len);
+            ridSlots[i] = buf.getInt(pos + len + 4);
+            pos += len + 8;
+            if(category == INTERNAL){
+                children[i+1] = buf.getInt(pos);
+                pos += 4;
+            }
+        }
+
+        setBeforeImage();
+    }
+
+    /** @return the number of entries a leaf with keys of type t holds */
+    static int leafCapacity(Type t) { //@ADDED
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (t.getLen() + 8);
+    }
+
+    /** @return the number of separators an internal node with keys of type t holds */
+    static int internalCapacity(Type t) { //@ADDED
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / (t.getLen() + 12);
+    }
+
+    /** @return how many entries this page holds at most */
+    int capacity() { //@ADDED
+        if(category == LEAF) return leafCapacity(keyType);
+        if(category == INTERNAL) return internalCapacity(keyType);
+        return 0;
+    }
+
+    /** Turns this page into an empty page of the given category. */
+    void reset(int category) { //@ADDED
+        this.category = category;
+        this.count = 0;
+        this.next = 0;
+        int cap = capacity() + 1;
+        if(keys.length < cap){
+            keys = new Field[cap];
+            ridPages = new int[cap];
+            ridSlots = new int[cap];
+            children = new int[cap + 1];
+        }
+    }
+
+    /**
+     * Compares entry i of this page with the entry (key, page, slot).
+     * @return less than, equal to or greater than 0 as entry i is less than,
+     *         equal to or greater than the other
+     */
+    int compareAt(int i, Field key, int page, int slot) { //@ADDED
+        return compare(keys[i], ridPages[i], ridSlots[i], key, page, slot);
+    }
+
+    static int compare(Field k1, int p1, int s1, Field k2, int p2, int s2) { //@ADDED
+        if(k1.compare(Predicate.Op.LESS_THAN, k2)) return -1;
+        if(k1.compare(Predicate.Op.GREATER_THAN, k2)) return 1;
+        if(p1 != p2) return p1 < p2 ? -1 : 1;
+        if(s1 != s2) return s1 < s2 ? -1 : 1;
+        return 0;
+    }
+
+    /** @return the first entry that is not less than (key, page, slot) */
+    int lowerBound(Field key, int page, int slot) { //@ADDED
+        int lo = 0, hi = count;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(compareAt(mid, key, page, slot) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the child of this internal node whose subtree holds
+     *         (key, page, slot): the one after the last separator not
+     *         greater than it
+     */
+    int childFor(Field key, int page, int slot) { //@ADDED
+        int lo = 0, hi = count;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(compareAt(mid, key, page, slot) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return children[lo];
+    }
+
+    /**
+     * Puts an entry at position pos, and for an internal node the child
+     * that follows it. The page may hold one entry more than its capacity
+     * until it is split.
+     */
+    void insertAt(int pos, Field key, int page, int slot, int child) { //@ADDED
+        int n = count - pos;
+        System.arraycopy(keys, pos, keys, pos + 1, n);
+        System.arraycopy(ridPages, pos, ridPages, pos + 1, n);
+        System.arraycopy(ridSlots, pos, ridSlots, pos + 1, n);
+        keys[pos] = key;
+        ridPages[pos] = page;
+        ridSlots[pos] = slot;
+        if(category == INTERNAL){
+            System.arraycopy(children, pos + 1, children, pos + 2, n);
+            children[pos + 1] = child;
+        }
+        count++;
+    }
+
+    /** Removes the entry of a leaf at position pos. */
+    void removeAt(int pos) { //@ADDED
+        int n = count - pos - 1;
+        System.arraycopy(keys, pos + 1, keys, pos, n);
+        System.arraycopy(ridPages, pos + 1, ridPages, pos, n);
+        System.arraycopy(ridSlots, pos + 1, ridSlots, pos, n);
+        count--;
+        keys[count] = null;
+    }
+
+    /**
+     * Moves the entries from position from on (and their children) to the
+     * empty page right, which must be of the same category.
+     */
+    void moveTail(int from, BTreePage right) { //@ADDED
+        int n = count - from;
+        System.arraycopy(keys, from, right.keys, 0, n);
+        System.arraycopy(ridPages, from, right.ridPages, 0, n);
+        System.arraycopy(ridSlots, from, right.ridSlots, 0, n);
+        if(category == INTERNAL)
+            System.arraycopy(children, from, right.children, 0, n + 1);
+        Arrays.fill(keys, from, count, null);
+        right.count = n;
+        count = from;
+    }
+
+    // see Page.java for javadocs
+    public HeapPageId getId() { //@ADDED
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) { //@ADDED
+        dirty_tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() { //@ADDED
+        return dirty_tid;
+    }
+
+    public byte[] getPageData() { //@ADDED
+        byte[] out = new byte[BufferPool.PAGE_SIZE];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer buf) { //@ADDED
+        int start = buf.position();
+        buf.put((byte)category);
+        buf.putInt(count);
+        buf.putInt(next);
+        if(category == INTERNAL)
+            buf.putInt(children[0]);
+        for(int i=0;i<count;i++){
+            keys[i].serialize(buf);
+            buf.putInt(ridPages[i]);
+            buf.putInt(ridSlots[i]);
+            if(category == INTERNAL)
+                buf.putInt(children[i+1]);
+        }
+        Utility.putZeros(buf, BufferPool.PAGE_SIZE - (buf.position() - start));
+    }
+
+    /** Captures the before image, if needed, ahead of a modification. */
+    void beforeModification() { //@ADDED
+        if(oldData == null)
+            oldData = getPageData();
+    }
+
+    public BTreePage getBeforeImage() { //@ADDED
+        byte[] before = oldData;
+        if(before == null)
+            before = getPageData();
+        try{
+            return new BTreePage(pid, keyType, before);
+        } catch (IOException e){
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() { //@ADDED
+        oldData = null;
+    }
+}
@@ -0,0 +1,470 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BloomFilterMap keeps a Bloom filter per page of a HeapFile for each of a
+ * few chosen fields, so that a scan for one value of such a field (an
+ * EQUALS predicate) can pass over the pages that certainly do not hold it.
+ * Where the {@link ZoneMap} only helps when a page's values are close
+ * together, a Bloom filter rules a page out for any key it does not hold.
+ * <p>
+ * Each filter is sized for the most tuples a page of fixed-size records
+ * can hold and for the false positive rate asked for: a page holding a
+ * key is never skipped, and a page that does not hold it is read anyway
+ * with about that probability. Pages of variable-length records that hold
+ * more tuples than that see a higher rate. A delete leaves its tuple's
+ * bits set, which costs a false positive at worst.
+ * <p>
+ * Unlike the zone map, the filters are optional: a file has them once
+ * they are asked for, by {@link HeapFileEncoder#convert(File,File,int,int,Type[],char,int[],double)}
+ * or {@link HeapFile#createBloomFilters}. From then on inserts and bulk
+ * loads keep them up to date. They live in a side file next to the heap
+ * file ({@link #fileFor}): a header with the number of pages covered, the
+ * false positive rate asked for, the fields, the bits per filter and the
+ * number of hash functions, followed by the filters of each page, one per
+ * field. HeapFile writes a page's filters before the page itself. If the
+ * side file covers a different number of pages than the heap file, the
+ * filters are rebuilt for the same fields by reading every page once.
+ * <p>
+ * The map counts how scans fare, for {@link #getReport}: the pages its
+ * filters ruled out, and the pages they let through that turned out to
+ * hold no match once the scan had read them.
+ */
+public class BloomFilterMap {
+    public static final String SUFFIX = ".bloom";
+    /** the false positive rate used when none is given */
+    public static final double DEFAULT_FPR = 0.01;
+
+    //@ADDED
+    private final File mapFile;
+    private final TupleDesc td;
+    private final int[] fields;
+    private final double fpr;
+    /** bits in each filter, a multiple of 64 */
+    private final int bits;
+    private final int hashes;
+    private final int headerSize;
+    private FileChannel channel = null;
+
+    /** the filters of each page, one after the other, as words of bits */
+    private long[][] filters = new long[64][];
+    private int numPages = 0;
+    /** the number of pages the header on disk says the map covers */
+    private int persistedPages = -1;
+
+    private long pagesSkipped = 0;
+    private long pagesPassed = 0;
+    private long falsePositives = 0;
+    //@ADDED
+
+    /** @return the side file holding the Bloom filters of heap file f */
+    public static File fileFor(File f) { //@ADDED
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /** @return the number of fixed-size tuples of td that fit on a page */
+    static int tuplesPerPage(TupleDesc td) { //@ADDED
+        return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the bits a filter for n keys needs for rate fpr, rounded up to whole words */
+    static int bitsFor(int n, double fpr) { //@ADDED
+        double m = -Math.max(1, n) * Math.log(fpr) / (Math.log(2) * Math.log(2));
+        return Math.max(64, ((int)Math.ceil(m) + 63) / 64 * 64);
+    }
+
+    /** @return the best number of hash functions for n keys in m bits */
+    static int hashesFor(int m, int n) { //@ADDED
+        return Math.max(1, (int)Math.round((double)m / Math.max(1, n) * Math.log(2)));
+    }
+
+    /**
+     * Makes an empty map for the given fields, kept in the side file
+     * mapFile. Whatever the side file held is replaced when the map is
+     * first written.
+     *
+     * @param fpr the false positive rate wanted, between 0 and 1
+     */
+    public BloomFilterMap(File mapFile, TupleDesc td, int[] fields, double fpr) throws IOException { //@ADDED
+        if(fpr <= 0 || fpr >= 1)
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        if(fields.length == 0)
+            throw new IllegalArgumentException("no fields to filter on");
+        for(int f : fields){
+            if(f < 0 || f >= td.numFields())
+                throw new IllegalArgumentException("no field " + f);
+        }
+
+        this.mapFile = mapFile;
+        this.td = td;
+        this.fields = fields.clone();
+        this.fpr = fpr;
+        int n = tuplesPerPage(td);
+        this.bits = bitsFor(n, fpr);
+        this.hashes = hashesFor(bits, n);
+        this.headerSize = 4 + 8 + 4 + 4 * fields.length + 4 + 4;
+        this.channel = new RandomAccessFile(mapFile,"rw").getChannel();
+    }
+
+    /**
+     * Opens the Bloom filters of the given heap file, rebuilding them from
+     * its pages if the side file does not match it.
+     *
+     * @return the filters, or null if the file has none
+     */
+    public static BloomFilterMap open(HeapFile f) throws IOException { //@ADDED
+        File mapFile = fileFor(f.getFile());
+        if(!mapFile.exists()) return null;
+
+        TupleDesc td = f.getTupleDesc();
+        int pages;
+        int[] fields;
+        double fpr;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+        try{
+            pages = in.readInt();
+            fpr = in.readDouble();
+            int n = in.readInt();
+            if(n <= 0 || n > td.numFields()) return null;
+            fields = new int[n];
+            for(int i=0;i<fields.length;i++)
+                fields[i] = in.readInt();
+        } catch (IOException e){
+            // a damaged side file is as good as none
+            return null;
+        } finally {
+            in.close();
+        }
+
+        BloomFilterMap map;
+        try{
+            map = new BloomFilterMap(mapFile, td, fields, fpr);
+        } catch (IllegalArgumentException e){
+            return null;
+        }
+        if(pages == f.numPages() && map.load(pages))
+            return map;
+
+        map.numPages = 0;
+        for(int i=0;i<f.numPages();i++){
+            HeapPage pg = (HeapPage)f.readPage(new HeapPageId(f.getId(),i));
+            map.grow(i);
+            Iterator<Tuple> it = pg.iterator();
+            while(it.hasNext())
+                map.set(i, it.next());
+        }
+        map.flushAll();
+        return map;
+    }
+
+    /**
+     * Adds the tuples of heap file f, as seen by transaction tid, to the
+     * filters of their pages. Nothing is written: until this map is
+     * flushed, the side file keeps the filters f had.
+     */
+    void addAll(HeapFile f, TransactionId tid)
+            throws DbException, TransactionAbortedException { //@ADDED
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while(it.hasNext()){
+            Tuple t = it.next();
+            add(t.getRecordId().getPageId().pageNumber(), t);
+        }
+        it.close();
+    }
+
+    /** @return false if the side file does not describe a file of pages pages */
+    private boolean load(int pages) throws IOException { //@ADDED
+        long entrySize = words() * 8L;
+        if(channel.size() != headerSize + pages * entrySize) return false;
+
+        ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+        while(buf.hasRemaining()){
+            if(channel.read(buf, buf.position()) < 0) return false;
+        }
+        buf.flip();
+        buf.position(headerSize - 8);
+        // filters sized for another page size do not fit
+        if(buf.getInt() != bits || buf.getInt() != hashes) return false;
+
+        for(int i=0;i<pages;i++){
+            grow(i);
+            for(int w=0;w<words();w++)
+                filters[i][w] = buf.getLong();
+        }
+        persistedPages = pages;
+        return true;
+    }
+
+    private int words() { //@ADDED
+        return fields.length * bits / 64;
+    }
+
+    private void grow(int pageNo) { //@ADDED
+        if(pageNo >= filters.length)
+            filters = Arrays.copyOf(filters, Math.max(pageNo + 1, filters.length * 2));
+        while(numPages <= pageNo)
+            filters[numPages++] = new long[words()];
+    }
+
+    /** @return the bits of v in a filter, by double hashing */
+    private int[] bitsOf(Field v) { //@ADDED
+        long h = v.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        int h1 = (int)h;
+        int h2 = (int)(h >>> 32) | 1;
+
+        int[] out = new int[hashes];
+        for(int i=0;i<hashes;i++)
+            out[i] = ((h1 + i * h2) & 0x7fffffff) % bits;
+        return out;
+    }
+
+    private void set(int pageNo, int slot, Field v) { //@ADDED
+        long[] words = filters[pageNo];
+        int base = slot * bits;
+        for(int b : bitsOf(v)){
+            int bit = base + b;
+            words[bit >>> 6] |= 1L << (bit & 63);
+        }
+    }
+
+    private void set(int pageNo, Tuple t) { //@ADDED
+        for(int j=0;j<fields.length;j++)
+            set(pageNo, j, t.getField(fields[j]));
+    }
+
+    /**
+     * Adds the value of one field of a tuple on page pageNo, for loaders
+     * that write pages without making Tuples. Fields without a filter are
+     * ignored.
+     */
+    synchronized void add(int pageNo, int field, Field v) { //@ADDED
+        int slot = slotOf(field);
+        if(slot < 0) return;
+        grow(pageNo);
+        set(pageNo, slot, v);
+    }
+
+    /** Gives pages the map has not seen yet empty filters, up to pages pages. */
+    synchronized void extendTo(int pages) { //@ADDED
+        if(pages > 0)
+            grow(pages - 1);
+    }
+
+    /**
+     * Adds the values of a tuple just put on page pageNo to the page's
+     * filters. Pages past the end of the map extend it.
+     */
+    public synchronized void add(int pageNo, Tuple t) { //@ADDED
+        grow(pageNo);
+        set(pageNo, t);
+    }
+
+    /** Same as {@link #add(int, Tuple)} for all the tuples of a page at once. */
+    public synchronized void addAll(int pageNo, List<Tuple> tuples) { //@ADDED
+        grow(pageNo);
+        for (Tuple t : tuples)
+            set(pageNo, t);
+    }
+
+    /** @return the fields the map has filters on */
+    public int[] getFields() { //@ADDED
+        return fields.clone();
+    }
+
+    /** @return the false positive rate the filters were sized for */
+    public double getFalsePositiveRate() { //@ADDED
+        return fpr;
+    }
+
+    /** @return the number of pages the map covers */
+    public synchronized int numPages() { //@ADDED
+        return numPages;
+    }
+
+    /** @return the position of field in fields, or -1 */
+    private int slotOf(int field) { //@ADDED
+        for(int j=0;j<fields.length;j++){
+            if(fields[j] == field) return j;
+        }
+        return -1;
+    }
+
+    /** @return true if the filters can rule pages out for p */
+    public boolean canFilter(Predicate p) { //@ADDED
+        return p.getOp() == Predicate.Op.EQUALS && slotOf(p.getField()) >= 0
+            && p.getOperand().getType() == td.getFieldType(p.getField());
+    }
+
+    /**
+     * @return false if page pageNo certainly holds no tuple satisfying p,
+     *         true if it might
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) { //@ADDED
+        if(pageNo < 0 || pageNo >= numPages || !canFilter(p)) return true;
+
+        long[] words = filters[pageNo];
+        int base = slotOf(p.getField()) * bits;
+        for(int b : bitsOf(p.getOperand())){
+            int bit = base + b;
+            if((words[bit >>> 6] & (1L << (bit & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the pages among the first pages pages of the file that the
+     *         filters show hold no tuple satisfying all of preds
+     */
+    public synchronized BitSet pagesToSkip(List<Predicate> preds, int pages) { //@ADDED
+        BitSet skip = new BitSet();
+        for(Predicate p : preds){
+            if(!canFilter(p)) continue;
+            for(int pg=0;pg<Math.min(pages, numPages);pg++){
+                if(!skip.get(pg) && !mayMatch(pg, p))
+                    skip.set(pg);
+            }
+        }
+        pagesSkipped += skip.cardinality();
+        return skip;
+    }
+
+    /**
+     * Tells the map that a scan read all of a page its filters let through,
+     * and whether the page held a tuple satisfying the predicates the
+     * filters were asked about.
+     */
+    public synchronized void pageRead(boolean matched) { //@ADDED
+        pagesPassed++;
+        if(!matched)
+            falsePositives++;
+    }
+
+    /**
+     * @return the share of the pages set bits, averaged over the pages, to
+     *         the power of the number of hashes: the chance that a key that
+     *         is not on a page gets through its filter
+     */
+    public synchronized double getEstimatedFalsePositiveRate() { //@ADDED
+        if(numPages == 0) return 0;
+
+        double sum = 0;
+        for(int pg=0;pg<numPages;pg++){
+            for(int j=0;j<fields.length;j++){
+                int set = 0;
+                for(int w=j*bits/64;w<(j+1)*bits/64;w++)
+                    set += Long.bitCount(filters[pg][w]);
+                sum += Math.pow((double)set / bits, hashes);
+            }
+        }
+        return sum / (numPages * fields.length);
+    }
+
+    /**
+     * @return the share of the pages without a match that scans read
+     *         anyway, or 0 before any scan used the filters
+     */
+    public synchronized double getObservedFalsePositiveRate() { //@ADDED
+        long negatives = falsePositives + pagesSkipped;
+        return negatives == 0 ? 0 : (double)falsePositives / negatives;
+    }
+
+    private void writeHeader() throws IOException { //@ADDED
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(numPages);
+        header.putDouble(fpr);
+        header.putInt(fields.length);
+        for(int f : fields)
+            header.putInt(f);
+        header.putInt(bits);
+        header.putInt(hashes);
+        header.flip();
+        while(header.hasRemaining()){
+            channel.write(header, header.position());
+        }
+    }
+
+    private void writeFilters(int from, int to) throws IOException { //@ADDED
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * words() * 8);
+        for(int i=from;i<to;i++){
+            for(long w : filters[i])
+                buf.putLong(w);
+        }
+        buf.flip();
+        long pos = headerSize + (long)from * words() * 8;
+        while(buf.hasRemaining()){
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    /**
+     * Writes the filters of one page to the side file, along with the page
+     * count if the map has grown since it was last written.
+     */
+    public synchronized void flush(int pageNo) throws IOException { //@ADDED
+        if(pageNo >= numPages) return;
+
+        if(persistedPages < 0 || numPages < persistedPages){
+            flushAll();
+            return;
+        }
+        if(pageNo < persistedPages)
+            writeFilters(pageNo, pageNo + 1);
+
+        if(numPages > persistedPages){
+            // new filters first, then the count that makes them valid
+            writeFilters(persistedPages, numPages);
+            writeHeader();
+            persistedPages = numPages;
+        }
+    }
+
+    /** Writes the whole map to the side file. */
+    public synchronized void flushAll() throws IOException { //@ADDED
+        channel.truncate(headerSize + (long)numPages * words() * 8);
+        writeFilters(0, numPages);
+        writeHeader();
+        persistedPages = numPages;
+    }
+
+    /**
+     * Closes the side file without writing the map to it, removing the
+     * file if nothing was ever written there.
+     */
+    synchronized void discard() throws IOException { //@ADDED
+        if(channel == null) return;
+
+        boolean empty = channel.size() == 0;
+        channel.close();
+        channel = null;
+        if(empty)
+            mapFile.delete();
+    }
+
+    /** Writes the map out and closes the side file. */
+    public synchronized void close() throws IOException { //@ADDED
+        if(channel == null) return;
+
+        flushAll();
+        channel.close();
+        channel = null;
+    }
+
+    /** @return a one-line summary of the filters and how scans fared with them */
+    public synchronized String getReport() { //@ADDED
+        return String.format("%s: Bloom filters on fields %s, %d bits and %d hashes per page, "
+                + "false positive rate %.4f asked, %.4f estimated, %.4f observed; "
+                + "%d pages skipped, %d read of which %d held no match",
+                mapFile.getName(), Arrays.toString(fields), bits, hashes,
+                fpr, getEstimatedFalsePositiveRate(), getObservedFalsePositiveRate(),
+                pagesSkipped, pagesPassed, falsePositives);
+    }
+}
@@ -2,6 +2,16 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,19 +25,113 @@ import java.util.*;
 public class BufferPool {
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
-    public static int atime = 0;
 
+    /** Number of lock stripes guarding page loads. Must be a power of two. */
+    static final int NUM_STRIPES = 64;
+
+    /** How long a miss waits for a pinned frame to be released. */
+    static final long PIN_WAIT_MS = 1000;
+
+    /** Largest number of frames a single large scan cycles through. */
+    static final int MAX_RING_PAGES = 16;
+
+    /** Default upper bound on the read-ahead window of a sequential scan. */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /** Threads doing prefetch reads, shared by every pool. */
+    static final int IO_THREADS = 2;
+
+    /**
+     * A frame of the pool. The pin count is -1 while the frame is being
+     * evicted or discarded, so that a concurrent pin can tell the frame is
+     * going away, and only whoever set it to -1 takes the frame out.
+     * Recency is tracked by the ReplacementPolicy, not by the frame.
+     */
     public class PageEntry{
-        public Page pg = null;
-        public int pg_atime;
+        public final Page pg;
+        public final AtomicInteger pins = new AtomicInteger(0);
+        /** read ahead of time and not requested by anyone yet */
+        public final AtomicBoolean prefetched = new AtomicBoolean(false);
 
         public PageEntry(Page pg){
             this.pg = pg;
-            this.pg_atime = BufferPool.atime++;
         }
-        
-        public void visit(){
-            this.pg_atime = BufferPool.atime++;
+
+        /** @return false if the frame is being evicted and cannot be pinned */
+        public boolean pin(){
+            while(true){
+                int p = pins.get();
+                if(p < 0) return false;
+                if(pins.compareAndSet(p,p+1)) return true;
+            }
+        }
+
+        public void unpin(){
+            int p = pins.decrementAndGet();
+            assert p >= 0 : "unbalanced unpin";
+        }
+    }
+
+    /**
+     * A small private set of frames for one large sequential scan. Pages the
+     * scan reads into the pool are remembered in FIFO order; once the ring
+     * is full and the pool has no free frame, the scan's next miss reuses
+     * the frame of its own oldest page instead of asking the replacement
+     * policy for a victim. A full-table scan then only ever displaces the
+     * pages it brought in itself, and the hot pages of other tables stay put.
+     * <p>
+     * A ring belongs to one scan; it is shared only with the scan's own
+     * read-ahead.
+     */
+    public class ScanRing{
+        private final ArrayDeque<PageId> pages = new ArrayDeque<PageId>();
+        private final int capacity;
+        /** set once the scan has used all its frames; it never gets more */
+        private boolean filled = false;
+
+        ScanRing(int capacity){
+            this.capacity = capacity;
+        }
+
+        synchronized void add(PageId pid){
+            pages.addLast(pid);
+            if(pages.size() >= capacity)
+                filled = true;
+            // a page pushed out of the ring is left to the policy like any other
+            if(pages.size() > capacity)
+                pages.removeFirst();
+        }
+
+        synchronized boolean isFull(){
+            return filled;
+        }
+
+        /**
+         * Claims the oldest page of the ring that nobody has pinned for
+         * eviction. Pinned pages, such as the one the scan is on, keep their
+         * place. Must be called with evictLock held.
+         * @return the page claimed, or null if none of the ring could be
+         */
+        synchronized PageId recycle(){
+            Iterator<PageId> it = pages.iterator();
+            while(it.hasNext()){
+                PageId pid = it.next();
+                if(!isResident(pid)){
+                    it.remove();
+                } else if(claimFrame(pid)){
+                    it.remove();
+                    return pid;
+                }
+            }
+            return null;
+        }
+
+        public int capacity(){
+            return capacity;
+        }
+
+        BufferPool owner(){
+            return BufferPool.this;
         }
     }
 
@@ -37,7 +141,39 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     public int numPages = 0;
-    public Map<PageId,PageEntry> id_page = null;
+    public ConcurrentHashMap<PageId,PageEntry> id_page = null;
+
+    /** Policy used by {@link #BufferPool(int)}. */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.CLOCK;
+
+    //@ADDED
+    private final ReplacementPolicy policy;
+    private final Object[] stripes = new Object[NUM_STRIPES];
+    private final Object evictLock = new Object();
+    /** frames that are resident or reserved by a load in progress */
+    private final AtomicInteger usedFrames = new AtomicInteger(0);
+
+    /** hit and miss counters, one pair per stripe and a cache line apart */
+    private final AtomicLongArray counters = new AtomicLongArray(NUM_STRIPES * 16);
+
+    /** the heap files each unfinished transaction bulk loaded */
+    private final ConcurrentHashMap<TransactionId, Set<HeapFile>> bulkLoads =
+        new ConcurrentHashMap<TransactionId, Set<HeapFile>>();
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD;
+    private final AtomicLong prefetchCount = new AtomicLong(0);
+    private final AtomicLong prefetchHits = new AtomicLong(0);
+    private final AtomicLong prefetchWaste = new AtomicLong(0);
+
+    private static ExecutorService ioExecutor = null;
+
+    private final ReplacementPolicy.Evictable unpinned = new ReplacementPolicy.Evictable() {
+        public boolean isEvictable(PageId pid) {
+            PageEntry pg_e = id_page.get(pid);
+            return pg_e != null && pg_e.pins.get() == 0;
+        }
+    };
+    //@ADDED
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -45,13 +181,62 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) { //@ADDED
-        id_page = new HashMap<PageId,PageEntry>();
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind) { //@ADDED
+        id_page = new ConcurrentHashMap<PageId,PageEntry>(numPages, 0.75f, NUM_STRIPES);
         this.numPages = numPages;
-        
-        //System.out.println("pages="+numPages);
-        //for(StackTraceElement tse : (new Throwable()).getStackTrace()){
-            //System.out.println(tse);
-        //}
+        this.policy = kind.create(numPages);
+
+        for(int i=0;i<NUM_STRIPES;i++){
+            stripes[i] = new Object();
+        }
+    }
+
+    private int stripeIndex(PageId pid){ //@ADDED
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return h & (NUM_STRIPES-1);
+    }
+
+    private Object stripeFor(PageId pid){ //@ADDED
+        return stripes[stripeIndex(pid)];
+    }
+
+    private void countHit(PageId pid){ //@ADDED
+        counters.incrementAndGet(stripeIndex(pid) * 16);
+    }
+
+    private void countMiss(PageId pid){ //@ADDED
+        counters.incrementAndGet(stripeIndex(pid) * 16 + 1);
+    }
+
+    /** Records a hit, and a prefetch hit if the page was read ahead for it. */
+    private void countHit(PageEntry pg_e, PageId pid){ //@ADDED
+        countHit(pid);
+        if(pg_e.prefetched.get() && pg_e.prefetched.compareAndSet(true,false))
+            prefetchHits.incrementAndGet();
+    }
+
+    private static synchronized ExecutorService ioExecutor(){ //@ADDED
+        if(ioExecutor == null){
+            ioExecutor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioExecutor;
     }
 
     /**
@@ -64,31 +249,284 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * Lookups of resident pages never take a lock. Misses serialize only
+     * with other misses that hash to the same lock stripe, so the same page
+     * is never read twice by concurrent callers.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-        throws TransactionAbortedException, DbException {
+        throws TransactionAbortedException, DbException { //@ADDED
+        PageEntry pg_e = lookup(pid,null,false);
+        pg_e.unpin();
+
+        return pg_e.pg;
+    }
+
+    /**
+     * Same as {@link #getPage}, but the returned page stays pinned in the
+     * pool until {@link #unpinPage} is called, so it will not be chosen for
+     * eviction while the caller is working on it.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException { //@ADDED
+        return lookup(pid,null,false).pg;
+    }
+
+    /**
+     * Same as {@link #pinPage(TransactionId,PageId,Permissions)}, on behalf
+     * of a large scan. A miss is read into a frame of the scan's ring once
+     * the pool is full, and a hit does not count as a reference for the
+     * replacement policy, so the scan neither evicts nor promotes the pages
+     * other queries are using.
+     *
+     * @param ring the scan's ring, from {@link #newScanRing}, or null
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException { //@ADDED
+        return lookup(pid,ring,false).pg;
+    }
+
+    /**
+     * Whether a sequential scan over a file of filePages pages should go
+     * through a {@link ScanRing}: true when the file is larger than a
+     * quarter of the pool.
+     */
+    public boolean isLargeScan(int filePages) { //@ADDED
+        return filePages > numPages / 4;
+    }
+
+    /** @return a new ring of up to MAX_RING_PAGES frames for one large scan */
+    public ScanRing newScanRing() { //@ADDED
+        return new ScanRing(Math.max(1,Math.min(MAX_RING_PAGES,numPages/8)));
+    }
+
+    /**
+     * Starts reading a page into the pool on a background thread, so that a
+     * later {@link #getPage} finds it resident. A page that is already
+     * resident is not read again, and a prefetch that fails (for example
+     * because every frame is pinned) is silently dropped.
+     *
+     * @param ring the ring of the scan the page is read for, or null
+     * @return the pending read; null if the page is already resident
+     */
+    public Future<Boolean> prefetchPage(final PageId pid, final ScanRing ring) { //@ADDED
+        if(id_page.containsKey(pid)) return null;
+
+        return ioExecutor().submit(new Callable<Boolean>() {
+            public Boolean call() {
+                try{
+                    lookup(pid,ring,true).unpin();
+                    return Boolean.TRUE;
+                } catch (Exception e){
+                    // read-ahead is only a hint; the scan reads the page itself
+                    return Boolean.FALSE;
+                }
+            }
+        });
+    }
+
+    /** @return true if pid is in the pool right now */
+    public boolean isResident(PageId pid) { //@ADDED
+        return id_page.containsKey(pid);
+    }
+
+    /** @return the largest read-ahead window a sequential scan may use */
+    public int getReadAheadPages() { //@ADDED
+        return readAheadPages;
+    }
+
+    /**
+     * Sets the largest number of pages a sequential scan reads ahead of the
+     * page it is on. 0 turns read-ahead off.
+     */
+    public void setReadAheadPages(int pages) { //@ADDED
+        if(pages < 0) throw new IllegalArgumentException("negative read-ahead");
+        this.readAheadPages = pages;
+    }
+
+    /**
+     * Releases one pin taken by {@link #pinPage}. Unpinning a page that is
+     * no longer resident is a no-op.
+     */
+    public void unpinPage(PageId pid) { //@ADDED
         PageEntry pg_e = id_page.get(pid);
-        if(pg_e != null){
-            pg_e.visit();
-            return pg_e.pg;
+        if(pg_e != null)
+            pg_e.unpin();
+    }
+
+    /**
+     * @param prefetch true if the page is read ahead rather than requested;
+     *        such lookups are not counted as hits or misses
+     * @return the frame holding pid, pinned once on behalf of the caller
+     */
+    private PageEntry lookup(PageId pid, ScanRing ring, boolean prefetch) throws DbException { //@ADDED
+        // a ring left over from a pool that has since been replaced
+        if(ring != null && ring.owner() != this) ring = null;
+
+        PageEntry pg_e = id_page.get(pid);
+        if(pg_e != null && pg_e.pin()){
+            if(prefetch) return pg_e;
+            countHit(pg_e,pid);
+            if(ring == null) policy.pageAccessed(pid);
+            return pg_e;
+        }
+
+        synchronized(stripeFor(pid)){
+            while(true){
+                pg_e = id_page.get(pid);
+                if(pg_e == null) break;
+                if(pg_e.pin()){
+                    if(prefetch) return pg_e;
+                    countHit(pg_e,pid);
+                    if(ring == null) policy.pageAccessed(pid);
+                    return pg_e;
+                }
+                // being evicted right now; wait for it to leave the table
+                Thread.yield();
+            }
+
+            reserveFrame(ring);
+
+            PageId id = new HeapPageId(pid.getTableId(),pid.pageNumber());
+            Page pg = null;
+            try{
+                DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                pg = file.readPage(id);
+            } finally {
+                if(pg == null) releaseFrame();
+            }
+            if(pg == null)
+                throw new DbException("could not read page " + pid.pageNumber() + " of table " + pid.getTableId());
+
+            pg_e = new PageEntry(pg);
+            pg_e.prefetched.set(prefetch);
+            pg_e.pin();
+            id_page.put(id,pg_e);
+            policy.pageAdmitted(id);
+            if(ring != null) ring.add(id);
+            if(prefetch)
+                prefetchCount.incrementAndGet();
+            else
+                countMiss(pid);
+
+            return pg_e;
         }
+    }
 
-        while(id_page.size() >= numPages){
-            evictPage();
+    /**
+     * Claims a free frame for a page about to be loaded, evicting if needed.
+     * A full ring gives up its own oldest page before the policy is asked.
+     * Only the choice of a victim is made under evictLock; writing it out
+     * if it is dirty is not.
+     */
+    private void reserveFrame(ScanRing ring) throws DbException { //@ADDED
+        if(takeFreeFrame()) return;
+
+        long deadline = System.currentTimeMillis() + PIN_WAIT_MS;
+        while(true){
+            PageId victim;
+            synchronized(evictLock){
+                // a frame may have been freed while we waited for the lock
+                if(takeFreeFrame()) return;
+
+                victim = null;
+                if(ring != null && ring.isFull())
+                    victim = ring.recycle();
+                if(victim == null)
+                    victim = claimVictim();
+
+                if(victim == null){
+                    // every resident frame is pinned; other sessions may be
+                    // about to unpin, so give them a moment before giving up
+                    if(System.currentTimeMillis() > deadline)
+                        throw new DbException("all pages in the buffer pool are pinned");
+                    try{
+                        evictLock.wait(1);
+                    } catch (InterruptedException e){
+                        throw new DbException("interrupted while waiting for a free frame");
+                    }
+                    continue;
+                }
+            }
+
+            // the victim's frame passes straight to the page being loaded,
+            // so the count of used frames stays as it is
+            if(evictClaimed(victim)) return;
         }
+    }
+
+    /** @return true if a frame was free and is now counted as used */
+    private boolean takeFreeFrame() { //@ADDED
+        while(true){
+            int used = usedFrames.get();
+            if(used >= numPages) return false;
+            if(usedFrames.compareAndSet(used, used + 1)) return true;
+        }
+    }
 
-        PageId id = new HeapPageId(pid.getTableId(),pid.pageNumber());
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+    private void releaseFrame() { //@ADDED
+        usedFrames.decrementAndGet();
+    }
 
-        Page pg = file.readPage(id);
-        pg_e = new PageEntry(pg);
-        id_page.put(id,pg_e);
+    /** @return the number of pages currently resident in the pool */
+    public int getNumResidentPages() { //@ADDED
+        return id_page.size();
+    }
 
-        return pg;
+    /** @return the replacement policy this pool was created with */
+    public ReplacementPolicy getPolicy() { //@ADDED
+        return policy;
+    }
+
+    /** @return the number of page requests served from the pool */
+    public long getHitCount() { //@ADDED
+        long n = 0;
+        for(int i=0;i<NUM_STRIPES;i++)
+            n += counters.get(i * 16);
+        return n;
+    }
+
+    /** @return the number of page requests that had to read from disk */
+    public long getMissCount() { //@ADDED
+        long n = 0;
+        for(int i=0;i<NUM_STRIPES;i++)
+            n += counters.get(i * 16 + 1);
+        return n;
+    }
+
+    /** @return hits / (hits + misses), or 0 if no page was requested yet */
+    public double getHitRatio() { //@ADDED
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0.0 : (double)hits / total;
+    }
+
+    /** @return the number of pages read into the pool by read-ahead */
+    public long getPrefetchCount() { //@ADDED
+        return prefetchCount.get();
+    }
+
+    /** @return the number of prefetched pages that were then requested */
+    public long getPrefetchHitCount() { //@ADDED
+        return prefetchHits.get();
+    }
+
+    /** @return the number of prefetched pages evicted before anyone used them */
+    public long getPrefetchWasteCount() { //@ADDED
+        return prefetchWaste.get();
+    }
+
+    /** Zeroes the hit, miss and prefetch counters. */
+    public void resetStats() { //@ADDED
+        for(int i=0;i<counters.length();i++)
+            counters.set(i,0);
+        prefetchCount.set(0);
+        prefetchHits.set(0);
+        prefetchWaste.set(0);
     }
 
     /**
@@ -113,6 +551,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -133,6 +572,27 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        Set<HeapFile> files = bulkLoads.remove(tid);
+        if(files != null){
+            for(HeapFile f : files)
+                f.bulkLoadComplete(tid, commit);
+        }
+    }
+
+    /**
+     * Notes that tid bulk loaded pages into f past the BufferPool, so that
+     * {@link #transactionComplete(TransactionId, boolean)} can keep or undo
+     * them.
+     */
+    public void bulkLoaded(TransactionId tid, HeapFile f) { //@ADDED
+        Set<HeapFile> files = bulkLoads.get(tid);
+        if(files == null){
+            files = Collections.synchronizedSet(new HashSet<HeapFile>());
+            Set<HeapFile> prev = bulkLoads.putIfAbsent(tid, files);
+            if(prev != null)
+                files = prev;
+        }
+        files.add(f);
     }
 
     /**
@@ -153,6 +613,10 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException { //@ADDED
         DbFile file = Database.getCatalog().getDbFile(tableId);
         file.insertTuple(tid,t);
+
+        // t has its RecordId now; the table's indexes get its entry
+        for(IndexFile index : Database.getCatalog().getIndexes(tableId))
+            index.insertTuple(tid,t);
     }
 
     /**
@@ -173,6 +637,9 @@ public class BufferPool {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile file = Database.getCatalog().getDbFile(tableId);
         file.deleteTuple(tid,t);
+
+        for(IndexFile index : Database.getCatalog().getIndexes(tableId))
+            index.deleteTuple(tid,t);
     }
 
     /**
@@ -181,13 +648,13 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException { //@ADDED
-        Iterator iter = id_page.keySet().iterator();
+        Iterator<PageId> iter = id_page.keySet().iterator();
 
         while(iter.hasNext()){
-            PageId pid = (PageId)iter.next();
-            Page pg = ((PageEntry)id_page.get(pid)).pg;
+            PageId pid = iter.next();
+            PageEntry pg_e = id_page.get(pid);
 
-            if(pg.isDirty() != null)
+            if(pg_e != null && pg_e.pg.isDirty() != null)
                 flushPage(pid);
         }
     }
@@ -197,28 +664,51 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) { //@ADDED
-        id_page.remove(pid);
+    public void discardPage(PageId pid) { //@ADDED
+        while(true){
+            PageEntry pg_e = id_page.get(pid);
+            if(pg_e == null) return;
+
+            if(pg_e.pins.compareAndSet(0,-1)){
+                if(id_page.remove(pid, pg_e)){
+                    if(pg_e.prefetched.get()) prefetchWaste.incrementAndGet();
+                    policy.pageRemoved(pid);
+                    releaseFrame();
+                }
+                return;
+            }
+            // a page in use stays; one being evicted is about to leave
+            if(pg_e.pins.get() > 0) return;
+            Thread.yield();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException { //@ADDED
-        Page pg = ((PageEntry)id_page.get(pid)).pg;
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-        file.writePage(pg);
+    private void flushPage(PageId pid) throws IOException { //@ADDED
+        PageEntry pg_e = id_page.get(pid);
+        if(pg_e == null) return;
+
+        // two flushes of the same frame must not interleave their writes
+        synchronized(pg_e){
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            file.writePage(pg_e.pg);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException { //@ADDED
-        Iterator iter = id_page.keySet().iterator();
+        Iterator<PageId> iter = id_page.keySet().iterator();
 
         while(iter.hasNext()){
-            PageId pid = (PageId)iter.next();
-            Page pg = ((PageEntry)id_page.get(pid)).pg;
+            PageId pid = iter.next();
+            PageEntry pg_e = id_page.get(pid);
+            if(pg_e == null) continue;
+
+            Page pg = pg_e.pg;
             flushPage(pid);
 
             if(tid.equals(pg.isDirty())){
@@ -229,32 +719,63 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Chooses a page to discard from the buffer pool among the unpinned
+     * pages, according to the replacement policy, and claims its frame.
+     * Must be called with evictLock held.
+     *
+     * @return the page claimed, or null if every resident page is pinned
      */
-    private synchronized  void evictPage() throws DbException { //@TODO
-        Iterator<Map.Entry<PageId,PageEntry>> iter = id_page.entrySet().iterator();
-
-        int oldest_atime = -1;
-        PageId oldest_pid = null;
+    private PageId claimVictim() { //@ADDED
+        while(true){
+            PageId victim = policy.chooseVictim(unpinned);
+            if(victim == null) return null;
+            // if the victim could not be claimed after all, pick again
+            if(claimFrame(victim)) return victim;
+        }
+    }
 
-        while(iter.hasNext()){
-            Map.Entry<PageId,PageEntry> entry = iter.next();
-            PageId key = entry.getKey();
-            PageEntry value = entry.getValue();
-            if(oldest_pid == null || value.pg_atime < oldest_atime){
-                oldest_atime = value.pg_atime;
-                oldest_pid = key;
-            }
+    /**
+     * Claims the frame of a resident, unpinned page for eviction: nobody can
+     * pin it until {@link #evictClaimed} takes it out of the table. Must be
+     * called with evictLock held.
+     *
+     * @return true if the frame was claimed
+     */
+    private boolean claimFrame(PageId victim) { //@ADDED
+        PageEntry pg_e = id_page.get(victim);
+        if(pg_e == null){
+            // discarded concurrently; the policy just has not heard yet
+            policy.pageRemoved(victim);
+            return false;
         }
+        // false if pinned after it was chosen
+        return pg_e.pins.compareAndSet(0,-1);
+    }
+
+    /**
+     * Evicts a page whose frame was claimed, flushing it first if it is
+     * dirty. Called without evictLock, so that other misses need not wait
+     * for the write.
+     *
+     * @return true if the frame was freed
+     */
+    private boolean evictClaimed(PageId victim) throws DbException { //@ADDED
+        // a claimed frame cannot be unpinned or discarded by anyone else
+        PageEntry pg_e = id_page.get(victim);
+        if(pg_e == null) return false;
 
-        assert oldest_pid != null;
         try{
-            flushPage(oldest_pid);
+            if(pg_e.pg.isDirty() != null)
+                flushPage(victim);
         } catch (IOException e){
+            pg_e.pins.set(0);
             throw new DbException("error when flushing page:" + e);
         }
 
-        discardPage(oldest_pid);
+        if(!id_page.remove(victim, pg_e)) return false;
+        policy.pageRemoved(victim);
+        if(pg_e.prefetched.get()) prefetchWaste.incrementAndGet();
+
+        return true;
     }
 }
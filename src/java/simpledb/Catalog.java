@@ -20,6 +20,8 @@ public class Catalog {
     public Map<Integer,String> id_name = null;
     public Map<Integer,String> id_pkey = null;
     public Map<String,DbFile> name_file = null;
+    /** indexes by their own id; each knows the table it is over */
+    public Map<Integer,IndexFile> id_index = null;
     //@ADDED
 
     /**
@@ -31,6 +33,7 @@ public class Catalog {
         id_name = new HashMap<Integer,String>();
         id_pkey = new HashMap<Integer,String>();
         name_file = new HashMap<String,DbFile>();
+        id_index = new HashMap<Integer,IndexFile>();
     }
 
     /**
@@ -54,6 +57,8 @@ public class Catalog {
             id_file.remove(prev.getId());
             id_name.remove(prev.getId());
             id_pkey.remove(prev.getId());
+            for(IndexFile index : getIndexes(prev.getId()))
+                id_index.remove(index.getId());
         }
 
         id_file.put(file.getId(),file);
@@ -110,6 +115,9 @@ public class Catalog {
     public DbFile getDbFile(int tableid) throws NoSuchElementException { //@ADDED
         DbFile file = id_file.get(tableid);
 
+        // the pages of indexes are read through here too
+        if(file == null)
+            file = id_index.get(tableid);
         if(file == null)
             throw new NoSuchElementException();
 
@@ -138,8 +146,53 @@ public class Catalog {
         return name;
     }
     
+    /**
+     * Add an index to the catalog. From then on the BufferPool keeps it up
+     * to date as tuples are inserted into and deleted from its table, and
+     * queries may read the table through it.
+     * @param index the index; its table must be in the catalog already
+     */
+    public void addIndex(IndexFile index) { //@ADDED
+        if(!id_file.containsKey(index.getTableId()))
+            throw new NoSuchElementException("no table " + index.getTableId());
+        id_index.put(index.getId(), index);
+    }
+
+    /** @return the indexes of the specified table, possibly none */
+    public List<IndexFile> getIndexes(int tableid) { //@ADDED
+        List<IndexFile> indexes = new ArrayList<IndexFile>();
+        for(IndexFile index : id_index.values()){
+            if(index.getTableId() == tableid)
+                indexes.add(index);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return an index on the specified field of a table that can find the
+     *         tuples for op, or null if it has none. A hash index is
+     *         preferred for equality.
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) { //@ADDED
+        IndexFile found = null;
+        for(IndexFile index : id_index.values()){
+            if(index.getTableId() != tableid || index.getKeyField() != field || !index.supports(op))
+                continue;
+            if(found == null || index instanceof HashFile)
+                found = index;
+        }
+        return found;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() { //@ADDED
+        for(DbFile file : id_file.values()){
+            if(file instanceof HeapFile)
+                ((HeapFile)file).close();
+        }
+        for(IndexFile index : id_index.values())
+            index.close();
+        id_index.clear();
         id_file.clear();
         id_name.clear();
         id_pkey.clear();
@@ -161,7 +214,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(cFile)); //@ADDED
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [format]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -169,6 +222,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>(); //@ADDED
+                ArrayList<Integer> hashed = new ArrayList<Integer>(); //@ADDED
+                ArrayList<Integer> bloomed = new ArrayList<Integer>(); //@ADDED
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -180,11 +236,17 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) { //@ADDED
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[i].trim().equals("hash"))
+                            hashed.add(names.size() - 1);
+                        else if (els2[i].trim().equals("bloom"))
+                            bloomed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -192,9 +254,70 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // the page format, if the table does not use plain HeapPages
+                String format = line.substring(line.indexOf(")") + 1).trim().toLowerCase(); //@ADDED
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (format.equals(""))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (format.equals("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else if (format.equals("pax"))
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown page format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+
+                // Bloom filters on the bloom fields, built from the table
+                // unless the ones it has are on those fields already
+                if (!bloomed.isEmpty()) { //@ADDED
+                    int[] fieldsAr = new int[bloomed.size()];
+                    for (int i = 0; i < fieldsAr.length; i++)
+                        fieldsAr[i] = bloomed.get(i);
+                    BloomFilterMap blooms = tabHf.getBloomFilters();
+                    if (blooms == null || !Arrays.equals(blooms.getFields(), fieldsAr)) {
+                        try {
+                            tabHf.createBloomFilters(new TransactionId(), fieldsAr, BloomFilterMap.DEFAULT_FPR);
+                        } catch (DbException ex) {
+                            throw new IOException("could not build Bloom filters of " + name + ": " + ex);
+                        } catch (TransactionAbortedException ex) {
+                            throw new IOException("could not build Bloom filters of " + name + ": " + ex);
+                        }
+                    }
+                    for (int field : bloomed)
+                        System.out.println("Added Bloom filter on " + name + "." + namesAr[field]);
+                }
+
+                // a B+tree per indexed field and a hash index per hashed
+                // one, built from the table if they are new
+                ArrayList<IndexFile> indexes = new ArrayList<IndexFile>(); //@ADDED
+                for (int field : indexed)
+                    indexes.add(new BTreeFile(new File(baseFolder+"/"+name + "." + namesAr[field] + ".idx"),
+                            tabHf.getId(), field, t));
+                for (int field : hashed)
+                    indexes.add(new HashFile(new File(baseFolder+"/"+name + "." + namesAr[field] + ".hash"),
+                            tabHf.getId(), field, t));
+                for (IndexFile index : indexes) { //@ADDED
+                    File indexFile = index.getFile();
+                    String field = namesAr[index.getKeyField()];
+                    addIndex(index);
+                    if (index.numPages() == 0 && tabHf.numPages() > 0) {
+                        try {
+                            index.build(new TransactionId());
+                        } catch (DbException ex) {
+                            throw new IOException("could not build " + indexFile + ": " + ex);
+                        } catch (TransactionAbortedException ex) {
+                            throw new IOException("could not build " + indexFile + ": " + ex);
+                        }
+                    }
+                    System.out.println("Added index on " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
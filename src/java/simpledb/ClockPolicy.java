@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Every frame has a reference bit that
+ * is set on access; the clock hand sweeps the frames, clearing set bits and
+ * evicting the first frame whose bit is already clear.
+ * <p>
+ * Accesses only set a bit and take no lock, which makes this the policy of
+ * choice when many sessions hit the pool at once.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    //@ADDED
+    private final PageId[] frames;
+    private final AtomicIntegerArray refBits;
+    private final ConcurrentHashMap<PageId,Integer> slotOf;
+    private final LinkedList<Integer> freeSlots = new LinkedList<Integer>();
+    private int hand = 0;
+    //@ADDED
+
+    public ClockPolicy(int numPages) { //@ADDED
+        frames = new PageId[numPages];
+        refBits = new AtomicIntegerArray(numPages);
+        slotOf = new ConcurrentHashMap<PageId,Integer>(numPages);
+
+        for(int i=0;i<numPages;i++){
+            freeSlots.addLast(i);
+        }
+    }
+
+    public synchronized void pageAdmitted(PageId pid) { //@ADDED
+        Integer slot = slotOf.get(pid);
+        if(slot == null){
+            if(freeSlots.isEmpty())
+                throw new IllegalStateException("more pages admitted than frames in the clock");
+            slot = freeSlots.removeFirst();
+            frames[slot] = pid;
+            slotOf.put(pid,slot);
+        }
+        refBits.set(slot,1);
+    }
+
+    public void pageAccessed(PageId pid) { //@ADDED
+        Integer slot = slotOf.get(pid);
+        if(slot != null)
+            refBits.set(slot,1);
+    }
+
+    public synchronized void pageRemoved(PageId pid) { //@ADDED
+        Integer slot = slotOf.remove(pid);
+        if(slot == null) return;
+
+        frames[slot] = null;
+        refBits.set(slot,0);
+        freeSlots.addLast(slot);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) { //@ADDED
+        // two full turns clear every reference bit, so a third finds the
+        // victim if there is one at all
+        for(int steps=0;steps<3*frames.length;steps++){
+            int slot = hand;
+            hand = (hand + 1) % frames.length;
+
+            PageId pid = frames[slot];
+            if(pid == null || !evictable.isEvictable(pid))
+                continue;
+            if(refBits.getAndSet(slot,0) == 0){
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() { //@ADDED
+        return "CLOCK";
+    }
+}
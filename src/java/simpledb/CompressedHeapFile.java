@@ -0,0 +1,472 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedHeapFile is a HeapFile that keeps each page deflated on disk
+ * (with jzlib), for cold or wide tables where disk space and I/O bandwidth
+ * matter more than the CPU spent packing and unpacking pages. Pages are
+ * still whole HeapPages once they are read, so the BufferPool and the
+ * operators above never see the difference.
+ * <p>
+ * The data file is a sequence of records, each starting at a multiple of
+ * SECTOR_SIZE bytes: the page number, compressed length and number of
+ * sectors the record was given (three ints), then the compressed page. A
+ * page that still fits in the sectors it was given is rewritten in place,
+ * keeping them all even if it shrank; one that has grown moves to the end
+ * of the file, and the space it leaves is not reused. Where each page lives
+ * is kept in a page map in a side file ({@link #mapFileFor}): the number of
+ * pages, then the offset (a long), compressed length and sectors (ints) of
+ * each. If the map is missing it is rebuilt by walking the records, each
+ * one its number of sectors after the last; a page that appears twice
+ * lives in the later one.
+ * <p>
+ * How well the table compresses is worked out from the page map; the
+ * pages compressed and decompressed, and the time spent on them, are only
+ * counted since the file was opened. See {@link #getCompressionReport}.
+ */
+public class CompressedHeapFile extends HeapFile {
+    public static final String MAP_SUFFIX = ".pmap";
+    /** Records start at multiples of this many bytes. */
+    public static final int SECTOR_SIZE = 256;
+
+    static final int RECORD_HEADER = 12;
+    static final int MAP_HEADER = 4;
+    static final int MAP_ENTRY = 16;
+    /** log2 of the deflate window; a page is never longer than this */
+    static final int WINDOW_BITS = 12;
+
+    //@ADDED
+    private int level = JZlib.Z_DEFAULT_COMPRESSION;
+
+    // the page map, loaded when the file is opened
+    private transient FileChannel mapChannel = null;
+    private transient long[] offsets = new long[0];
+    private transient int[] lengths = new int[0];
+    private transient int[] sectors = new int[0];
+    private transient int mappedPages = 0;
+    private transient int persistedPages = 0;
+    // where the next record that does not fit in place goes
+    private transient long dataEnd = 0;
+
+    // since the file was opened
+    private final AtomicLong pagesCompressed = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong pagesDecompressed = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+    //@ADDED
+
+    public CompressedHeapFile(File f, TupleDesc td) { //@ADDED
+        super(f, td);
+    }
+
+    /** @return the side file holding the page map of data file f */
+    public static File mapFileFor(File f) { //@ADDED
+        return new File(f.getPath() + MAP_SUFFIX);
+    }
+
+    /**
+     * Writes the pages of the plain heap file in, byte for byte, to a new
+     * compressed file out along with its page map, replacing whatever out
+     * held before.
+     *
+     * @return the compressed file, not yet added to the catalog
+     */
+    public static CompressedHeapFile compress(File in, File out, TupleDesc td) throws IOException { //@ADDED
+        out.delete();
+        mapFileFor(out).delete();
+        FreeSpaceMap.fileFor(out).delete();
+        ZoneMap.fileFor(out).delete();
+        BloomFilterMap.fileFor(out).delete();
+
+        CompressedHeapFile f = new CompressedHeapFile(out, td);
+        FileInputStream is = new FileInputStream(in);
+        try{
+            byte[] extent = new byte[16 * BufferPool.PAGE_SIZE];
+            int pageNo = 0;
+            int n;
+            while((n = readFully(is, extent)) >= BufferPool.PAGE_SIZE){
+                int pages = n / BufferPool.PAGE_SIZE;
+                f.writePages(pageNo, ByteBuffer.wrap(extent, 0, pages * BufferPool.PAGE_SIZE));
+                pageNo += pages;
+            }
+        } finally {
+            is.close();
+            f.close();
+        }
+        // opening it again loads the page count from the map
+        return new CompressedHeapFile(out, td);
+    }
+
+    private static int readFully(InputStream is, byte[] b) throws IOException { //@ADDED
+        int n = 0;
+        int r;
+        while(n < b.length && (r = is.read(b, n, b.length - n)) > 0)
+            n += r;
+        return n;
+    }
+
+    /** @return the zlib level pages are compressed with */
+    public int getCompressionLevel() { //@ADDED
+        return level;
+    }
+
+    /**
+     * Sets the zlib level pages are compressed with from now on, from
+     * JZlib.Z_BEST_SPEED (1) to JZlib.Z_BEST_COMPRESSION (9).
+     */
+    public void setCompressionLevel(int level) { //@ADDED
+        if(level != JZlib.Z_DEFAULT_COMPRESSION && (level < JZlib.Z_NO_COMPRESSION || level > JZlib.Z_BEST_COMPRESSION))
+            throw new IllegalArgumentException("bad compression level " + level);
+        this.level = level;
+    }
+
+    private static int roundUp(long n) { //@ADDED
+        return (int)((n + SECTOR_SIZE - 1) / SECTOR_SIZE * SECTOR_SIZE);
+    }
+
+    /** @return the number of sectors a record of a page compressed to len bytes needs */
+    private static int sectorsFor(int len) { //@ADDED
+        return roundUp(RECORD_HEADER + len) / SECTOR_SIZE;
+    }
+
+    // see HeapFile.java for javadocs
+    protected synchronized int loadPageCount(FileChannel ch) throws IOException { //@ADDED
+        dataEnd = roundUp(ch.size());
+        if(mapChannel != null)
+            mapChannel.close();
+        mapChannel = new RandomAccessFile(mapFileFor(getFile()),"rw").getChannel();
+        if(!loadMap()){
+            rebuildMap(ch);
+            flushMap();
+        }
+        return mappedPages;
+    }
+
+    /** @return false if the map on disk is missing or damaged */
+    private boolean loadMap() throws IOException { //@ADDED
+        long size = mapChannel.size();
+        if(size < MAP_HEADER) return false;
+
+        ByteBuffer buf = ByteBuffer.allocate((int)size);
+        while(buf.hasRemaining()){
+            if(mapChannel.read(buf, buf.position()) < 0) return false;
+        }
+        buf.flip();
+        int pages = buf.getInt();
+        if(pages < 0 || size != MAP_HEADER + (long)pages * MAP_ENTRY) return false;
+
+        growMap(pages);
+        for(int i=0;i<pages;i++){
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+            sectors[i] = buf.getInt();
+            if(offsets[i] + RECORD_HEADER + lengths[i] > dataEnd
+                    || sectors[i] < sectorsFor(lengths[i])) return false;
+        }
+        mappedPages = pages;
+        persistedPages = pages;
+        return true;
+    }
+
+    /** Finds every page by walking the records of the data file. */
+    private void rebuildMap(FileChannel ch) throws IOException { //@ADDED
+        mappedPages = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        long pos = 0;
+        long size = ch.size();
+        while(pos + RECORD_HEADER <= size){
+            header.clear();
+            while(header.hasRemaining()){
+                if(ch.read(header, pos + header.position()) < 0) break;
+            }
+            header.flip();
+            int pageNo = header.getInt();
+            int len = header.getInt();
+            int given = header.getInt();
+            // a torn record at the end of the file; every page has a
+            // record of its own, so there are fewer pages than sectors
+            if(pageNo < 0 || pageNo > size / SECTOR_SIZE || len <= 0
+                    || given < sectorsFor(len) || pos + RECORD_HEADER + len > size) break;
+
+            growMap(pageNo + 1);
+            offsets[pageNo] = pos;
+            lengths[pageNo] = len;
+            sectors[pageNo] = given;
+            mappedPages = Math.max(mappedPages, pageNo + 1);
+            pos += (long)given * SECTOR_SIZE;
+        }
+        dataEnd = roundUp(pos);
+    }
+
+    private void growMap(int pages) { //@ADDED
+        if(pages <= offsets.length) return;
+
+        int n = Math.max(pages, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, n);
+        lengths = Arrays.copyOf(lengths, n);
+        sectors = Arrays.copyOf(sectors, n);
+    }
+
+    /** Writes the whole page map to its side file. */
+    private void flushMap() throws IOException { //@ADDED
+        ByteBuffer buf = ByteBuffer.allocate(MAP_HEADER + mappedPages * MAP_ENTRY);
+        buf.putInt(mappedPages);
+        for(int i=0;i<mappedPages;i++){
+            buf.putLong(offsets[i]);
+            buf.putInt(lengths[i]);
+            buf.putInt(sectors[i]);
+        }
+        buf.flip();
+        mapChannel.truncate(buf.remaining());
+        while(buf.hasRemaining()){
+            mapChannel.write(buf, buf.position());
+        }
+        persistedPages = mappedPages;
+    }
+
+    /** Writes the map entries of pages first to first+n-1, and the count if it grew. */
+    private void flushMap(int first, int n) throws IOException { //@ADDED
+        if(first > persistedPages){
+            flushMap();
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(n * MAP_ENTRY);
+        for(int i=first;i<first+n;i++){
+            buf.putLong(offsets[i]);
+            buf.putInt(lengths[i]);
+            buf.putInt(sectors[i]);
+        }
+        buf.flip();
+        long pos = MAP_HEADER + (long)first * MAP_ENTRY;
+        while(buf.hasRemaining()){
+            mapChannel.write(buf, pos + buf.position());
+        }
+
+        if(mappedPages > persistedPages){
+            ByteBuffer header = ByteBuffer.allocate(MAP_HEADER);
+            header.putInt(mappedPages);
+            header.flip();
+            mapChannel.write(header, 0);
+            persistedPages = mappedPages;
+        }
+    }
+
+    // see HeapFile.java for javadocs
+    protected void readPageBytes(int pageNo, ByteBuffer buf) throws IOException { //@ADDED
+        FileChannel ch = channel();
+        ByteBuffer record;
+        int len;
+        // pages are rewritten in place under the monitor, so a record is
+        // read under it too, never half written; only inflating is left out
+        synchronized(this){
+            if(pageNo >= mappedPages)
+                throw new IOException("page " + pageNo + " is not in the page map");
+            long offset = offsets[pageNo];
+            len = lengths[pageNo];
+
+            record = ByteBuffer.allocate(RECORD_HEADER + len);
+            while(record.hasRemaining()){
+                if(ch.read(record, offset + record.position()) < 0)
+                    throw new IOException("page " + pageNo + " runs past the end of the file");
+            }
+        }
+        record.flip();
+        if(record.getInt() != pageNo || record.getInt() != len)
+            throw new IOException("page map does not match the record of page " + pageNo);
+
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        long start = System.nanoTime();
+        inflate(record.array(), RECORD_HEADER, len, page);
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        pagesDecompressed.incrementAndGet();
+
+        buf.put(page);
+    }
+
+    // see HeapFile.java for javadocs
+    protected synchronized void writePages(int first, ByteBuffer buf) throws IOException { //@ADDED
+        FileChannel ch = channel(true);
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        byte[] out = new byte[RECORD_HEADER + BufferPool.PAGE_SIZE + BufferPool.PAGE_SIZE / 100 + 64];
+
+        int n = 0;
+        for(int pageNo=first; buf.remaining() >= BufferPool.PAGE_SIZE; pageNo++, n++){
+            buf.get(page);
+
+            long start = System.nanoTime();
+            int len = deflate(page, out, RECORD_HEADER);
+            compressNanos.addAndGet(System.nanoTime() - start);
+            pagesCompressed.incrementAndGet();
+
+            // rewrite in place if the sectors the page already has are
+            // enough; it keeps them all, so walking the records still
+            // steps over what is left of the longer record
+            growMap(pageNo + 1);
+            long offset;
+            int given;
+            if(pageNo < mappedPages && lengths[pageNo] > 0
+                    && sectors[pageNo] >= sectorsFor(len)){
+                offset = offsets[pageNo];
+                given = sectors[pageNo];
+            } else {
+                offset = dataEnd;
+                given = sectorsFor(len);
+                dataEnd += (long)given * SECTOR_SIZE;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(out, 0, RECORD_HEADER + len);
+            record.putInt(pageNo);
+            record.putInt(len);
+            record.putInt(given);
+            record.position(0);
+            while(record.hasRemaining()){
+                ch.write(record, offset + record.position());
+            }
+
+            offsets[pageNo] = offset;
+            lengths[pageNo] = len;
+            sectors[pageNo] = given;
+            mappedPages = Math.max(mappedPages, pageNo + 1);
+        }
+        if(n > 0)
+            flushMap(first, n);
+    }
+
+    /** Pages take only the sectors they need, so nothing is preallocated. */
+    protected synchronized void ensureAllocated(int pages) throws IOException { //@ADDED
+    }
+
+    /** @return the compressed length of raw, written to out at offset */
+    private int deflate(byte[] raw, byte[] out, int offset) throws IOException { //@ADDED
+        ZStream z = new ZStream();
+        try{
+            check(z, z.deflateInit(level, WINDOW_BITS));
+            z.next_in = raw;
+            z.next_in_index = 0;
+            z.avail_in = raw.length;
+            z.next_out = out;
+            z.next_out_index = offset;
+            z.avail_out = out.length - offset;
+            if(z.deflate(JZlib.Z_FINISH) != JZlib.Z_STREAM_END)
+                throw new IOException("could not compress page: " + z.msg);
+            return (int)z.total_out;
+        } finally {
+            z.deflateEnd();
+        }
+    }
+
+    /** Inflates len bytes of in, starting at offset, into page. */
+    private static void inflate(byte[] in, int offset, int len, byte[] page) throws IOException { //@ADDED
+        ZStream z = new ZStream();
+        try{
+            check(z, z.inflateInit(WINDOW_BITS));
+            z.next_in = in;
+            z.next_in_index = offset;
+            z.avail_in = len;
+            z.next_out = page;
+            z.next_out_index = 0;
+            z.avail_out = page.length;
+            while(true){
+                int err = z.inflate(JZlib.Z_NO_FLUSH);
+                if(err == JZlib.Z_STREAM_END) break;
+                check(z, err);
+                if(z.avail_in == 0 || z.avail_out == 0)
+                    throw new IOException("truncated compressed page");
+            }
+            if(z.total_out != page.length)
+                throw new IOException("compressed page is " + z.total_out + " bytes long");
+        } finally {
+            z.inflateEnd();
+        }
+    }
+
+    private static void check(ZStream z, int err) throws IOException { //@ADDED
+        if(err != JZlib.Z_OK)
+            throw new IOException("zlib error " + err + ": " + z.msg);
+    }
+
+    /** @return the bytes the pages of this table take on disk, compressed */
+    public synchronized long getStoredBytes() { //@ADDED
+        long total = 0;
+        for(int i=0;i<mappedPages;i++)
+            total += lengths[i];
+        return total;
+    }
+
+    /** @return the bytes of the sectors given to the pages of this table */
+    public synchronized long getSectorBytes() { //@ADDED
+        long total = 0;
+        for(int i=0;i<mappedPages;i++)
+            total += (long)sectors[i] * SECTOR_SIZE;
+        return total;
+    }
+
+    /** @return the length of the data file, including space pages moved out of */
+    public synchronized long getFileBytes() { //@ADDED
+        return dataEnd;
+    }
+
+    /** @return uncompressed size over compressed size of the pages now in the table */
+    public double getCompressionRatio() { //@ADDED
+        long stored = getStoredBytes();
+        return stored == 0 ? 1.0 : (double)numPages() * BufferPool.PAGE_SIZE / stored;
+    }
+
+    /** @return the number of pages compressed since the file was opened */
+    public long getPagesCompressed() { //@ADDED
+        return pagesCompressed.get();
+    }
+
+    /** @return the number of pages decompressed since the file was opened */
+    public long getPagesDecompressed() { //@ADDED
+        return pagesDecompressed.get();
+    }
+
+    /** @return average time to compress one page since the file was opened, in microseconds */
+    public double getCompressMicrosPerPage() { //@ADDED
+        long n = pagesCompressed.get();
+        return n == 0 ? 0.0 : compressNanos.get() / 1e3 / n;
+    }
+
+    /** @return average time to decompress one page since the file was opened, in microseconds */
+    public double getDecompressMicrosPerPage() { //@ADDED
+        long n = pagesDecompressed.get();
+        return n == 0 ? 0.0 : decompressNanos.get() / 1e3 / n;
+    }
+
+    /**
+     * @return a one-line summary of how well this table compresses, from
+     *         the page map, and what compressing has cost since the file
+     *         was opened
+     */
+    public String getCompressionReport() { //@ADDED
+        return String.format("%s: %d pages, %d bytes stored in %d bytes of sectors (%d in file), "
+                + "ratio %.2f; since opened, %d pages compressed at %.1f us/page, "
+                + "%d decompressed at %.1f us/page",
+                getFile().getName(), numPages(), getStoredBytes(), getSectorBytes(), getFileBytes(),
+                getCompressionRatio(), getPagesCompressed(), getCompressMicrosPerPage(),
+                getPagesDecompressed(), getDecompressMicrosPerPage());
+    }
+
+    /** Writes out the page map and closes the side file along with the data file. */
+    public synchronized void close() { //@ADDED
+        if(mapChannel != null){
+            try{
+                flushMap();
+                mapChannel.close();
+            } catch (IOException e){
+                // the map is rebuilt from the data file if it does not match
+            }
+            mapChannel = null;
+        }
+        super.close();
+    }
+}
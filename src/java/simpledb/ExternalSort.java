@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in the order of a
+ * comparator, holding no more than a memory budget of them at a time. On
+ * open it reads the child a budget at a time, sorts each of these runs in
+ * memory and writes it to a {@link TupleFile}; the sorted tuples are then
+ * produced by merging the runs, taking the least head of all of them from
+ * a heap. If there are more runs than pages of memory to read them
+ * through, groups of runs are merged into longer runs first. A child that
+ * fits in one run is never written out.
+ * <p>
+ * The sort is stable, and rewinding merges the runs again without sorting
+ * them again. The budget counts pages of tuples, as the buffer pool does,
+ * and defaults to {@link #getMemoryPages()}.
+ */
+public class ExternalSort implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private static int memoryPages = DEFAULT_MEMORY_PAGES; //@ADDED
+
+    /** The head of a run being merged. */
+    private static class Head { //@ADDED
+        Tuple t;
+        final int run;
+
+        Head(Tuple t, int run) {
+            this.t = t;
+            this.run = run;
+        }
+    }
+
+    //@ADDED
+    private final DbIterator child;
+    private final Comparator<Tuple> cmp;
+    private final int pages;
+
+    private boolean sorted = false;
+    /** the child when it fits in one run, or null if it was spilled */
+    private ArrayList<Tuple> memory = null;
+    private Iterator<Tuple> memoryIt = null;
+    private ArrayList<TupleFile> runs = new ArrayList<TupleFile>();
+    private ArrayList<DbIterator> readers = new ArrayList<DbIterator>();
+    private PriorityQueue<Head> heads = null;
+
+    private int initialRuns = 0;
+    private int mergePasses = 0;
+    //@ADDED
+
+    /** Sets the number of pages of tuples sorts made from now on may hold. */
+    public static void setMemoryPages(int pages) { //@ADDED
+        if (pages < 3)
+            throw new IllegalArgumentException("an external sort needs at least 3 pages");
+        memoryPages = pages;
+    }
+
+    /** @return the number of pages of tuples a sort may hold in memory */
+    public static int getMemoryPages() { //@ADDED
+        return memoryPages;
+    }
+
+    /**
+     * Constructor, with the memory budget set by {@link #setMemoryPages}.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param cmp
+     *            the order to return them in
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> cmp) { //@ADDED
+        this(child, cmp, memoryPages);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param cmp
+     *            the order to return them in
+     * @param memoryPages
+     *            the number of pages of tuples the sort may hold in memory
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> cmp, int memoryPages) { //@ADDED
+        this.child = child;
+        this.cmp = cmp;
+        this.pages = Math.max(3, memoryPages);
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return child.getTupleDesc();
+    }
+
+    /** @return the number of sorted runs the child was written out as, 0 if none */
+    public int getInitialRuns() { //@ADDED
+        return initialRuns;
+    }
+
+    /** @return the number of passes that merged runs into longer runs */
+    public int getMergePasses() { //@ADDED
+        return mergePasses;
+    }
+
+    /** Opens the child and sorts it, unless it was sorted since the last close. */
+    public void open() throws DbException, TransactionAbortedException { //@ADDED
+        if (!sorted) {
+            child.open();
+            sort();
+            sorted = true;
+        }
+        rewind();
+    }
+
+    /** Reads the child into sorted runs, and merges them down to as many as can be read at once. */
+    private void sort() throws DbException, TransactionAbortedException { //@ADDED
+        int budget = TupleFile.tuplesIn(getTupleDesc(), pages);
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            run.add(child.next());
+            if (run.size() >= budget && child.hasNext()) {
+                Collections.sort(run, cmp);
+                TupleFile f = new TupleFile(getTupleDesc());
+                for (Tuple t : run)
+                    f.add(t);
+                runs.add(f);
+                run.clear();
+            }
+        }
+        Collections.sort(run, cmp);
+        if (runs.isEmpty()) {
+            memory = run;
+            return;
+        }
+
+        TupleFile f = new TupleFile(getTupleDesc());
+        for (Tuple t : run)
+            f.add(t);
+        runs.add(f);
+        run = null;
+        initialRuns = runs.size();
+
+        // a page to read each run through, and one to write the merge to
+        int fanIn = pages - 1;
+        while (runs.size() > fanIn) {
+            ArrayList<TupleFile> merged = new ArrayList<TupleFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<TupleFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                TupleFile out = new TupleFile(getTupleDesc());
+                startMerge(group);
+                Tuple t;
+                while ((t = nextMerged()) != null)
+                    out.add(t);
+                endMerge();
+                for (TupleFile g : group)
+                    g.delete();
+                merged.add(out);
+            }
+            runs = merged;
+            mergePasses++;
+        }
+    }
+
+    /** Opens a reader of each run and puts its first tuple on the heap. */
+    private void startMerge(List<TupleFile> group) throws DbException, TransactionAbortedException { //@ADDED
+        // ties go to the earlier run, which keeps the sort stable
+        heads = new PriorityQueue<Head>(Math.max(1, group.size()), new Comparator<Head>() {
+            public int compare(Head a, Head b) {
+                int c = cmp.compare(a.t, b.t);
+                return c != 0 ? c : a.run - b.run;
+            }
+        });
+        readers.clear();
+        for (int i = 0; i < group.size(); i++) {
+            DbIterator it = group.get(i).iterator();
+            it.open();
+            readers.add(it);
+            if (it.hasNext())
+                heads.add(new Head(it.next(), i));
+        }
+    }
+
+    /** @return the least head of the runs being merged, or null if they are done */
+    private Tuple nextMerged() throws DbException, TransactionAbortedException { //@ADDED
+        Head h = heads.poll();
+        if (h == null)
+            return null;
+        Tuple t = h.t;
+        DbIterator it = readers.get(h.run);
+        if (it.hasNext()) {
+            h.t = it.next();
+            heads.add(h);
+        }
+        return t;
+    }
+
+    private void endMerge() { //@ADDED
+        for (DbIterator it : readers)
+            it.close();
+        readers.clear();
+        heads = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException { //@ADDED
+        if (!sorted)
+            throw new IllegalStateException("ExternalSort not open");
+        if (memory != null)
+            return memoryIt.hasNext();
+        return !heads.isEmpty();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException { //@ADDED
+        if (!hasNext())
+            throw new NoSuchElementException();
+        if (memory != null)
+            return memoryIt.next();
+        return nextMerged();
+    }
+
+    /** Starts returning the sorted tuples from the first again. */
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        if (memory != null) {
+            memoryIt = memory.iterator();
+            return;
+        }
+        endMerge();
+        startMerge(runs);
+    }
+
+    /** Closes the child and deletes the runs. */
+    public void close() { //@ADDED
+        endMerge();
+        for (TupleFile f : runs)
+            f.delete();
+        runs.clear();
+        memory = null;
+        memoryIt = null;
+        sorted = false;
+        child.close();
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * FreeSpaceMap records, for every page of a HeapFile, roughly how much room
+ * is left on it, so that an insert can go straight to a page with a free
+ * slot instead of trying every page of the file in turn.
+ * <p>
+ * Each page gets a one-byte bucket: 0 means the page is full, and 1..255
+ * is the fraction of free slots rounded up, so any page with at least one
+ * free slot has a non-zero bucket. The map lives in a side file next to the
+ * heap file ({@link #fileFor}), laid out as the number of pages it covers
+ * (an int) followed by one bucket per page. The page count doubles as the
+ * heap file's high-water mark: the file itself may be longer, since it
+ * grows by whole extents of empty pages.
+ * <p>
+ * The map is only a hint. An insert that finds a page full after all just
+ * corrects that page's bucket and moves on. If the side file is missing or
+ * covers a different number of pages than the heap file, it is rebuilt by
+ * reading every page once.
+ */
+public class FreeSpaceMap {
+    public static final String SUFFIX = ".fsm";
+
+    static final int HEADER_SIZE = 4;
+    static final int MAX_BUCKET = 255;
+
+    //@ADDED
+    private final File mapFile;
+    private FileChannel channel = null;
+
+    private byte[] buckets = new byte[64];
+    private int numPages = 0;
+    /** the number of pages the header on disk says the map covers */
+    private int persistedPages = -1;
+    /** pages whose bucket is non-zero */
+    private final BitSet hasRoom = new BitSet();
+    /** where the last search for room ended */
+    private int hint = 0;
+    //@ADDED
+
+    /** @return the side file holding the free-space map of heap file f */
+    public static File fileFor(File f) { //@ADDED
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /**
+     * Reads the page count saved in a side file without loading the map.
+     *
+     * @return the high-water mark, or -1 if the side file is missing or
+     *         damaged
+     */
+    public static int readHighWaterMark(File mapFile) { //@ADDED
+        if(!mapFile.exists()) return -1;
+
+        try{
+            DataInputStream in = new DataInputStream(new FileInputStream(mapFile));
+            try{
+                int pages = in.readInt();
+                if(pages < 0 || mapFile.length() != HEADER_SIZE + (long)pages)
+                    return -1;
+                return pages;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e){
+            return -1;
+        }
+    }
+
+    /** @return the bucket for a page with emptySlots of its numSlots slots free */
+    public static int bucket(int emptySlots, int numSlots) { //@ADDED
+        if(emptySlots <= 0 || numSlots <= 0) return 0;
+        return (emptySlots * MAX_BUCKET + numSlots - 1) / numSlots;
+    }
+
+    /**
+     * Opens the free-space map of the given heap file, reading it from its
+     * side file or rebuilding it from the heap file's pages.
+     */
+    public FreeSpaceMap(HeapFile f) throws IOException { //@ADDED
+        this.mapFile = fileFor(f.getFile());
+        this.channel = new RandomAccessFile(mapFile,"rw").getChannel();
+
+        int pages = f.numPages();
+        if(!load(pages)){
+            for(int i=0;i<pages;i++){
+                HeapPage pg = (HeapPage)f.readPage(new HeapPageId(f.getId(),i));
+                set(i, bucket(pg.getNumEmptySlots(), pg.numSlots));
+            }
+            flushAll();
+        }
+    }
+
+    /** @return false if the side file does not describe a file of pages pages */
+    private boolean load(int pages) throws IOException { //@ADDED
+        if(channel.size() != HEADER_SIZE + (long)pages) return false;
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + pages);
+        while(buf.hasRemaining()){
+            if(channel.read(buf, buf.position()) < 0) return false;
+        }
+        buf.flip();
+        if(buf.getInt() != pages) return false;
+
+        for(int i=0;i<pages;i++){
+            set(i, buf.get() & 0xff);
+        }
+        persistedPages = pages;
+        return true;
+    }
+
+    private void set(int pageNo, int bucket) { //@ADDED
+        if(pageNo >= buckets.length)
+            buckets = Arrays.copyOf(buckets, Math.max(pageNo + 1, buckets.length * 2));
+        if(pageNo >= numPages)
+            numPages = pageNo + 1;
+
+        buckets[pageNo] = (byte)bucket;
+        hasRoom.set(pageNo, bucket != 0);
+    }
+
+    /**
+     * Records the free space of a page after it changed in memory. Pages
+     * past the end of the map extend it.
+     */
+    public synchronized void update(int pageNo, int emptySlots, int numSlots) { //@ADDED
+        set(pageNo, bucket(emptySlots, numSlots));
+    }
+
+    /**
+     * Drops the pages from pages on, after the heap file was cut back to
+     * that many, and writes the map out.
+     */
+    public synchronized void truncate(int pages) throws IOException { //@ADDED
+        if(pages >= numPages) return;
+
+        hasRoom.clear(pages, numPages);
+        numPages = pages;
+        if(hint >= pages)
+            hint = 0;
+        flushAll();
+    }
+
+    /** @return the bucket of a page, 0 if the page is full or unknown */
+    public synchronized int getBucket(int pageNo) { //@ADDED
+        if(pageNo < 0 || pageNo >= numPages) return 0;
+        return buckets[pageNo] & 0xff;
+    }
+
+    /** @return the number of pages the map covers */
+    public synchronized int numPages() { //@ADDED
+        return numPages;
+    }
+
+    /**
+     * @return a page that has a free slot according to the map, or -1 if
+     *         every page is full
+     */
+    public synchronized int findPageWithSpace() { //@ADDED
+        int p = hasRoom.nextSetBit(hint);
+        if(p < 0)
+            p = hasRoom.nextSetBit(0);
+        if(p < 0) return -1;
+
+        hint = p;
+        return p;
+    }
+
+    /**
+     * Writes the bucket of one page to the side file, along with the page
+     * count if the map has grown since it was last written.
+     */
+    public synchronized void flush(int pageNo) throws IOException { //@ADDED
+        if(pageNo >= numPages) return;
+
+        if(persistedPages < 0 || numPages < persistedPages){
+            flushAll();
+            return;
+        }
+        ByteBuffer b = ByteBuffer.wrap(buckets, pageNo, 1);
+        channel.write(b, HEADER_SIZE + pageNo);
+
+        if(numPages > persistedPages){
+            // new buckets first, then the count that makes them valid
+            b = ByteBuffer.wrap(buckets, persistedPages, numPages - persistedPages);
+            channel.write(b, HEADER_SIZE + persistedPages);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(numPages);
+            header.flip();
+            channel.write(header, 0);
+            persistedPages = numPages;
+        }
+    }
+
+    /** Writes the whole map to the side file. */
+    public synchronized void flushAll() throws IOException { //@ADDED
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + numPages);
+        buf.putInt(numPages);
+        buf.put(buckets, 0, numPages);
+        buf.flip();
+
+        channel.truncate(HEADER_SIZE + (long)numPages);
+        while(buf.hasRemaining()){
+            channel.write(buf, buf.position());
+        }
+        persistedPages = numPages;
+    }
+
+    /** Writes the map out and closes the side file. */
+    public synchronized void close() throws IOException { //@ADDED
+        if(channel == null) return;
+
+        flushAll();
+        channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,478 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * GraceHashJoin is a hybrid hash join for equality predicates whose build
+ * side does not fit in memory. It splits the build side into partitions by
+ * a hash of the join field, keeping each partition in an in-memory hash
+ * table until the tuples held exceed the memory budget, at which point the
+ * largest partition still in memory is written out to a {@link TupleFile}
+ * and takes no more room. The probe side is then streamed once: tuples of
+ * a partition still in memory are joined on the spot, and the others are
+ * written to the probe file of their partition.
+ * <p>
+ * Each pair of spilled partitions is then joined the same way, hashing
+ * with another seed so that the partition splits again, until a build
+ * partition fits. A partition that does not split any further, e.g. one
+ * key shared by more tuples than fit in memory, or one still too large
+ * after {@link #MAX_DEPTH} rounds, is joined by loading its build file a
+ * memory budget at a time and scanning its probe file for each load.
+ * <p>
+ * The memory budget counts pages of tuples, as the buffer pool does, and
+ * defaults to {@link #getMemoryPages()}. Like {@link HashJoin}, the result
+ * tuples are the fields of child1 followed by the fields of child2,
+ * whichever side is built.
+ *
+ * @see JoinOptimizer#instantiateJoin(LogicalJoinNode,DbIterator,DbIterator,int,int,java.util.Map)
+ */
+public class GraceHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+    /** the most partitions a round splits its input into */
+    public static final int MAX_FANOUT = 32;
+    /** the number of rounds of partitioning before falling back to a nested loop */
+    public static final int MAX_DEPTH = 4;
+
+    private static int memoryPages = DEFAULT_MEMORY_PAGES; //@ADDED
+
+    /** A pair of spilled partitions left to join. */
+    private static class Pass { //@ADDED
+        final TupleFile build, probe;
+        final int level;
+        final boolean nested;
+
+        Pass(TupleFile build, TupleFile probe, int level, boolean nested) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+            this.nested = nested;
+        }
+    }
+
+    //@ADDED
+    public JoinPredicate p = null;
+    public DbIterator child1 = null;
+    public DbIterator child2 = null;
+    public DbIterator[] children = null;
+    /** true if child1 is partitioned first and held in memory */
+    public boolean buildLeft = false;
+
+    private TupleDesc td = null;
+    private final int pages;
+    private final int fanout;
+    private boolean started = false;
+    private final LinkedList<Pass> pending = new LinkedList<Pass>();
+
+    // the round being joined, and the number of build tuples it took, or
+    // -1 if not known
+    private int level = 0;
+    private int parentSize = -1;
+    private ArrayList<HashMap<Field,ArrayList<Tuple> > > tables = null;
+    private TupleFile[] buildSpill = null;
+    private TupleFile[] probeSpill = null;
+    private DbIterator probeSrc = null;
+    private TupleFile probeInput = null;
+    // the build file of a partition joined a chunk at a time, and the chunk
+    private DbIterator chunkSrc = null;
+    private TupleFile chunkInput = null;
+    private HashMap<Field,ArrayList<Tuple> > chunk = null;
+
+    private Tuple probe = null;
+    private Iterator<Tuple> matches = null;
+
+    private int spilledPartitions = 0;
+    private int deepestLevel = 0;
+    private int nestedPartitions = 0;
+    //@ADDED
+
+    /** Sets the number of pages of tuples joins made from now on may hold. */
+    public static void setMemoryPages(int pages) { //@ADDED
+        if (pages < 2)
+            throw new IllegalArgumentException("a hash join needs at least 2 pages");
+        memoryPages = pages;
+    }
+
+    /** @return the number of pages of tuples a join may hold in memory */
+    public static int getMemoryPages() { //@ADDED
+        return memoryPages;
+    }
+
+    /**
+     * Constructor, with the memory budget set by {@link #setMemoryPages}.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param buildLeft
+     *            true to partition child1 first and probe with child2,
+     *            false for the other way around
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft) { //@ADDED
+        this(p, child1, child2, buildLeft, memoryPages);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            the number of pages of tuples the join may hold in memory,
+     *            counting a page of write buffer for each partition
+     * @see #GraceHashJoin(JoinPredicate,DbIterator,DbIterator,boolean)
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean buildLeft, int memoryPages) { //@ADDED
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join on " + p.getOperator());
+
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+        this.pages = Math.max(2, memoryPages);
+        this.fanout = Math.max(2, Math.min(this.pages / 2, MAX_FANOUT));
+
+        this.children = new DbIterator[2];
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() { //@ADDED
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    /** @return the number of partitions written out to disk so far */
+    public int getSpilledPartitions() { //@ADDED
+        return spilledPartitions;
+    }
+
+    /** @return the deepest round of repartitioning so far, 0 if none */
+    public int getDeepestLevel() { //@ADDED
+        return deepestLevel;
+    }
+
+    /** @return the number of partitions joined a chunk at a time so far */
+    public int getNestedPartitions() { //@ADDED
+        return nestedPartitions;
+    }
+
+    private DbIterator buildSide() { //@ADDED
+        return buildLeft ? child1 : child2;
+    }
+
+    private DbIterator probeSide() { //@ADDED
+        return buildLeft ? child2 : child1;
+    }
+
+    private int buildField() { //@ADDED
+        return buildLeft ? p.getField1() : p.getField2();
+    }
+
+    private int probeField() { //@ADDED
+        return buildLeft ? p.getField2() : p.getField1();
+    }
+
+    /** @return the tuples of the build side that fit in the memory left for tables */
+    private int budget() { //@ADDED
+        return TupleFile.tuplesIn(buildSide().getTupleDesc(), Math.max(1, pages - fanout));
+    }
+
+    /** @return the partition of key in round level */
+    private int partition(Field key, int level) { //@ADDED
+        // a different seed each round, so that a partition splits again
+        int h = key.hashCode() + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % fanout;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        super.open();
+
+        child1.open();
+        child2.open();
+        reset();
+    }
+
+    public void close() { //@ADDED
+        super.close();
+
+        reset();
+        child1.close();
+        child2.close();
+    }
+
+    /** Rewinds both children and joins them again from the start. */
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        reset();
+        child1.rewind();
+        child2.rewind();
+    }
+
+    /** Drops the tables and deletes the files of the join so far. */
+    private void reset() { //@ADDED
+        endRound();
+        for (Pass pass : pending) {
+            pass.build.delete();
+            pass.probe.delete();
+        }
+        pending.clear();
+        started = false;
+        probe = null;
+        matches = null;
+    }
+
+    private static void add(HashMap<Field,ArrayList<Tuple> > table, Field key, Tuple t) { //@ADDED
+        ArrayList<Tuple> ts = table.get(key);
+        if (ts == null) {
+            ts = new ArrayList<Tuple>(1);
+            table.put(key, ts);
+        }
+        ts.add(t);
+    }
+
+    /**
+     * Partitions build, holding as many partitions in memory as fit, and
+     * sets up probe to be streamed against them.
+     *
+     * @param buildSize
+     *            the number of tuples build holds, or -1 if not known
+     * @param probeFile
+     *            the file probe reads, deleted at the end of the round, or
+     *            null if probe is a child
+     */
+    private void startRound(DbIterator build, int buildSize, DbIterator probe,
+            TupleFile probeFile, int level) throws DbException, TransactionAbortedException { //@ADDED
+        this.level = level;
+        deepestLevel = Math.max(deepestLevel, level);
+        tables = new ArrayList<HashMap<Field,ArrayList<Tuple> > >(fanout);
+        for (int i = 0; i < fanout; i++)
+            tables.add(new HashMap<Field,ArrayList<Tuple> >());
+        buildSpill = new TupleFile[fanout];
+        probeSpill = new TupleFile[fanout];
+        int[] counts = new int[fanout];
+        int resident = 0;
+        int budget = budget();
+
+        int field = buildField();
+        while (build.hasNext()) {
+            Tuple t = build.next();
+            Field key = t.getField(field);
+            int part = partition(key, level);
+            if (tables.get(part) == null) {
+                buildSpill[part].add(t);
+                continue;
+            }
+            add(tables.get(part), key, t);
+            counts[part]++;
+            resident++;
+
+            while (resident > budget) {
+                int victim = -1;
+                for (int i = 0; i < fanout; i++) {
+                    if (tables.get(i) != null && (victim < 0 || counts[i] > counts[victim]))
+                        victim = i;
+                }
+                spill(victim);
+                resident -= counts[victim];
+            }
+        }
+
+        this.probeSrc = probe;
+        this.probeInput = probeFile;
+        this.parentSize = buildSize;
+    }
+
+    /** Writes a partition held in memory out to its files. */
+    private void spill(int part) throws DbException { //@ADDED
+        buildSpill[part] = new TupleFile(buildSide().getTupleDesc());
+        probeSpill[part] = new TupleFile(probeSide().getTupleDesc());
+        for (ArrayList<Tuple> ts : tables.get(part).values()) {
+            for (Tuple t : ts)
+                buildSpill[part].add(t);
+        }
+        tables.set(part, null);
+        spilledPartitions++;
+    }
+
+    /**
+     * Starts joining a pair of spilled partitions: repartitions it, or loads
+     * the first chunk of its build file if it is joined a chunk at a time.
+     */
+    private void startPass(Pass pass) throws DbException, TransactionAbortedException { //@ADDED
+        DbIterator probe = pass.probe.iterator();
+        probe.open();
+        DbIterator build = pass.build.iterator();
+        build.open();
+
+        if (pass.nested) {
+            nestedPartitions++;
+            deepestLevel = Math.max(deepestLevel, pass.level);
+            chunkSrc = build;
+            chunkInput = pass.build;
+            probeSrc = probe;
+            probeInput = pass.probe;
+            loadChunk();
+            return;
+        }
+
+        startRound(build, pass.build.size(), probe, pass.probe, pass.level);
+        build.close();
+        pass.build.delete();
+    }
+
+    /** Reads the next memory budget of tuples of a partition's build file. */
+    private void loadChunk() throws DbException, TransactionAbortedException { //@ADDED
+        chunk = new HashMap<Field,ArrayList<Tuple> >();
+        int budget = budget();
+        int field = buildField();
+        for (int i = 0; i < budget && chunkSrc.hasNext(); i++) {
+            Tuple t = chunkSrc.next();
+            add(chunk, t.getField(field), t);
+        }
+    }
+
+    /**
+     * Ends the round or pass being joined, queueing the partitions it
+     * spilled and deleting the files it read.
+     */
+    private void endRound() { //@ADDED
+        if (buildSpill != null) {
+            for (int i = 0; i < fanout; i++) {
+                if (buildSpill[i] == null)
+                    continue;
+                int n = buildSpill[i].size();
+                if (n == 0 || probeSpill[i].size() == 0) {
+                    // nothing can match
+                    buildSpill[i].delete();
+                    probeSpill[i].delete();
+                    continue;
+                }
+                // a partition that took all of its round did not split and
+                // will not the next time either
+                boolean nested = level + 1 > MAX_DEPTH || n == parentSize;
+                pending.push(new Pass(buildSpill[i], probeSpill[i], level + 1, nested));
+            }
+        }
+        tables = null;
+        buildSpill = null;
+        probeSpill = null;
+        chunk = null;
+
+        if (probeInput != null) {
+            probeSrc.close();
+            probeInput.delete();
+        }
+        probeSrc = null;
+        probeInput = null;
+        if (chunkSrc != null) {
+            chunkSrc.close();
+            chunkInput.delete();
+        }
+        chunkSrc = null;
+        chunkInput = null;
+    }
+
+    private Tuple mergeTuple(Tuple t1, Tuple t2) { //@ADDED
+        Tuple jointTuple = new Tuple(td);
+
+        int l1 = t1.getTupleDesc().numFields();
+        int l2 = t2.getTupleDesc().numFields();
+        for(int i=0;i<l1;i++){
+            jointTuple.setField(i,t1.getField(i));
+        }
+        for(int i=0;i<l2;i++){
+            jointTuple.setField(i+l1,t2.getField(i));
+        }
+
+        return jointTuple;
+    }
+
+    /**
+     * Returns the next probe tuple joined with the next build tuple that has
+     * the same join field, as {@link Join#fetchNext} does. The tuples of
+     * spilled partitions come after those of the partitions kept in memory.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException { //@ADDED
+        if (!started) {
+            started = true;
+            startRound(buildSide(), -1, probeSide(), null, 0);
+        }
+
+        int field = probeField();
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple t = matches.next();
+                Tuple t1 = buildLeft ? t : probe;
+                Tuple t2 = buildLeft ? probe : t;
+                if (p.filter(t1, t2))
+                    return mergeTuple(t1, t2);
+                continue;
+            }
+            matches = null;
+
+            if (probeSrc != null && probeSrc.hasNext()) {
+                probe = probeSrc.next();
+                Field key = probe.getField(field);
+                HashMap<Field,ArrayList<Tuple> > table = chunk;
+                if (table == null) {
+                    int part = partition(key, level);
+                    table = tables.get(part);
+                    if (table == null) {
+                        probeSpill[part].add(probe);
+                        continue;
+                    }
+                }
+                ArrayList<Tuple> ts = table.get(key);
+                if (ts != null)
+                    matches = ts.iterator();
+                continue;
+            }
+
+            if (chunkSrc != null && chunkSrc.hasNext()) {
+                // the next chunk is joined with the whole probe file again
+                loadChunk();
+                probeSrc.rewind();
+                continue;
+            }
+
+            endRound();
+            if (pending.isEmpty())
+                return null;
+            startPass(pending.pop());
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return this.children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        assert children.length == 2;
+
+        child1 = children[0];
+        child2 = children[1];
+
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        reset();
+    }
+}
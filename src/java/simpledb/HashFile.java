@@ -0,0 +1,461 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index over one field of a table. Its
+ * pages are HashPages and go through the BufferPool like those of any
+ * other DbFile; page 0 is the directory, which maps the low bits of a
+ * key's hash to the bucket holding the entries of that key.
+ * <p>
+ * A full bucket splits in two on the next bit of the hash, doubling the
+ * directory if the bucket was as deep as it. A full bucket as deep as a
+ * directory that fits in one page grows a chain of overflow pages
+ * instead, which is also where many duplicates of one key end up.
+ * Deleting entries never merges buckets.
+ * <p>
+ * The index only answers equality, with one directory read and a bucket
+ * read (plus its overflow pages, if any) per lookup, however large the
+ * table is; its full iterator returns the table's tuples in no particular
+ * order.
+ *
+ * @see HashPage
+ * @see IndexScan
+ */
+public class HashFile extends IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Fraction of each bucket filled by {@link #build}, leaving room for inserts. */
+    static final double FILL_FACTOR = 0.75;
+
+    /**
+     * Constructs an index backed by file f.
+     *
+     * @param f the file that stores the index
+     * @param tableid the table the index is over
+     * @param keyField the field of the table's tuples that is indexed
+     * @param td the TupleDesc of the table
+     */
+    public HashFile(File f, int tableid, int keyField, TupleDesc td) { //@ADDED
+        super(f, tableid, keyField, td);
+    }
+
+    protected Page parsePage(HeapPageId pid, byte[] data) throws IOException { //@ADDED
+        return new HashPage(pid, getKeyType(), data);
+    }
+
+    /** The directory and a bucket, overflow pages aside. */
+    public int probePages() { //@ADDED
+        return Math.min(numPages(), 2);
+    }
+
+    /** A hash index only answers equality. */
+    public boolean supports(Predicate.Op op) { //@ADDED
+        return op == Predicate.Op.EQUALS;
+    }
+
+    private HashPage pinHash(TransactionId tid, int pageNo)
+            throws DbException, TransactionAbortedException { //@ADDED
+        return (HashPage)pin(tid, pageNo);
+    }
+
+    private static void modify(HashPage page, TransactionId tid, ArrayList<Page> dirtied) { //@ADDED
+        page.beforeModification();
+        page.markDirty(true, tid);
+        if(!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    /** Appends an empty bucket of the given local depth to the file, pinned. */
+    private HashPage allocate(TransactionId tid, int depth, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        // the caller holds writeLock, so no one else appends meanwhile
+        int pageNo = numPages();
+        writePage(new HashPage(new HeapPageId(getId(), pageNo), getKeyType(),
+                new byte[BufferPool.PAGE_SIZE]));
+        HashPage page = pinHash(tid, pageNo);
+        modify(page, tid, dirtied);
+        page.resetBucket(depth);
+        return page;
+    }
+
+    /**
+     * Adds the entry of tuple t, which must just have been inserted into
+     * the table and so have its RecordId set.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            RecordId rid = t.getRecordId();
+            if(rid == null)
+                throw new DbException("tuple is not in the table");
+            Field key = t.getField(getKeyField());
+            int page = rid.getPageId().pageNumber();
+            int slot = rid.tupleno();
+
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            if(numPages() == 0)
+                writePage(new HashPage(new HeapPageId(getId(), 0), getKeyType(), new byte[BufferPool.PAGE_SIZE]));
+
+            HashPage dir = pinHash(tid, 0);
+            try{
+                if(dir.count == 0){
+                    HashPage first = allocate(tid, 0, dirtied);
+                    modify(dir, tid, dirtied);
+                    dir.buckets[0] = first.getId().pageNumber();
+                    dir.count = 1;
+                    unpin(first);
+                }
+
+                while(true){
+                    HashPage bucket = pinHash(tid, dir.bucketFor(key));
+                    try{
+                        if(!bucket.isFull()){
+                            modify(bucket, tid, dirtied);
+                            bucket.add(key, page, slot);
+                            return dirtied;
+                        }
+                        if(bucket.depth < HashPage.MAX_DEPTH && bucket.next == 0){
+                            split(tid, dir, bucket, dirtied);
+                            continue;
+                        }
+                        addToChain(tid, bucket, key, page, slot, dirtied);
+                        return dirtied;
+                    } finally {
+                        unpin(bucket);
+                    }
+                }
+            } finally {
+                unpin(dir);
+            }
+        }
+    }
+
+    /**
+     * Splits a full bucket on the next bit of the hash, moving the entries
+     * with that bit set to a new bucket, and points the half of the
+     * directory entries for the bucket with that bit set at the new one.
+     */
+    private void split(TransactionId tid, HashPage dir, HashPage bucket, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        modify(dir, tid, dirtied);
+        if(bucket.depth == dir.depth){
+            // every directory entry gets a twin that differs in the new top bit
+            System.arraycopy(dir.buckets, 0, dir.buckets, dir.count, dir.count);
+            dir.count *= 2;
+            dir.depth++;
+        }
+
+        HashPage image = allocate(tid, bucket.depth + 1, dirtied);
+        try{
+            modify(bucket, tid, dirtied);
+            int bit = 1 << bucket.depth;
+            bucket.depth++;
+            for(int i=0;i<bucket.count;){
+                if((HashPage.hash(bucket.keys[i], bucket.depth) & bit) != 0){
+                    image.add(bucket.keys[i], bucket.ridPages[i], bucket.ridSlots[i]);
+                    bucket.removeAt(i);
+                } else {
+                    i++;
+                }
+            }
+
+            int from = bucket.getId().pageNumber();
+            int to = image.getId().pageNumber();
+            for(int i=0;i<dir.count;i++){
+                if(dir.buckets[i] == from && (i & bit) != 0)
+                    dir.buckets[i] = to;
+            }
+        } finally {
+            unpin(image);
+        }
+    }
+
+    /**
+     * Adds an entry to the first overflow page of a full bucket that has
+     * room, appending a new overflow page if none does.
+     */
+    private void addToChain(TransactionId tid, HashPage bucket, Field key, int page, int slot,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException { //@ADDED
+        int last = bucket.getId().pageNumber();
+        int pageNo = bucket.next;
+        while(pageNo != 0){
+            HashPage overflow = pinHash(tid, pageNo);
+            try{
+                if(!overflow.isFull()){
+                    modify(overflow, tid, dirtied);
+                    overflow.add(key, page, slot);
+                    return;
+                }
+                last = pageNo;
+                pageNo = overflow.next;
+            } finally {
+                unpin(overflow);
+            }
+        }
+
+        HashPage overflow = allocate(tid, bucket.depth, dirtied);
+        int added = overflow.getId().pageNumber();
+        try{
+            overflow.add(key, page, slot);
+        } finally {
+            unpin(overflow);
+        }
+        HashPage tail = pinHash(tid, last);
+        try{
+            modify(tail, tid, dirtied);
+            tail.next = added;
+        } finally {
+            unpin(tail);
+        }
+    }
+
+    /**
+     * Removes the entry of tuple t, which is being deleted from the table.
+     *
+     * @return the bucket or overflow page the entry was removed from
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            RecordId rid = t.getRecordId();
+            if(rid == null)
+                throw new DbException("tuple is not in the table");
+            Field key = t.getField(getKeyField());
+            int page = rid.getPageId().pageNumber();
+            int slot = rid.tupleno();
+
+            int pageNo = 0;
+            if(numPages() > 0){
+                HashPage dir = pinHash(tid, 0);
+                try{
+                    if(dir.count > 0)
+                        pageNo = dir.bucketFor(key);
+                } finally {
+                    unpin(dir);
+                }
+            }
+
+            while(pageNo != 0){
+                HashPage bucket = pinHash(tid, pageNo);
+                try{
+                    int i = bucket.find(key, page, slot);
+                    if(i >= 0){
+                        bucket.beforeModification();
+                        bucket.markDirty(true, tid);
+                        bucket.removeAt(i);
+                        return bucket;
+                    }
+                    pageNo = bucket.next;
+                } finally {
+                    unpin(bucket);
+                }
+            }
+            throw new DbException("tuple is not in the index");
+        }
+    }
+
+    /**
+     * Returns the tuples of the table whose indexed field equals key.
+     *
+     * @param op EQUALS, or null for every tuple
+     * @throws UnsupportedOperationException for any other op
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) { //@ADDED
+        if(op != null && !supports(op))
+            throw new UnsupportedOperationException("cannot scan a hash index for " + op);
+        return new HashIterator(tid, key);
+    }
+
+    /**
+     * Copies the matching entries of one page of a bucket's chain at a
+     * time, so that no page stays pinned between calls, and fetches the
+     * tuples they point to. A full scan visits every bucket page of the
+     * file in turn instead of following one chain.
+     */
+    private class HashIterator implements DbFileIterator { //@ADDED
+        private final TransactionId tid;
+        /** the key to look up, or null for every tuple */
+        private final Field key;
+
+        private boolean opened = false;
+        private int[] pages = new int[0];
+        private int[] slots = new int[0];
+        private int count = 0;
+        private int pos = 0;
+        private int nextPage = 0;
+        private Tuple next = null;
+
+        HashIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            opened = true;
+            next = null;
+            count = 0;
+            pos = 0;
+            nextPage = 0;
+            if(numPages() == 0) return;
+
+            if(key == null){
+                nextPage = numPages() > 1 ? 1 : 0;
+                return;
+            }
+            HashPage dir = pinHash(tid, 0);
+            try{
+                if(dir.count > 0)
+                    nextPage = dir.bucketFor(key);
+            } finally {
+                unpin(dir);
+            }
+        }
+
+        private void load(HashPage bucket) {
+            if(pages.length < bucket.count){
+                pages = new int[bucket.capacity()];
+                slots = new int[bucket.capacity()];
+            }
+            count = 0;
+            pos = 0;
+            for(int i=0;i<bucket.count;i++){
+                if(key == null || bucket.keys[i].equals(key)){
+                    pages[count] = bucket.ridPages[i];
+                    slots[count] = bucket.ridSlots[i];
+                    count++;
+                }
+            }
+            if(key != null)
+                nextPage = bucket.next;
+            else
+                nextPage = bucket.getId().pageNumber() + 1 < numPages() ? bucket.getId().pageNumber() + 1 : 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if(!opened) return false;
+            if(next != null) return true;
+
+            while(pos >= count){
+                if(nextPage == 0)
+                    return false;
+                HashPage bucket = pinHash(tid, nextPage);
+                try{
+                    load(bucket);
+                } finally {
+                    unpin(bucket);
+                }
+            }
+            next = fetch(tid, pages[pos], slots[pos]);
+            pos++;
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            if(!opened) throw new DbException("iterator not opened");
+            open();
+        }
+
+        public void close() {
+            opened = false;
+            next = null;
+            count = 0;
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the entries of every tuple
+     * in the table. The directory is made just deep enough for the
+     * buckets to be about {@link #FILL_FACTOR} full, deeper if any bucket
+     * would overflow, and every directory entry gets a bucket of its own.
+     * The pages are written straight to the file, so no other transaction
+     * may be using the index.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        synchronized(writeLock){
+            ArrayList<Field> keys = new ArrayList<Field>();
+            ArrayList<Integer> pages = new ArrayList<Integer>();
+            ArrayList<Integer> slots = new ArrayList<Integer>();
+            DbFileIterator it = Database.getCatalog().getDbFile(getTableId()).iterator(tid);
+            it.open();
+            while(it.hasNext()){
+                Tuple t = it.next();
+                RecordId rid = t.getRecordId();
+                keys.add(t.getField(getKeyField()));
+                pages.add(rid.getPageId().pageNumber());
+                slots.add(rid.tupleno());
+            }
+            it.close();
+
+            truncate();
+
+            Type type = getKeyType();
+            HashPage dir = new HashPage(new HeapPageId(getId(), 0), type, new byte[BufferPool.PAGE_SIZE]);
+            int capacity = HashPage.bucketCapacity(type);
+            if(keys.isEmpty()){
+                writePage(dir);
+                return;
+            }
+
+            int depth = 0;
+            while(depth < HashPage.MAX_DEPTH && keys.size() > (capacity * FILL_FACTOR) * (1 << depth))
+                depth++;
+            int[] sizes;
+            while(true){
+                sizes = new int[1 << depth];
+                int largest = 0;
+                for(Field k : keys)
+                    largest = Math.max(largest, ++sizes[HashPage.hash(k, depth)]);
+                if(largest <= capacity || depth == HashPage.MAX_DEPTH)
+                    break;
+                depth++;
+            }
+
+            // bucket i is page i+1; overflow pages follow them all
+            int buckets = 1 << depth;
+            HashPage[] chains = new HashPage[buckets];
+            dir.depth = depth;
+            dir.count = buckets;
+            for(int i=0;i<buckets;i++){
+                dir.buckets[i] = i + 1;
+                chains[i] = newBucket(i + 1, depth);
+            }
+            writePage(dir);
+            pageCount = buckets + 1;
+
+            for(int i=0;i<keys.size();i++){
+                int b = HashPage.hash(keys.get(i), depth);
+                HashPage bucket = chains[b];
+                if(bucket.isFull()){
+                    HashPage overflow = newBucket(pageCount++, depth);
+                    bucket.next = overflow.getId().pageNumber();
+                    writePage(bucket);
+                    chains[b] = bucket = overflow;
+                }
+                bucket.add(keys.get(i), pages.get(i), slots.get(i));
+            }
+            for(HashPage bucket : chains)
+                writePage(bucket);
+        }
+    }
+
+    private HashPage newBucket(int pageNo, int depth) throws IOException { //@ADDED
+        HashPage page = new HashPage(new HeapPageId(getId(), pageNo), getKeyType(),
+                new byte[BufferPool.PAGE_SIZE]);
+        page.resetBucket(depth);
+        return page;
+    }
+}
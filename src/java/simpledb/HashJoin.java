@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin is an in-memory hash join for equality predicates. On open it
+ * reads one child, the build side, into a hash table keyed by the join
+ * field itself, and then streams the other child, the probe side, once,
+ * looking each of its tuples up in the table. Unlike {@link Join}, the
+ * probe side is read a single time however large the build side is, so the
+ * build side should be the smaller input.
+ * <p>
+ * Whichever side is built, the result tuples are the fields of child1
+ * followed by the fields of child2, as Join returns them.
+ *
+ * @see JoinOptimizer#instantiateJoin(LogicalJoinNode,DbIterator,DbIterator,int,int,java.util.Map)
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    //@ADDED
+    public JoinPredicate p = null;
+    public DbIterator child1 = null;
+    public DbIterator child2 = null;
+    public DbIterator[] children = null;
+    /** true if the table is built from child1 and child2 is probed */
+    public boolean buildLeft = false;
+
+    private TupleDesc td = null;
+    private HashMap<Field,ArrayList<Tuple> > table = null;
+    private boolean built = false;
+    /** the probe tuple being joined, and the build tuples left to join it with */
+    private Tuple probe = null;
+    private Iterator<Tuple> matches = null;
+    //@ADDED
+
+    /**
+     * Constructor. Builds the hash table from child2 and probes it with
+     * child1.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) { //@ADDED
+        this(p, child1, child2, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param buildLeft
+     *            true to build the hash table from child1 and probe it with
+     *            child2, false for the other way around
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft) { //@ADDED
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join on " + p.getOperator());
+
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+
+        this.children = new DbIterator[2];
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.table = new HashMap<Field,ArrayList<Tuple> >();
+    }
+
+    public JoinPredicate getJoinPredicate() { //@ADDED
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    private DbIterator buildSide() { //@ADDED
+        return buildLeft ? child1 : child2;
+    }
+
+    private DbIterator probeSide() { //@ADDED
+        return buildLeft ? child2 : child1;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        super.open();
+
+        child1.open();
+        child2.open();
+        table.clear();
+        built = false;
+        probe = null;
+        matches = null;
+    }
+
+    public void close() { //@ADDED
+        super.close();
+
+        table.clear();
+        built = false;
+        probe = null;
+        matches = null;
+        child1.close();
+        child2.close();
+    }
+
+    /** Rewinds the probe side only; the hash table is kept. */
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        probe = null;
+        matches = null;
+        probeSide().rewind();
+    }
+
+    /** Reads the whole build side into the hash table. */
+    private void build() throws DbException, TransactionAbortedException { //@ADDED
+        DbIterator side = buildSide();
+        int field = buildLeft ? p.getField1() : p.getField2();
+        while(side.hasNext()){
+            Tuple t = side.next();
+            Field key = t.getField(field);
+            ArrayList<Tuple> ts = table.get(key);
+            if(ts == null){
+                ts = new ArrayList<Tuple>(1);
+                table.put(key, ts);
+            }
+            ts.add(t);
+        }
+        built = true;
+    }
+
+    private Tuple mergeTuple(Tuple t1, Tuple t2) { //@ADDED
+        Tuple jointTuple = new Tuple(td);
+
+        int l1 = t1.getTupleDesc().numFields();
+        int l2 = t2.getTupleDesc().numFields();
+        for(int i=0;i<l1;i++){
+            jointTuple.setField(i,t1.getField(i));
+        }
+        for(int i=0;i<l2;i++){
+            jointTuple.setField(i+l1,t2.getField(i));
+        }
+
+        return jointTuple;
+    }
+
+    /**
+     * Returns the next probe tuple joined with the next build tuple that has
+     * the same join field, as {@link Join#fetchNext} does.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException { //@ADDED
+        if(!built) build();
+
+        DbIterator side = probeSide();
+        int field = buildLeft ? p.getField2() : p.getField1();
+        while(true){
+            if(matches != null && matches.hasNext()){
+                Tuple t = matches.next();
+                Tuple t1 = buildLeft ? t : probe;
+                Tuple t2 = buildLeft ? probe : t;
+                if(p.filter(t1, t2))
+                    return mergeTuple(t1, t2);
+                continue;
+            }
+
+            if(!side.hasNext()) return null;
+            probe = side.next();
+            ArrayList<Tuple> ts = table.get(probe.getField(field));
+            matches = ts == null ? null : ts.iterator();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return this.children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        assert children.length == 2;
+
+        child1 = children[0];
+        child2 = children[1];
+
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        table.clear();
+        built = false;
+    }
+}
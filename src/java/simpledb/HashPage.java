@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashPage is one page of a HashFile: the directory or a bucket.
+ * <p>
+ * Every page starts with its category (a byte), a depth (an int), the
+ * number of entries (an int) and a page number (an int). For the
+ * directory the depth is the global depth and the entries are the page
+ * numbers of the buckets, 2^depth of them, or none while the index is
+ * empty. For a bucket the depth is its local depth, the page number is
+ * that of its overflow page (0 for none) and each entry is a key followed
+ * by the page number and slot (two ints) of the indexed tuple, in no
+ * particular order. An all-zero page is the directory of an empty index.
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+    static final int DIRECTORY = 0;
+    static final int BUCKET = 1;
+
+    static final int HEADER_SIZE = 13;
+
+    /** The deepest directory that fits in a page. */
+    static final int MAX_DEPTH = 31 - Integer.numberOfLeadingZeros((BufferPool.PAGE_SIZE - HEADER_SIZE) / 4);
+
+    //@ADDED
+    final HeapPageId pid;
+    final Type keyType;
+    int category;
+    int depth;
+    int count;
+    /** the overflow page of a bucket */
+    int next;
+
+    /** the buckets of the directory */
+    int[] buckets;
+    Field[] keys;
+    int[] ridPages;
+    int[] ridSlots;
+
+    private byte[] oldData;
+    private TransactionId dirty_tid = null;
+    //@ADDED
+
+    /**
+     * Create a HashPage from the bytes of a page read from disk. The key
+     * type is that of the HashFile the page belongs to.
+     */
+    public HashPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ((HashFile)Database.getCatalog().getDbFile(id.getTableId())).getKeyType(), data);
+    }
+
+    HashPage(HeapPageId id, Type keyType, byte[] data) throws IOException { //@ADDED
+        this.pid = id;
+        this.keyType = keyType;
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        category = buf.get();
+        depth = buf.getInt();
+        count = buf.getInt();
+        next = buf.getInt();
+        if(category < DIRECTORY || category > BUCKET || depth < 0 || depth > MAX_DEPTH
+                || count < 0 || count > capacity())
+            throw new IOException("bad hash page " + id.pageNumber());
+
+        allocate();
+        int len = keyType.getLen();
+        int pos = HEADER_SIZE;
+        for(int i=0;i<count;i++){
+            if(category == DIRECTORY){
+                buckets[i] = buf.getInt(pos);
+                pos += 4;
+            } else {
+                keys[i] = keyType.parse(data, pos);
+                ridPages[i] = buf.getInt(pos + len);
+                ridSlots[i] = buf.getInt(pos + len + 4);
+                pos += len + 8;
+            }
+        }
+
+        setBeforeImage();
+    }
+
+    private void allocate() { //@ADDED
+        if(category == DIRECTORY){
+            buckets = new int[1 << MAX_DEPTH];
+        } else {
+            keys = new Field[capacity()];
+            ridPages = new int[capacity()];
+            ridSlots = new int[capacity()];
+        }
+    }
+
+    /** @return the number of entries a bucket with keys of type t holds */
+    static int bucketCapacity(Type t) { //@ADDED
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (t.getLen() + 8);
+    }
+
+    /** @return how many entries this page holds at most */
+    int capacity() { //@ADDED
+        if(category == DIRECTORY) return 1 << MAX_DEPTH;
+        return bucketCapacity(keyType);
+    }
+
+    /** Turns this page into an empty bucket of the given local depth. */
+    void resetBucket(int depth) { //@ADDED
+        boolean wasBucket = category == BUCKET;
+        this.category = BUCKET;
+        this.depth = depth;
+        this.count = 0;
+        this.next = 0;
+        if(!wasBucket)
+            allocate();
+    }
+
+    /**
+     * @return the low bits of the hash of a key, which pick its bucket in
+     *         a directory of the given depth
+     */
+    static int hash(Field key, int depth) { //@ADDED
+        // scramble the key's own hash so that the low bits depend on all of it
+        int h = key.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return h & ((1 << depth) - 1);
+    }
+
+    /** @return the bucket of a directory that key belongs in */
+    int bucketFor(Field key) { //@ADDED
+        return buckets[hash(key, depth)];
+    }
+
+    boolean isFull() { //@ADDED
+        return count >= capacity();
+    }
+
+    void add(Field key, int page, int slot) { //@ADDED
+        keys[count] = key;
+        ridPages[count] = page;
+        ridSlots[count] = slot;
+        count++;
+    }
+
+    /** @return the position of the entry (key, page, slot) in this bucket, or -1 */
+    int find(Field key, int page, int slot) { //@ADDED
+        for(int i=0;i<count;i++){
+            if(ridPages[i] == page && ridSlots[i] == slot && keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Removes entry i of a bucket, moving the last entry into its place. */
+    void removeAt(int i) { //@ADDED
+        count--;
+        keys[i] = keys[count];
+        ridPages[i] = ridPages[count];
+        ridSlots[i] = ridSlots[count];
+        keys[count] = null;
+    }
+
+    // see Page.java for javadocs
+    public HeapPageId getId() { //@ADDED
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) { //@ADDED
+        dirty_tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() { //@ADDED
+        return dirty_tid;
+    }
+
+    public byte[] getPageData() { //@ADDED
+        byte[] out = new byte[BufferPool.PAGE_SIZE];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer buf) { //@ADDED
+        int start = buf.position();
+        buf.put((byte)category);
+        buf.putInt(depth);
+        buf.putInt(count);
+        buf.putInt(next);
+        for(int i=0;i<count;i++){
+            if(category == DIRECTORY){
+                buf.putInt(buckets[i]);
+            } else {
+                keys[i].serialize(buf);
+                buf.putInt(ridPages[i]);
+                buf.putInt(ridSlots[i]);
+            }
+        }
+        Utility.putZeros(buf, BufferPool.PAGE_SIZE - (buf.position() - start));
+    }
+
+    /** Captures the before image, if needed, ahead of a modification. */
+    void beforeModification() { //@ADDED
+        if(oldData == null)
+            oldData = getPageData();
+    }
+
+    public HashPage getBeforeImage() { //@ADDED
+        byte[] before = oldData;
+        if(before == null)
+            before = getPageData();
+        try{
+            return new HashPage(pid, keyType, before);
+        } catch (IOException e){
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() { //@ADDED
+        oldData = null;
+    }
+}
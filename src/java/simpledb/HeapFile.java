@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -14,9 +16,41 @@ import java.util.*;
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /** Pages added to the file at a time when it runs out of room. */
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
     //@ADDED
     public File file = null;
     public TupleDesc td = null;
+
+    // one channel for the lifetime of the file, opened on first use; reads
+    // and writes are positional, so threads never share a file pointer
+    private transient volatile FileChannel channel = null;
+    // number of pages in use (the high-water mark), kept up to date by
+    // appends; -1 until the channel is opened
+    private transient volatile int pageCount = -1;
+    // number of pages the file has room for; pages from pageCount up to
+    // here are preallocated and still zero
+    private transient int allocatedPages = 0;
+    private int extentPages = DEFAULT_EXTENT_PAGES;
+    // where inserts look for a page with room; loaded on first use
+    private transient FreeSpaceMap freeSpace = null;
+    // per-page value ranges that let scans skip pages; loaded on first use
+    private transient ZoneMap zones = null;
+    // per-page Bloom filters on chosen fields, if the file has them
+    private transient BloomFilterMap blooms = null;
+    private transient boolean bloomsLoaded = false;
+    // filters being built by createBloomFilters, which inserts also feed
+    private transient BloomFilterMap pendingBlooms = null;
+    // the pages bulk loads of each unfinished transaction appended, as
+    // {first, end} ranges, so that an abort can take them out again
+    private transient HashMap<TransactionId, ArrayList<int[]>> loads = null;
+
+    private static final ThreadLocal<ByteBuffer> ioBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+    };
     //@ADDED
 
     /**
@@ -64,59 +98,393 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * @return the channel of this file, opening it if needed
+     * @throws FileNotFoundException if the file does not exist
+     */
+    protected FileChannel channel() throws IOException { //@ADDED
+        return channel(false);
+    }
+
+    /**
+     * @param create true to create the file if it does not exist, as
+     *        writing the first pages of a new table does
+     * @return the channel of this file, opening it if needed
+     */
+    protected FileChannel channel(boolean create) throws IOException { //@ADDED
+        // readers do not take the file's monitor once it is open
+        FileChannel ch = channel;
+        if(ch != null && ch.isOpen())
+            return ch;
+
+        return openChannel(create);
+    }
+
+    private synchronized FileChannel openChannel(boolean create) throws IOException { //@ADDED
+        if(channel == null || !channel.isOpen()){
+            // reading a table whose file is gone must not leave an empty one
+            if(!create && !file.exists())
+                throw new FileNotFoundException(file.getPath());
+            try{
+                channel = new RandomAccessFile(file,"rw").getChannel();
+            } catch (FileNotFoundException e){
+                // an existing file we may not write to can still be read
+                if(!file.exists()) throw e;
+                channel = new RandomAccessFile(file,"r").getChannel();
+            }
+
+            pageCount = loadPageCount(channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Works out how many pages the file holds when it is opened.
+     * Subclasses that store pages in their own layout override this along
+     * with {@link #readPageBytes} and {@link #writePages}.
+     *
+     * @param ch the file's channel, just opened
+     * @return the number of pages in use
+     */
+    protected int loadPageCount(FileChannel ch) throws IOException { //@ADDED
+        long len = ch.size();
+        assert len % BufferPool.PAGE_SIZE == 0;
+        allocatedPages = (int)(len / BufferPool.PAGE_SIZE);
+
+        // the high-water mark is saved with the free-space map; without
+        // it every allocated page counts as used (unused ones are empty)
+        int hwm = FreeSpaceMap.readHighWaterMark(FreeSpaceMap.fileFor(file));
+        if(hwm < 0 || hwm > allocatedPages)
+            hwm = allocatedPages;
+        // pages appended after the mark was last saved
+        while(hwm < allocatedPages && !isZeroPage(ch,hwm))
+            hwm++;
+        return hwm;
+    }
+
+    /**
+     * Reads the bytes of page pageNo into buf, which has room for exactly
+     * one page.
+     */
+    protected void readPageBytes(int pageNo, ByteBuffer buf) throws IOException { //@ADDED
+        FileChannel ch = channel();
+        long pos = (long)pageNo * BufferPool.PAGE_SIZE;
+        while(buf.hasRemaining()){
+            if(ch.read(buf, pos + buf.position()) < 0) break;
+        }
+    }
+
+    /**
+     * Writes the consecutive pages held in buf, from its position to its
+     * limit, the first of them being page first, in a single write.
+     */
+    protected void writePages(int first, ByteBuffer buf) throws IOException { //@ADDED
+        FileChannel ch = channel(true);
+        long pos = (long)first * BufferPool.PAGE_SIZE;
+        int start = buf.position();
+        while(buf.hasRemaining()){
+            ch.write(buf, pos + buf.position() - start);
+        }
+    }
+
+    private static boolean isZeroPage(FileChannel ch, int pageNo) throws IOException { //@ADDED
+        ByteBuffer buf = ioBuffer.get();
+        buf.clear();
+        long pos = (long)pageNo * BufferPool.PAGE_SIZE;
+        while(buf.hasRemaining()){
+            if(ch.read(buf, pos + buf.position()) < 0) break;
+        }
+        buf.flip();
+        while(buf.hasRemaining()){
+            if(buf.get() != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure the file has room for at least pages pages, growing it by
+     * whole extents of zeroed pages so that appends rarely change the file
+     * size and consecutive pages stay contiguous on disk.
+     */
+    protected synchronized void ensureAllocated(int pages) throws IOException { //@ADDED
+        FileChannel ch = channel(true);
+        if(pages <= allocatedPages) return;
+
+        // extents start at multiples of the extent size
+        int target = (pages + extentPages - 1) / extentPages * extentPages;
+        ByteBuffer zeroes = ByteBuffer.allocate((target - allocatedPages) * BufferPool.PAGE_SIZE);
+        long pos = (long)allocatedPages * BufferPool.PAGE_SIZE;
+        while(zeroes.hasRemaining()){
+            ch.write(zeroes, pos + zeroes.position());
+        }
+        allocatedPages = target;
+    }
+
+    /** @return the number of pages the file on disk has room for */
+    public synchronized int getAllocatedPages() throws IOException { //@ADDED
+        channel();
+        return allocatedPages;
+    }
+
+    /** @return the number of pages the file grows by at a time */
+    public int getExtentPages() { //@ADDED
+        return extentPages;
+    }
+
+    /** Sets the number of pages the file grows by at a time; 1 disables preallocation. */
+    public void setExtentPages(int pages) { //@ADDED
+        if(pages < 1) throw new IllegalArgumentException("extent must be at least one page");
+        this.extentPages = pages;
+    }
+
+    /**
+     * Closes the underlying channel. The file is reopened if it is used
+     * again.
+     */
+    public synchronized void close() { //@ADDED
+        try{
+            if(freeSpace != null)
+                freeSpace.close();
+        } catch (IOException e){
+            // the map is only a hint; it is rebuilt if it does not match
+        }
+        freeSpace = null;
+        try{
+            if(zones != null)
+                zones.close();
+        } catch (IOException e){
+            // a map that does not match the file is rebuilt
+        }
+        zones = null;
+        try{
+            if(blooms != null)
+                blooms.close();
+        } catch (IOException e){
+            // filters that do not match the file are rebuilt
+        }
+        blooms = null;
+        bloomsLoaded = false;
+
+        if(channel == null) return;
+
+        try{
+            channel.close();
+        } catch (IOException e){
+            // nothing was written through the channel that is not on disk
+        }
+        channel = null;
+        pageCount = -1;
+    }
+
+    /** @return the free-space map of this file, loading it if needed */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException { //@ADDED
+        if(freeSpace == null)
+            freeSpace = new FreeSpaceMap(this);
+        return freeSpace;
+    }
+
+    /**
+     * Called by HeapPage whenever a tuple is inserted into or deleted from
+     * one of this file's pages, to keep the free-space map current.
+     */
+    public void pageSpaceChanged(HeapPage pg) { //@ADDED
+        try{
+            getFreeSpaceMap().update(pg.getId().pageNumber(), pg.getNumEmptySlots(), pg.numSlots);
+        } catch (IOException e){
+            // inserts fall back to correcting the map as they go
+        }
+    }
+
+    /** @return the zone map of this file, loading it if needed */
+    public synchronized ZoneMap getZoneMap() throws IOException { //@ADDED
+        if(zones == null)
+            zones = new ZoneMap(this);
+        return zones;
+    }
+
+    /**
+     * @return the Bloom filters of this file, loading them if needed, or
+     *         null if it has none
+     */
+    public synchronized BloomFilterMap getBloomFilters() throws IOException { //@ADDED
+        if(!bloomsLoaded){
+            blooms = BloomFilterMap.open(this);
+            bloomsLoaded = true;
+        }
+        return blooms;
+    }
+
+    /**
+     * Builds Bloom filters on the given fields of this file from its
+     * tuples, replacing any it had. Inserts keep them up to date from then
+     * on.
+     * <p>
+     * The file is scanned through the BufferPool without holding its
+     * monitor, since evictions write this file's pages. Tuples inserted
+     * meanwhile go into the new filters as well as the old ones, and the
+     * new filters replace the old under the monitor once the scan is done.
+     *
+     * @param fpr the false positive rate the filters are sized for
+     * @throws DbException if filters are already being built for this file
+     * @see BloomFilterMap
+     */
+    public BloomFilterMap createBloomFilters(TransactionId tid, int[] fields, double fpr)
+            throws IOException, DbException, TransactionAbortedException { //@ADDED
+        BloomFilterMap built;
+        synchronized(this){
+            if(pendingBlooms != null)
+                throw new DbException("Bloom filters are already being built");
+            built = pendingBlooms = new BloomFilterMap(BloomFilterMap.fileFor(file), td, fields, fpr);
+        }
+        boolean filled = false;
+        try{
+            built.addAll(this, tid);
+            filled = true;
+        } finally {
+            synchronized(this){
+                pendingBlooms = null;
+                if(filled){
+                    if(blooms != null)
+                        blooms.close();
+                    built.extendTo(numPages());
+                    built.flushAll();
+                    blooms = built;
+                    bloomsLoaded = true;
+                } else {
+                    built.discard();
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Called by HeapPage whenever a tuple is inserted into one of this
+     * file's pages, to stretch the page's ranges in the zone map and add
+     * the tuple to the page's Bloom filters.
+     */
+    public void tupleAdded(HeapPage pg, Tuple t) { //@ADDED
+        tuplesAdded(pg.getId().pageNumber(), Collections.singletonList(t));
+    }
+
+    /** Same as {@link #tupleAdded} for all the tuples put on a page at once. */
+    private void tuplesAdded(int pageNo, List<Tuple> tuples) { //@ADDED
+        try{
+            getZoneMap().addAll(pageNo, tuples);
+        } catch (IOException e){
+            // without a map no page is ever skipped, so nothing is lost;
+            // the side file is rebuilt when it no longer matches
+            ZoneMap.fileFor(file).delete();
+        }
+        try{
+            BloomFilterMap b;
+            BloomFilterMap pending;
+            synchronized(this){
+                b = getBloomFilters();
+                pending = pendingBlooms;
+            }
+            if(b != null)
+                b.addAll(pageNo, tuples);
+            if(pending != null)
+                pending.addAll(pageNo, tuples);
+        } catch (IOException e){
+            // as for the zone map, filters that cannot be read skip nothing
+            BloomFilterMap.fileFor(file).delete();
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException { //@ADDED
-        byte[] data = null;
         Page pg = null;
-        RandomAccessFile stream = null;
 
         //System.out.println("pageNumber=" + pid.pageNumber() + 
                            //"\ttableName=" + Database.getCatalog().getTableName(pid.getTableId()) + 
                            //"\tnumPages=" + numPages());
 
         try{
-            stream = new RandomAccessFile(file,"r");
+            channel();
             if(pid.pageNumber() >= numPages()){
                 throw new IllegalArgumentException();
             }
-            data = new byte[BufferPool.PAGE_SIZE];
-            stream.seek(pid.pageNumber()*BufferPool.PAGE_SIZE);
-            stream.read(data);
-            stream.close();
 
-            pg = new HeapPage(new HeapPageId(pid.getTableId(),pid.pageNumber()),data);
+            ByteBuffer buf = ioBuffer.get();
+            buf.clear();
+            readPageBytes(pid.pageNumber(), buf);
+            buf.flip();
+
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            buf.get(data, 0, buf.remaining());
+
+            pg = createPage(new HeapPageId(pid.getTableId(),pid.pageNumber()),data);
 
-        }catch(FileNotFoundException e){
-            System.out.println("File not found! Full path:" + file.getAbsolutePath());
-            assert false : "File:" + file + "\nThis should not happen!";
         }catch(IOException e){
             System.out.println("IO Exception:" + e);
             assert false : "Pid:" + pid + "\nThis should not happen!";
-        } finally{
-            assert pg != null;
-            return pg;
         }
+
+        assert pg != null;
+        return pg;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException { //@ADDED
         int offset = page.getId().pageNumber();
-        byte[] data = page.getPageData();
 
-        RandomAccessFile rfile = new RandomAccessFile(file,"rw");
-        rfile.seek(offset * BufferPool.PAGE_SIZE);
-        rfile.write(data);
-        rfile.close();
+        channel(true);
+        // the ranges and filters on disk must cover the page before it
+        // gets there
+        if(page instanceof HeapPage){
+            getZoneMap().flush(offset);
+            BloomFilterMap b = getBloomFilters();
+            if(b != null)
+                b.flush(offset);
+        }
+
+        ByteBuffer buf = ioBuffer.get();
+        buf.clear();
+        page.writePageData(buf);
+        buf.flip();
+        writePages(offset, buf);
+
+        // a page written past the end (an append, or recovery) grows the file
+        synchronized(this){
+            if(offset >= pageCount)
+                pageCount = offset + 1;
+            if(offset >= allocatedPages)
+                allocatedPages = offset + 1;
+        }
+
+        // the bucket on disk follows the page on disk
+        if(page instanceof HeapPage){
+            HeapPage pg = (HeapPage)page;
+            FreeSpaceMap fsm = getFreeSpaceMap();
+            fsm.update(offset, pg.getNumEmptySlots(), pg.numSlots);
+            fsm.flush(offset);
+        }
+    }
+
+    /**
+     * Decodes a page of this file. Subclasses that store their pages in a
+     * different format return their own kind of HeapPage.
+     */
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException { //@ADDED
+        return new HeapPage(pid, data);
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() { //@ADDED
-        int n = (int)(file.length() / (long)BufferPool.PAGE_SIZE);
-        assert (n*BufferPool.PAGE_SIZE) == file.length();
+        int n = pageCount;
+        if(n >= 0) return n;
 
-        return n;
+        try{
+            channel();
+        } catch (IOException e){
+            // not created yet
+            return (int)(file.length() / (long)BufferPool.PAGE_SIZE);
+        }
+        return pageCount;
     }
 
     // see DbFile.java for javadocs
@@ -129,26 +497,33 @@ public class HeapFile implements DbFile {
 
         BufferPool pool = Database.getBufferPool();
         ArrayList<Page> page_mod = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
         boolean success = false;
-        int L = numPages();
-        int index = -1;
+        int L;
+        int index;
         HeapPage pg = null;
 
-        for(int i=0;i<L;i++){
-            PageId pid = new HeapPageId(getId(),i);
-            pg = (HeapPage)pool.getPage(tid,pid,Permissions.READ_WRITE);
+        // try the pages the free-space map says have room
+        while((index = fsm.findPageWithSpace()) >= 0 && index < numPages()){
+            PageId pid = new HeapPageId(getId(),index);
+            pg = (HeapPage)pool.pinPage(tid,pid,Permissions.READ_WRITE);
 
             try{
                 pg.insertTuple(t);
+                // while still pinned, so that the page cannot be evicted clean
+                pg.markDirty(true,tid);
                 success = true;
-            } catch (DbException e){ success = false; }
+            } catch (DbException e){
+                // the map was out of date; correct it and look again
+                pageSpaceChanged(pg);
+                success = false;
+            } finally {
+                pool.unpinPage(pid);
+            }
             
             if(success){
-                pg.markDirty(true,tid);
                 page_mod.add(pg);
 
-                index = i;
-
                 break;
             }
         }
@@ -159,22 +534,224 @@ public class HeapFile implements DbFile {
         }
 
         //appending new page
-        HeapPageId pid = new HeapPageId(getId(),L);
-        pg = new HeapPage(pid,HeapPage.createEmptyPageData());
-        pg.insertTuple(t);
-
-        RandomAccessFile rfile = new RandomAccessFile(file,"rw");
-        rfile.setLength(rfile.length() + BufferPool.PAGE_SIZE);
-        rfile.close();
-
-        writePage(pg);
-        assert numPages() == L+1;
+        synchronized(this){
+            L = numPages();
+            HeapPageId pid = new HeapPageId(getId(),L);
+            pg = createPage(pid,HeapPage.createEmptyPageData());
+            pg.insertTuple(t);
+
+            ensureAllocated(L+1);
+            writePage(pg);
+            assert numPages() == L+1;
+        }
 
         page_mod.add(pg);
 
         return page_mod;
     }
 
+    /** Is told of the tuples {@link #bulkAppend} has written, see there. */
+    public interface AppendListener {
+        public void appended(List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException;
+    }
+
+    /**
+     * Same as {@link #bulkAppend(TransactionId, Iterator, AppendListener)},
+     * outside any transaction, so that the load cannot be undone, and with
+     * no one to tell of the runs written.
+     */
+    public int bulkAppend(Iterator<Tuple> tuples) throws DbException, IOException { //@ADDED
+        try{
+            return bulkAppend(null,tuples,null);
+        } catch(TransactionAbortedException e){
+            // only a listener aborts
+            throw new DbException(e.toString());
+        }
+    }
+
+    /**
+     * Appends tuples to the end of the file without going through the
+     * BufferPool. Tuples are packed into new pages in memory, and each run
+     * of up to one extent of full pages is written with a single write.
+     * Existing pages are never touched, even if they have free slots.
+     * Inserts by other sessions may append pages between two runs.
+     * <p>
+     * The new pages are past the old end of the file, so they have no
+     * before image worth logging. Instead the file records which pages
+     * each transaction's loads wrote, and {@link #bulkLoadComplete} empties
+     * them again if the transaction aborts.
+     * <p>
+     * Once a run is written, the tuples of each of its pages are handed to
+     * listener, outside the file's monitor, so that the caller can index
+     * them without holding on to the whole load.
+     *
+     * @param tid the transaction loading the tuples, or null if the load
+     *            is not to be undone
+     * @param tuples the tuples to add; each one gets its RecordId set
+     * @param listener told of the tuples of each page written, or null
+     * @return the number of tuples added
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public int bulkAppend(TransactionId tid, Iterator<Tuple> tuples, AppendListener listener)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        int count = 0;
+
+        // the tuples are pulled without holding the monitor: the child may
+        // scan through the BufferPool, whose evictions write pages of this
+        // file. They go on scratch pages, in no file, which are only
+        // numbered from the end of the file as it is then when their run
+        // is written.
+        ArrayList<HeapPage> pages = new ArrayList<HeapPage>();
+        ArrayList<ArrayList<Tuple>> run = new ArrayList<ArrayList<Tuple>>();
+        ByteBuffer runBuf = ByteBuffer.allocate(extentPages * BufferPool.PAGE_SIZE);
+        HeapPage scratch = null;
+        ArrayList<Tuple> onPage = null;
+
+        while(tuples.hasNext()){
+            Tuple t = tuples.next();
+            if(!t.getTupleDesc().equals(td)){
+                throw new DbException("tupleDesc mismatch");
+            }
+
+            if(scratch == null || !scratch.hasRoomFor(t)){
+                if(run.size() == extentPages){
+                    writeRun(tid,pages,run,runBuf);
+                    appended(run,listener);
+                    pages.clear();
+                    run.clear();
+                }
+                scratch = createPage(new HeapPageId(getId(),-1),HeapPage.createEmptyPageData());
+                scratch.scratch = true;
+                pages.add(scratch);
+                onPage = new ArrayList<Tuple>();
+                run.add(onPage);
+            }
+            scratch.insertTuple(t);
+            onPage.add(t);
+            count++;
+        }
+        if(!run.isEmpty()){
+            writeRun(tid,pages,run,runBuf);
+            appended(run,listener);
+        }
+
+        return count;
+    }
+
+    private static void appended(List<? extends List<Tuple>> run, AppendListener listener)
+            throws DbException, IOException, TransactionAbortedException { //@ADDED
+        if(listener == null) return;
+        for(List<Tuple> onPage : run){
+            listener.appended(onPage);
+        }
+    }
+
+    /**
+     * Moves the filled scratch pages to the end of the file, and writes them
+     * in one go. run holds the tuples of each page.
+     */
+    private synchronized void writeRun(TransactionId tid, List<HeapPage> pages,
+            List<? extends List<Tuple>> run, ByteBuffer buf) throws DbException, IOException { //@ADDED
+        int first = numPages();
+        for(int i=0;i<pages.size();i++){
+            pages.get(i).renumber(new HeapPageId(getId(),first + i));
+            tuplesAdded(first + i, run.get(i));
+        }
+
+        getZoneMap().flush(first + pages.size() - 1);
+        BloomFilterMap b = getBloomFilters();
+        if(b != null)
+            b.flush(first + pages.size() - 1);
+
+        buf.clear();
+        for(HeapPage pg : pages){
+            pg.writePageData(buf);
+        }
+        buf.flip();
+        writePages(first, buf);
+        pageCount = first + pages.size();
+        // the run grew the file itself, with no need to zero it first
+        if(pageCount > allocatedPages)
+            allocatedPages = pageCount;
+
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for(HeapPage pg : pages){
+            fsm.update(pg.getId().pageNumber(), pg.getNumEmptySlots(), pg.numSlots);
+        }
+        fsm.flush(pageCount - 1);
+
+        if(tid != null){
+            if(loads == null)
+                loads = new HashMap<TransactionId, ArrayList<int[]>>();
+            ArrayList<int[]> ranges = loads.get(tid);
+            if(ranges == null){
+                ranges = new ArrayList<int[]>();
+                loads.put(tid, ranges);
+                Database.getBufferPool().bulkLoaded(tid, this);
+            }
+            ranges.add(new int[] { first, pageCount });
+        }
+    }
+
+    /**
+     * Ends the bulk loads tid made into this file. On commit their pages
+     * stay. On abort the index entries of their tuples are removed, and the
+     * pages are zeroed: those that are still at the end of the file are cut
+     * off, and those that other inserts appended pages after are left empty.
+     */
+    public void bulkLoadComplete(TransactionId tid, boolean commit) throws IOException { //@ADDED
+        ArrayList<int[]> ranges;
+        synchronized(this){
+            ranges = loads == null ? null : loads.remove(tid);
+        }
+        if(ranges == null || commit) return;
+
+        // the indexes go through the BufferPool, so not under the monitor
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(getId());
+        BufferPool pool = Database.getBufferPool();
+        for(int[] r : ranges){
+            for(int p=r[0];p<r[1];p++){
+                HeapPageId pid = new HeapPageId(getId(),p);
+                if(!indexes.isEmpty()){
+                    Iterator<Tuple> it = ((HeapPage)readPage(pid)).iterator();
+                    while(it.hasNext()){
+                        Tuple t = it.next();
+                        try{
+                            for(IndexFile index : indexes)
+                                index.deleteTuple(tid,t);
+                        } catch(DbException e){
+                            throw new IOException("cannot undo the index entries of a load: " + e);
+                        } catch(TransactionAbortedException e){
+                            throw new IOException("cannot undo the index entries of a load: " + e);
+                        }
+                    }
+                }
+                pool.discardPage(pid);
+            }
+        }
+        emptyPages(ranges);
+    }
+
+    /** Zeroes the pages of an aborted load, last run first. */
+    private synchronized void emptyPages(List<int[]> ranges) throws IOException { //@ADDED
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int numSlots = createPage(new HeapPageId(getId(),0),HeapPage.createEmptyPageData()).numSlots;
+        for(int i=ranges.size()-1;i>=0;i--){
+            int first = ranges.get(i)[0];
+            int end = ranges.get(i)[1];
+            writePages(first, ByteBuffer.allocate((end - first) * BufferPool.PAGE_SIZE));
+            if(end == pageCount){
+                pageCount = first;
+            } else {
+                for(int p=first;p<end;p++)
+                    fsm.update(p, numSlots, numSlots);
+            }
+        }
+        fsm.truncate(pageCount);
+        fsm.flushAll();
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException { //@ADDED
@@ -188,9 +765,13 @@ public class HeapFile implements DbFile {
         }
 
         BufferPool pool = Database.getBufferPool();
-        HeapPage pg = (HeapPage)pool.getPage(tid,pid,Permissions.READ_WRITE);
-        pg.deleteTuple(t);
-        pg.markDirty(true,tid);
+        HeapPage pg = (HeapPage)pool.pinPage(tid,pid,Permissions.READ_WRITE);
+        try{
+            pg.deleteTuple(t);
+            pg.markDirty(true,tid);
+        } finally {
+            pool.unpinPage(pid);
+        }
 
         return pg;
     }
@@ -201,7 +782,22 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) { //@ADDED
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that passes over
+     * the pages on which, according to the zone map, no tuple satisfies
+     * all of preds. Skipped pages are never fetched through the
+     * BufferPool. The tuples of the pages that are read are all returned,
+     * whether or not they satisfy preds; filtering them is up to the
+     * caller.
+     *
+     * @param preds predicates on the fields of this file, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) { //@ADDED
         final TransactionId f_tid = tid;
+        final List<Predicate> f_preds = preds == null || preds.isEmpty() ? null : preds;
 
         return new DbFileIteratorPage() { //@ADDED
             public boolean opened = false;
@@ -209,21 +805,100 @@ public class HeapFile implements DbFile {
             public Iterator<Tuple> current_iter = null;
             public int pageIndex = -1;
 
+            // the page being iterated stays pinned so that other sessions
+            // cannot evict it from under us
+            private transient BufferPool pinnedPool = null;
+            private HeapPageId pinnedPid = null;
+
+            // a scan over a file much bigger than the pool reads through a
+            // ring of frames instead of flooding the whole pool
+            private BufferPool.ScanRing ring = null;
+            private ReadAhead readAhead = null;
+            // pages the zone map and Bloom filters rule out, or null to
+            // read every page
+            private BitSet skip = null;
+            // the Bloom filters and the predicates they were asked about,
+            // and whether the current page held a tuple satisfying those
+            private BloomFilterMap blooms = null;
+            private List<Predicate> bloomPreds = null;
+            private boolean pageMatched = false;
+            // stands in for the iterator of a page that has been finished
+            private final Iterator<Tuple> done = Collections.<Tuple>emptyList().iterator();
+
+            /** @return the first page from pageNo on that the scan reads */
+            private int nextPage(int pageNo){
+                return skip == null ? pageNo : skip.nextClearBit(pageNo);
+            }
+
+            private void loadSkip() throws DbException{
+                if(f_preds == null) return;
+                try{
+                    int pages = HeapFile.this.numPages();
+                    skip = HeapFile.this.getZoneMap().pagesToSkip(f_preds,pages);
+
+                    blooms = HeapFile.this.getBloomFilters();
+                    bloomPreds = null;
+                    if(blooms != null){
+                        for(Predicate p : f_preds){
+                            if(!blooms.canFilter(p)) continue;
+                            if(bloomPreds == null)
+                                bloomPreds = new ArrayList<Predicate>();
+                            bloomPreds.add(p);
+                        }
+                    }
+                    if(bloomPreds != null)
+                        skip.or(blooms.pagesToSkip(bloomPreds,pages));
+                } catch (IOException e){
+                    throw new DbException("cannot read zone map: " + e);
+                }
+            }
+
+            /** Tells the Bloom filters how the page just finished turned out. */
+            private void pageDone(){
+                if(bloomPreds != null && pageIndex < blooms.numPages())
+                    blooms.pageRead(pageMatched);
+            }
+
             private Iterator<Tuple> getTupleIter() throws TransactionAbortedException,DbException{
                 assert opened;
 
+                unpinCurrent();
+                pageMatched = false;
+                if(pageIndex >= HeapFile.this.numPages())
+                    return done;
+
                 BufferPool pool = Database.getBufferPool();
                 HeapPageId pid = new HeapPageId(HeapFile.this.getId(),pageIndex);
-                HeapPage page = (HeapPage)pool.getPage(f_tid,pid,Permissions.READ_WRITE);
+                readAhead.advance(pageIndex);
+                HeapPage page = (HeapPage)pool.pinPage(f_tid,pid,Permissions.READ_WRITE,ring);
+                pinnedPool = pool;
+                pinnedPid = pid;
 
                 return page.iterator();
             }
 
+            private void unpinCurrent(){
+                if(pinnedPid == null) return;
+
+                pinnedPool.unpinPage(pinnedPid);
+                pinnedPool = null;
+                pinnedPid = null;
+            }
+
             public void open() throws DbException, TransactionAbortedException {
                 if(opened) return;
 
                 opened = true;
-                pageIndex = 0;
+                loadSkip();
+                pageIndex = nextPage(0);
+
+                BufferPool pool = Database.getBufferPool();
+                int pages = HeapFile.this.numPages();
+                int toRead = skip == null ? pages : pages - skip.cardinality();
+                if(pool.isLargeScan(toRead))
+                    ring = pool.newScanRing();
+                readAhead = new ReadAhead(pool,HeapFile.this.getId(),pages,ring,skip);
+
                 current_iter = getTupleIter();
             }
 
@@ -232,10 +907,16 @@ public class HeapFile implements DbFile {
                 if(closed) throw new DbException("iterator closed!");
 
                 while(!current_iter.hasNext()){
-                    if(pageIndex >= HeapFile.this.numPages()-1)
+                    if(current_iter != done){
+                        pageDone();
+                        current_iter = done;
+                    }
+                    if(nextPage(pageIndex+1) >= HeapFile.this.numPages()){
+                        unpinCurrent();
                         return false;
+                    }
 
-                    pageIndex++;
+                    pageIndex = nextPage(pageIndex+1);
                     current_iter = getTupleIter();
                     assert current_iter != null;
                 }
@@ -250,21 +931,35 @@ public class HeapFile implements DbFile {
                 if(!hasNext())
                     throw new NoSuchElementException();
 
-                return current_iter.next();
+                Tuple t = current_iter.next();
+                if(bloomPreds != null && !pageMatched){
+                    pageMatched = true;
+                    for(Predicate p : bloomPreds)
+                        pageMatched &= p.filter(t);
+                }
+                return t;
             }
 
             public void rewind() throws DbException, TransactionAbortedException{
                 if(!opened) throw new DbException("iterator not opened");
                 if(closed) throw new DbException("iterator closed!");
 
-                pageIndex = 0;
+                // the map may have widened since the scan was opened
+                loadSkip();
+                pageIndex = nextPage(0);
                 current_iter = getTupleIter();
             }
 
             public void close(){
                 if(closed) return;
 
+                unpinCurrent();
                 current_iter = null;
+                ring = null;
+                if(readAhead != null)
+                    readAhead.close();
+                readAhead = null;
+                skip = null;
                 pageIndex = -1;
 
                 closed = true;
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -29,6 +30,16 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(tuples, outFile, npagebytes, numFields, null, BloomFilterMap.DEFAULT_FPR);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a binary
+   * page file, with Bloom filters on some of its fields.
+   *
+   * @see #convert(File, File, int, int, Type[], char, int[], double)
+   */
+  public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes,
+                 int numFields, int[] bloomFields, double fpr) throws IOException { //@ADDED
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -48,7 +59,11 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      convert(tempInput, outFile, npagebytes, numFields, ts, ',', bloomFields, fpr);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -90,6 +105,20 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, null, BloomFilterMap.DEFAULT_FPR);
+  }
+
+   /** Convert the specified input text file into a binary page file, as
+    * {@link #convert(File, File, int, int, Type[], char)} does, and build
+    * Bloom filters on the given fields of each page as it goes.
+    *
+    * @see BloomFilterMap
+    * @param bloomFields the fields to build Bloom filters on, or null for none
+    * @param fpr the false positive rate the filters are sized for
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int[] bloomFields, double fpr)
+      throws IOException { //@ADDED
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -106,6 +135,13 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // side files left by an earlier file of this name no longer apply
+    FreeSpaceMap.fileFor(outFile).delete();
+    ZoneMap.fileFor(outFile).delete();
+    BloomFilterMap.fileFor(outFile).delete();
+    BloomFilterMap blooms = null;
+    if (bloomFields != null && bloomFields.length > 0)
+        blooms = new BloomFilterMap(BloomFilterMap.fileFor(outFile), new TupleDesc(typeAr), bloomFields, fpr);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -141,7 +177,10 @@ public class HeapFileEncoder {
 
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    if (blooms != null)
+                        blooms.add(npages, fieldNo, new IntField(v));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -157,6 +196,8 @@ public class HeapFileEncoder {
                 pageStream.writeBytes(s);
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
+                if (blooms != null)
+                    blooms.add(npages, fieldNo, new StringField(s, Type.STRING_LEN));
             }
             curpos = 0;
             if (c == '\n')
@@ -223,5 +264,164 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    if (blooms != null) {
+        blooms.extendTo(npages);
+        blooms.close();
+    }
+  }
+
+   /** Convert the specified input text file into a file of
+    * SlottedHeapPages, in which every string takes only its own length.
+    * The input format is the same as for
+    * {@link #convert(File, File, int, int, Type[], char)}.
+    *
+    * @see SlottedHeapPage
+    * @see SlottedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page; must be BufferPool.PAGE_SIZE
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the type of each field
+    * @param fieldSeparator the character between fields
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException { //@ADDED
+      if (npagebytes != BufferPool.PAGE_SIZE)
+          throw new IllegalArgumentException("slotted pages are " + BufferPool.PAGE_SIZE + " bytes");
+
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      // side files left by an earlier file of this name no longer apply
+      FreeSpaceMap.fileFor(outFile).delete();
+      ZoneMap.fileFor(outFile).delete();
+      BloomFilterMap.fileFor(outFile).delete();
+
+      ByteBuffer buf = ByteBuffer.allocate(npagebytes);
+      int npages = 0;
+      // pages being filled belong to no table, so nothing is told about them
+      SlottedHeapPage page = new SlottedHeapPage(new HeapPageId(0, npages), td,
+              ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+
+          String[] els = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (els.length != numFields)
+              throw new IOException("BAD LINE : " + line);
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++) {
+              String s = els[i].trim();
+              if (typeAr[i] == Type.INT_TYPE) {
+                  try {
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  } catch (NumberFormatException e) {
+                      throw new IOException("BAD LINE : " + line);
+                  }
+              } else {
+                  t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          }
+
+          if (!page.hasRoomFor(t)) {
+              buf.clear();
+              page.writePageData(buf);
+              os.write(buf.array(), 0, npagebytes);
+              npages++;
+              page = new SlottedHeapPage(new HeapPageId(0, npages), td,
+                      ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+          }
+          page.add(t);
+      }
+
+      // the last page, or an empty page if there were no tuples at all
+      if (page.slotCount > 0 || npages == 0) {
+          buf.clear();
+          page.writePageData(buf);
+          os.write(buf.array(), 0, npagebytes);
+      }
+      br.close();
+      os.close();
+  }
+
+   /** Convert the specified input text file into a file of compressed
+    * HeapPages: the pages {@link #convert(File, File, int, int, Type[], char)}
+    * would write, each one deflated, with the page map alongside.
+    *
+    * @see CompressedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page; must be BufferPool.PAGE_SIZE
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the type of each field
+    * @param fieldSeparator the character between fields
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException { //@ADDED
+      if (npagebytes != BufferPool.PAGE_SIZE)
+          throw new IllegalArgumentException("compressed pages are " + BufferPool.PAGE_SIZE + " bytes");
+
+      File plain = File.createTempFile("plainTable", ".dat");
+      try {
+          convert(inFile, plain, npagebytes, numFields, typeAr, fieldSeparator);
+          CompressedHeapFile.compress(plain, outFile, new TupleDesc(typeAr)).close();
+      } finally {
+          plain.delete();
+      }
+  }
+
+   /** Convert the specified input text file into a file of PaxHeapPages,
+    * which hold the same tuples per page as
+    * {@link #convert(File, File, int, int, Type[], char)} writes, stored
+    * column by column.
+    *
+    * @see PaxHeapPage
+    * @see PaxHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page; must be BufferPool.PAGE_SIZE
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the type of each field
+    * @param fieldSeparator the character between fields
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException { //@ADDED
+      if (npagebytes != BufferPool.PAGE_SIZE)
+          throw new IllegalArgumentException("PAX pages are " + BufferPool.PAGE_SIZE + " bytes");
+
+      File rows = File.createTempFile("rowTable", ".dat");
+      try {
+          convert(inFile, rows, npagebytes, numFields, typeAr, fieldSeparator);
+
+          TupleDesc td = new TupleDesc(typeAr);
+          DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rows)));
+          FileOutputStream os = new FileOutputStream(outFile);
+          FreeSpaceMap.fileFor(outFile).delete();
+          ZoneMap.fileFor(outFile).delete();
+          BloomFilterMap.fileFor(outFile).delete();
+          byte[] page = new byte[npagebytes];
+          ByteBuffer buf = ByteBuffer.allocate(npagebytes);
+          try {
+              for (long n = rows.length() / npagebytes; n > 0; n--) {
+                  is.readFully(page);
+                  buf.clear();
+                  PaxHeapPage.fromRows(page, td, buf);
+                  os.write(buf.array(), 0, npagebytes);
+              }
+          } finally {
+              is.close();
+              os.close();
+          }
+      } finally {
+          rows.delete();
+      }
   }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,13 +19,27 @@ public class HeapPage implements Page {
     byte header[];
     Tuple tuples[];
     int numSlots;
-
+    //@ADDED
+    /**
+     * the page as it was read, from index 0; used slots with no Tuple yet
+     * are decoded from it. It may be a view of a memory-mapped file.
+     */
+    ByteBuffer data;
+    int emptySlots;
+    /** no slot before this one is free */
+    int firstFree = 0;
+    /** true for a page that belongs to no file, e.g. one a bulk load fills to see what fits */
+    boolean scratch = false;
+    //@ADDED
+
+    // the before image, or null if the page has not changed since it was
+    // read (or since setBeforeImage), in which case it is the page itself
     byte[] oldData;
 
     private void checkHeader(){ //@TEST
         for(int i=0;i<numSlots;i++){
-            if(isSlotUsed(i))
-                assert tuples[i] != null;
+            if(!isSlotUsed(i))
+                assert tuples[i] == null;
         }
     }
 
@@ -45,34 +60,60 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a buffer, which may be a view of a
+     * memory-mapped file. The page starts at the buffer's position, and
+     * the position is not moved. The page bytes are not copied: the page
+     * keeps a view of them and decodes records from it as they are asked
+     * for, so they must not change while the page or its tuples are in
+     * use, other than by writing this page back.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         assert data != null;
 
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.data = data.slice();
 
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
+        // allocate and read the header slots of this page; the records
+        // themselves are only decoded when they are asked for
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        this.data.duplicate().get(header);
+        tuples = new Tuple[numSlots];
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                emptySlots++;
         }
-        dis.close();
 
         setBeforeImage();
 
         checkHeader(); //@TEST
     }
 
+    /**
+     * Sets up the parts every page format shares, for subclasses that lay
+     * out their slots differently.
+     */
+    protected HeapPage(HeapPageId id, TupleDesc td) { //@ADDED
+        this.pid = id;
+        this.td = td;
+    }
+
+    /** Puts len bytes of the page as it was read, from offset on, into buf. */
+    void copyData(ByteBuffer buf, int offset, int len) { //@ADDED
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + len);
+        src.position(offset);
+        buf.put(src);
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -94,7 +135,10 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] data = oldData;
+            if (data == null)
+                data = getPageData();
+            return new HeapPage(pid,data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,8 +147,41 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of the page its before image. Nothing is
+     * copied until the page is next modified, so pages that are only read
+     * never pay for serializing themselves.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Captures the before image, if needed, ahead of a modification. A
+     * scratch page has nothing to roll back to.
+     */
+    void beforeModification() { //@ADDED
+        if (oldData == null && !scratch)
+            oldData = getPageData();
+        if (!data.hasArray())
+            detachData();
+    }
+
+    /**
+     * Moves a page read from a mapping off it before the page is changed,
+     * since writing the page back changes the mapped bytes: the tuples
+     * handed out so far decode their remaining fields, and the page keeps
+     * a copy of the bytes it was read from.
+     */
+    private void detachData() { //@ADDED
+        for (Tuple t : tuples) {
+            if (t != null)
+                t.decodeAll();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+        copy.put(data.duplicate());
+        copy.clear();
+        data = copy;
     }
 
     /**
@@ -115,36 +192,29 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Moves a scratch page into its file as page id, along with the
+     * RecordIds of the tuples put on it.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    void renumber(HeapPageId id) { //@ADDED
+        pid = id;
+        scratch = false;
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] != null)
+                tuples[i].setRecordId(new RecordId(id, i));
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in a used slot, creating it over the page bytes the
+     * first time the slot is visited. Its fields are decoded on demand.
+     */
+    Tuple tupleAt(int slotId) { //@ADDED
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, header.length + slotId * td.getSize());
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
@@ -160,64 +230,46 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] out = new byte[BufferPool.PAGE_SIZE];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer buf) { //@ADDED
+        int start = buf.position();
+        int tupleSize = td.getSize();
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        buf.put(header);
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        int i = 0;
+        while (i < numSlots) {
 
-            // empty slot
+            // a run of empty slots
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                int end = i + 1;
+                while (end < numSlots && !isSlotUsed(end))
+                    end++;
+                Utility.putZeros(buf, (end - i) * tupleSize);
+                i = end;
                 continue;
             }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            // non-empty slot that was never looked at: copy it as it was read
+            Tuple t = tuples[i];
+            if (t == null) {
+                copyData(buf, header.length + i * tupleSize, tupleSize);
+            } else {
+                for (int j=0; j<td.numFields(); j++)
+                    t.getField(j).serialize(buf);
             }
+            i++;
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        Utility.putZeros(buf, BufferPool.PAGE_SIZE - (buf.position() - start));
     }
 
     /**
@@ -258,8 +310,13 @@ public class HeapPage implements Page {
             throw new DbException("slot already empty");
         }
 
+        beforeModification();
         markSlotUsed(tupleno,false);
         tuples[tupleno] = null;
+        emptySlots++;
+        if(tupleno < firstFree)
+            firstFree = tupleno;
+        spaceChanged(null);
 
         checkHeader();
     }
@@ -276,29 +333,53 @@ public class HeapPage implements Page {
             throw new DbException("tupleDesc mismatch");
         }
 
-        int empty=-1;
-        boolean full = true;
+        if(emptySlots == 0){
+            throw new DbException("page is full");
+        }
 
-        for(int i=0;i<this.numSlots;i++){
+        int empty=-1;
+        for(int i=firstFree;i<this.numSlots;i++){
             if(!isSlotUsed(i)){
-                full = false;
                 empty = i;
 
                 break;
             }
         }
-        if(full){
-            throw new DbException("page is full");
-        }
         
         assert empty != -1;
+        beforeModification();
         markSlotUsed(empty,true);
         tuples[empty] = t;
         t.setRecordId(new RecordId(this.pid,empty));
+        emptySlots--;
+        firstFree = empty + 1;
+        spaceChanged(t);
         
         checkHeader();
     }
 
+    /**
+     * Tells the file this page belongs to that its free space changed.
+     *
+     * @param added the tuple just inserted, or null after a delete
+     */
+    void spaceChanged(Tuple added) { //@ADDED
+        if(scratch) return;
+
+        DbFile file;
+        try{
+            file = Database.getCatalog().getDbFile(pid.getTableId());
+        } catch (NoSuchElementException e){
+            // the table was dropped from the catalog
+            return;
+        }
+        if(file instanceof HeapFile){
+            ((HeapFile)file).pageSpaceChanged(this);
+            if(added != null)
+                ((HeapFile)file).tupleAdded(this, added);
+        }
+    }
+
     public boolean dirty = false;
     public TransactionId dirty_tid = null;
 
@@ -326,13 +407,16 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() { //@ADDED
-        int ret = 0;
-        for(int i=0;i<numSlots;i++){
-            if(!isSlotUsed(i))
-                ret++;
-        }
+        return emptySlots;
+    }
 
-        return ret;
+    /**
+     * Returns true if the specified tuple would fit on this page. Pages
+     * with variable-length records can take a small tuple even when
+     * getNumEmptySlots(), which assumes the largest, says they are full.
+     */
+    public boolean hasRoomFor(Tuple t) { //@ADDED
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -371,7 +455,7 @@ public class HeapPage implements Page {
                 if(!hasNext())
                     throw new NoSuchElementException();
 
-                return tuples[index++];
+                return tupleAt(index++);
             }
             
             public void remove(){
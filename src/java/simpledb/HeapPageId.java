@@ -43,7 +43,10 @@ public class HeapPageId implements PageId, Serializable {
      * @see BufferPool
      */
     public int hashCode() { //@ADDED
-        return tableId << 16 + pageNumber % (1<<16);  //@TODO: good hash?
+        // table ids are path hash codes, so mix both halves instead of
+        // shifting: the buffer pool stripes its page table on this value
+        int h = tableId * 0x9E3779B1 + pageNumber;
+        return h ^ (h >>> 15);
     }
 
     /**
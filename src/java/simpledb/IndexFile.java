@@ -0,0 +1,238 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * IndexFile is an index over one field of a table, stored in a file of its
+ * own whose pages go through the BufferPool like those of any other
+ * DbFile.
+ * <p>
+ * The index holds one entry per tuple of the table: the tuple's value of
+ * the indexed field and its RecordId. Its DbFile methods take the table's
+ * tuples: {@link #insertTuple} and {@link #deleteTuple} add and remove the
+ * entry of a tuple that was just inserted into or is being deleted from
+ * the table (the BufferPool does this for every index in the Catalog),
+ * and the iterators return the table's tuples.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ * @see IndexScan
+ */
+public abstract class IndexFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    //@ADDED
+    private final File file;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    private transient FileChannel channel = null;
+    /** the number of pages in the file, kept by writePage */
+    protected transient int pageCount = -1;
+
+    /**
+     * Guards the channel and pageCount. It is held only around file
+     * operations, never across a BufferPool call, since the pool writes
+     * index pages while holding its own locks. (Arrays are Serializable.)
+     */
+    private final Object fileLock = new Object[0];
+    /**
+     * Serializes the changes to the structure of the index. Subclasses
+     * hold it while they pin pages; the pool never takes it, as writing a
+     * page back only needs fileLock.
+     */
+    protected final Object writeLock = new Object[0];
+    //@ADDED
+
+    /**
+     * Constructs an index backed by file f.
+     *
+     * @param f the file that stores the index
+     * @param tableid the table the index is over
+     * @param keyField the field of the table's tuples that is indexed
+     * @param td the TupleDesc of the table
+     */
+    protected IndexFile(File f, int tableid, int keyField, TupleDesc td) { //@ADDED
+        this.file = f;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    public File getFile() { //@ADDED
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() { //@ADDED
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the TupleDesc of the indexed table */
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() { //@ADDED
+        return tableid;
+    }
+
+    /** @return the indexed field of the table */
+    public int getKeyField() { //@ADDED
+        return keyField;
+    }
+
+    public Type getKeyType() { //@ADDED
+        return td.getFieldType(keyField);
+    }
+
+    /** @return true if {@link #indexIterator} can find the tuples for op */
+    public abstract boolean supports(Predicate.Op op);
+
+    /**
+     * Returns the tuples of the table whose indexed field satisfies
+     * (field op key).
+     *
+     * @param op an op the index {@link #supports}, or null for every tuple
+     * @throws UnsupportedOperationException for any other op
+     */
+    public abstract DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key);
+
+    /**
+     * Returns the tuples of the table.
+     *
+     * @see #indexIterator
+     */
+    public DbFileIterator iterator(TransactionId tid) { //@ADDED
+        return indexIterator(tid, null, null);
+    }
+
+    /**
+     * @return about how many pages of the index a lookup of one key reads,
+     *         for estimating the cost of plans that use the index
+     */
+    public abstract int probePages();
+
+    /**
+     * Replaces the contents of the index with the entries of every tuple
+     * in the table. The pages are written straight to the file, so no
+     * other transaction may be using the index.
+     */
+    public abstract void build(TransactionId tid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /** @return the page of this index stored as data */
+    protected abstract Page parsePage(HeapPageId pid, byte[] data) throws IOException;
+
+    private FileChannel channel() throws IOException { //@ADDED
+        synchronized(fileLock){
+            if(channel == null || !channel.isOpen()){
+                channel = new RandomAccessFile(file,"rw").getChannel();
+                pageCount = (int)(channel.size() / BufferPool.PAGE_SIZE);
+            }
+            return channel;
+        }
+    }
+
+    /** @return the number of pages in the index file */
+    public int numPages() { //@ADDED
+        synchronized(fileLock){
+            try{
+                channel();
+            } catch (IOException e){
+                return 0;
+            }
+            return pageCount;
+        }
+    }
+
+    /** Closes the index file; it is opened again when next used. */
+    public void close() { //@ADDED
+        synchronized(fileLock){
+            if(channel == null) return;
+            try{
+                channel.close();
+            } catch (IOException e){
+                // nothing to do
+            }
+            channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) { //@ADDED
+        try{
+            FileChannel ch = channel();
+            if(pid.pageNumber() >= numPages())
+                throw new IllegalArgumentException();
+
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            long pos = (long)pid.pageNumber() * BufferPool.PAGE_SIZE;
+            while(buf.hasRemaining()){
+                if(ch.read(buf, pos + buf.position()) < 0) break;
+            }
+            return parsePage((HeapPageId)pid, buf.array());
+        } catch (IOException e){
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException { //@ADDED
+        FileChannel ch = channel();
+        int pageNo = page.getId().pageNumber();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        page.writePageData(buf);
+        buf.flip();
+        long pos = (long)pageNo * BufferPool.PAGE_SIZE;
+        while(buf.hasRemaining()){
+            ch.write(buf, pos + buf.position());
+        }
+        synchronized(fileLock){
+            if(pageNo >= pageCount)
+                pageCount = pageNo + 1;
+        }
+    }
+
+    /**
+     * Empties the file ahead of a {@link #build}, first dropping its pages
+     * from the pool so that they are not found there.
+     */
+    protected void truncate() throws IOException { //@ADDED
+        BufferPool pool = Database.getBufferPool();
+        int pages = numPages();
+        for(int i=0;i<pages;i++)
+            pool.discardPage(new HeapPageId(getId(), i));
+        synchronized(fileLock){
+            channel().truncate(0);
+            pageCount = 0;
+        }
+    }
+
+    /** Pins page pageNo of the index in the BufferPool. */
+    protected Page pin(TransactionId tid, int pageNo)
+            throws DbException, TransactionAbortedException { //@ADDED
+        HeapPageId pid = new HeapPageId(getId(), pageNo);
+        return Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    protected static void unpin(Page page) { //@ADDED
+        Database.getBufferPool().unpinPage(page.getId());
+    }
+
+    /** @return the tuple of the table an index entry points to */
+    protected Tuple fetch(TransactionId tid, int page, int slot)
+            throws DbException, TransactionAbortedException { //@ADDED
+        HeapPageId pid = new HeapPageId(tableid, page);
+        HeapPage pg = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        if(!pg.isSlotUsed(slot))
+            throw new DbException("index entry points to empty slot " + slot + " of page " + page);
+        return pg.tupleAt(slot);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested-loop join: it joins its outer child with a
+ * table that has an index on the join field by probing the index for the
+ * inner tuples that match each outer tuple, instead of scanning the whole
+ * inner table. The index scan carries the join predicate with its sides
+ * swapped, e.g. a LESS_THAN join asks a B+tree for the inner tuples
+ * GREATER_THAN the outer tuple's value.
+ *
+ * @see JoinOptimizer#instantiateJoin(LogicalJoinNode,DbIterator,DbIterator,int,int,java.util.Map)
+ */
+public class IndexJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    //@ADDED
+    public JoinPredicate p = null;
+    public DbIterator child1 = null;
+    public IndexScan child2 = null;
+    public DbIterator[] children = null;
+
+    private TupleDesc td = null;
+    private Tuple outer = null;
+    //@ADDED
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            An index scan of the right(inner) relation on the field
+     *            p.getField2(), with the reverse of p's operator; it is
+     *            probed with the value of p.getField1() of each outer tuple
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child1, IndexScan child2) { //@ADDED
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+
+        this.children = new DbIterator[2];
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() { //@ADDED
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        super.open();
+
+        // the index scan is opened by each probe
+        outer = null;
+        child1.open();
+    }
+
+    public void close() { //@ADDED
+        super.close();
+
+        outer = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        outer = null;
+        child1.rewind();
+    }
+
+    private Tuple mergeTuple(Tuple t1, Tuple t2) { //@ADDED
+        Tuple jointTuple = new Tuple(td);
+
+        int l1 = t1.getTupleDesc().numFields();
+        int l2 = t2.getTupleDesc().numFields();
+        for(int i=0;i<l1;i++){
+            jointTuple.setField(i,t1.getField(i));
+        }
+        for(int i=0;i<l2;i++){
+            jointTuple.setField(i+l1,t2.getField(i));
+        }
+
+        return jointTuple;
+    }
+
+    /**
+     * Returns the next outer tuple joined with the next inner tuple the
+     * index found for it, as {@link Join#fetchNext} does.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException { //@ADDED
+        while(true){
+            if(outer != null && child2.hasNext()){
+                Tuple t2 = child2.next();
+                if(p.filter(outer, t2))
+                    return mergeTuple(outer, t2);
+                continue;
+            }
+
+            if(!child1.hasNext()) return null;
+            outer = child1.next();
+            child2.probe(outer.getField(p.getField1()));
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return this.children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        assert children.length == 2;
+
+        child1 = children[0];
+        child2 = (IndexScan)children[1];
+
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
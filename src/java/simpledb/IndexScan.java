@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in an index on
+ * that field instead of reading the whole table. Tuples come out in key
+ * order from a B+tree index.
+ *
+ * @see IndexFile
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+    //@ADDED
+    public TransactionId tid = null;
+    public IndexFile index = null;
+    public String tableAlias = null;
+    public Predicate.Op op = null;
+    public Field key = null;
+    public DbFileIterator it_db = null;
+    //@ADDED
+
+    /**
+     * Creates a scan of the tuples t of the index's table for which
+     * (t.getField(index.getKeyField()) op key) holds.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param op
+     *            an op the index {@link IndexFile#supports}
+     * @param key
+     *            the value the indexed field is compared with
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field key, String tableAlias) { //@ADDED
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.key = key;
+        this.tableAlias = tableAlias;
+        it_db = index.indexIterator(tid, op, key);
+    }
+
+    /** @return the name of the table the scan reads */
+    public String getTableName() { //@ADDED
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() { //@ADDED
+        return tableAlias;
+    }
+
+    /** @return the predicate the scan applies, on the table's tuples */
+    public Predicate getPredicate() { //@ADDED
+        return new Predicate(index.getKeyField(), op, key);
+    }
+
+    /**
+     * Looks up another key: the scan returns the tuples matching it from
+     * the start. Used by {@link IndexJoin} to probe the index once per
+     * outer tuple.
+     */
+    public void probe(Field key) throws DbException, TransactionAbortedException { //@ADDED
+        it_db.close();
+        this.key = key;
+        it_db = index.indexIterator(tid, op, key);
+        it_db.open();
+    }
+
+    public void open() throws DbException, TransactionAbortedException { //@ADDED
+        it_db.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the table, as {@link SeqScan#getTupleDesc}
+     * does.
+     */
+    public TupleDesc getTupleDesc() { //@ADDED
+        return index.getTupleDesc();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException { //@ADDED
+        return it_db.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException { //@ADDED
+        return it_db.next();
+    }
+
+    public void close() { //@ADDED
+        it_db.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException { //@ADDED
+        it_db.rewind();
+    }
+}
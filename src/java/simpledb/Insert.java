@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.*;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
@@ -18,6 +19,8 @@ public class Insert extends Operator {
     public Tuple ret = null;
 
     public DbIterator[] children = null;
+
+    public boolean bulk = false;
     //@ADDED
 
     /**
@@ -50,6 +53,22 @@ public class Insert extends Operator {
         this.ret = new Tuple(new TupleDesc(typeAr));
     }
 
+    /**
+     * Constructor for a batched insert. In batched mode, if the target table
+     * is a HeapFile, the child's tuples are streamed into
+     * {@link HeapFile#bulkAppend} and written as runs of new pages instead
+     * of being inserted one at a time through the BufferPool.
+     * 
+     * @param bulk
+     *            true to use batched mode
+     * @see #Insert(TransactionId, DbIterator, int)
+     */
+    public Insert(TransactionId t,DbIterator child, int tableid, boolean bulk)
+            throws DbException { //@ADDED
+        this(t,child,tableid);
+        this.bulk = bulk;
+    }
+
     public TupleDesc getTupleDesc() { //@ADDED
         return ret.getTupleDesc();
     }
@@ -86,6 +105,37 @@ public class Insert extends Operator {
         BufferPool pool = Database.getBufferPool();
         int tps = 0;
 
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if(bulk && file instanceof HeapFile){
+            ChildTuples tuples = new ChildTuples();
+            // the appended tuples bypass the BufferPool, so their index
+            // entries are added as each run is written
+            final List<IndexFile> indexes = Database.getCatalog().getIndexes(tableid);
+            HeapFile.AppendListener listener = null;
+            if(!indexes.isEmpty()){
+                listener = new HeapFile.AppendListener() {
+                    public void appended(List<Tuple> written)
+                            throws DbException, IOException, TransactionAbortedException {
+                        for(IndexFile index : indexes){
+                            for(Tuple t : written)
+                                index.insertTuple(tid,t);
+                        }
+                    }
+                };
+            }
+            try{
+                tps = ((HeapFile)file).bulkAppend(tid,tuples,listener);
+                tuples.rethrow();
+            } catch(IOException e) {
+                throw new DbException("error inserting tuples:" + e);
+            }
+
+            ret.setField(0,new IntField(tps));
+            insertDone = true;
+
+            return ret;
+        }
+
         while(child.hasNext()){
             Tuple t = child.next();
             try{
@@ -102,6 +152,46 @@ public class Insert extends Operator {
         return ret;
     }
 
+    /**
+     * The child operator as a plain Iterator for bulkAppend. An exception
+     * from the child ends the iteration and is thrown again by rethrow().
+     */
+    private class ChildTuples implements Iterator<Tuple> {
+        private Exception failure = null;
+
+        public boolean hasNext() {
+            if(failure != null) return false;
+            try{
+                return child.hasNext();
+            } catch(DbException e) {
+                failure = e;
+            } catch(TransactionAbortedException e) {
+                failure = e;
+            }
+            return false;
+        }
+
+        public Tuple next() {
+            try{
+                return child.next();
+            } catch(DbException e) {
+                failure = e;
+            } catch(TransactionAbortedException e) {
+                failure = e;
+            }
+            throw new NoSuchElementException();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void rethrow() throws DbException, TransactionAbortedException {
+            if(failure instanceof DbException) throw (DbException)failure;
+            if(failure instanceof TransactionAbortedException) throw (TransactionAbortedException)failure;
+        }
+    }
+
     @Override
     public DbIterator[] getChildren() { //@ADDED
         return children;
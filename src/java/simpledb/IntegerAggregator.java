@@ -95,16 +95,30 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) { //@ADDED
         IntField tup_af = (IntField)tup.getField(afield);
-        int val = tup_af.getValue();
+        Field tup_gf = null;
+        if(this.gbfield != NO_GROUPING)
+            tup_gf = tup.getField(gbfield);
 
+        mergeValue(tup_gf, tup_af.getValue());
+    }
+
+    /**
+     * Merge one value of the aggregate field into its group, for callers
+     * that read the columns without building tuples
+     * 
+     * @param tup_gf
+     *            the value of the group-by field, ignored if there is no
+     *            grouping
+     * @param val
+     *            the value of the aggregate field
+     */
+    public void mergeValue(Field tup_gf, int val) { //@ADDED
         if(this.gbfield == NO_GROUPING){
             this.result.addValue(val);
 
             return;
         }
 
-        Field tup_gf = tup.getField(gbfield);
-
         if(this.gb_results.get(tup_gf) == null){
             Stats s = new Stats();
             s.addValue(val);
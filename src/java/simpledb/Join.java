@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.util.*;
-import java.io.*;
 
 /**
  * The Join operator implements the relational join operation.
@@ -15,10 +14,10 @@ public class Join extends Operator {
     public DbIterator child2 = null;
     public DbIterator[] children = null;
 
-    final public int BLOCK_SIZE = 100;
+    final public static int BLOCK_SIZE = 100;
 
-    public Map<String,LinkedList<String> > map_pool1 = null;
-    public LinkedList<String> pool1 = null;
+    public Map<Field,LinkedList<Tuple> > map_pool1 = null;
+    public LinkedList<Tuple> pool1 = null;
     public LinkedList<Tuple> results = null;
     //@ADDED
 
@@ -44,8 +43,8 @@ public class Join extends Operator {
         this.children[0] = child1;
         this.children[1] = child2;
 
-        this.map_pool1 = new HashMap<String,LinkedList<String> >();
-        this.pool1 = new LinkedList<String>();
+        this.map_pool1 = new HashMap<Field,LinkedList<Tuple> >();
+        this.pool1 = new LinkedList<Tuple>();
         this.results = new LinkedList<Tuple>();
     }
 
@@ -105,37 +104,6 @@ public class Join extends Operator {
         child2.rewind();
     }
 
-    private String serializeToString(Serializable o) throws DbException, TransactionAbortedException { //@ADDED
-        String ret = "";
-
-        try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(o);
-            so.flush();
-            ret = bo.toString();
-        } catch (Exception e) {
-            throw new DbException("serializeToString:" + e);
-        }
-
-        return ret;
-    }
-
-    private Serializable deserializeFromString(String s) throws DbException, TransactionAbortedException { //@ADDED
-        Serializable o = null;
-
-        try {
-            byte b[] = s.getBytes(); 
-            ByteArrayInputStream bi = new ByteArrayInputStream(b);
-            ObjectInputStream si = new ObjectInputStream(bi);
-            o = (Serializable) si.readObject();
-        } catch (Exception e) {
-            throw new DbException("serializeToString:" + e);
-        }
-
-        return o;
-    }
-
     private boolean blockFetch1() throws DbException, TransactionAbortedException { //@ADDED
         pool1.clear();
         map_pool1.clear();
@@ -145,17 +113,15 @@ public class Join extends Operator {
             Tuple tp = child1.next();
             Field f = tp.getField(p.getField1());
 
-            pool1.addLast(serializeToString(tp));
+            pool1.addLast(tp);
 
-            String key = serializeToString(f);
-            String value = serializeToString(tp);
-
-            LinkedList<String> tps = map_pool1.get(key);
+            // the fields hash and compare by value
+            LinkedList<Tuple> tps = map_pool1.get(f);
             if(tps == null){
-                tps = new LinkedList<String>();
-                map_pool1.put(key,tps);
+                tps = new LinkedList<Tuple>();
+                map_pool1.put(f,tps);
             }
-            tps.addLast(value);
+            tps.addLast(tp);
         }
 
         return pool1.size() > 0;
@@ -217,27 +183,24 @@ public class Join extends Operator {
             t2 = child2.next();
 
             if(p.getOperator() != Predicate.Op.EQUALS){
-                Iterator<String> iter = pool1.iterator();
+                Iterator<Tuple> iter = pool1.iterator();
 
                 while(iter.hasNext()){
-                    t1 = (Tuple)deserializeFromString(iter.next());
+                    t1 = iter.next();
 
                     if(p.filter(t1,t2)){
                         results.addLast(mergeTuple(t1,t2));
                     }
                 }
             } else {
-                String key = serializeToString(t2.getField(p.getField2()));
-                LinkedList<String> t1s = map_pool1.get(key);
+                LinkedList<Tuple> t1s = map_pool1.get(t2.getField(p.getField2()));
                 if(t1s == null){
                     continue;
                 }
 
-                Iterator<String> iter = t1s.iterator();
+                Iterator<Tuple> iter = t1s.iterator();
                 while(iter.hasNext()){
-                    String value = iter.next();
-
-                    t1 = (Tuple)deserializeFromString(value);
+                    t1 = iter.next();
                     if(p.filter(t1,t2)){
                         results.addLast(mergeTuple(t1,t2));
                     }
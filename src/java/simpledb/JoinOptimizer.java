@@ -45,8 +45,101 @@ public class JoinOptimizer {
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
 
-        int t1id = 0, t2id = 0;
         DbIterator j;
+        JoinPredicate p = joinPredicate(lj, plan1, plan2); //@ADDED
+
+        // with no estimates to go by, an equality join with a base table that
+        // has an index on the join field probes the index instead of
+        // rescanning the table, and any other equality join hashes the
+        // inner side once
+        if (lj.p == Predicate.Op.EQUALS) { //@ADDED
+            IndexScan probe = indexProbe(lj, plan2, p.getField2());
+            if (probe != null)
+                return new IndexJoin(p, plan1, probe);
+            return new HashJoin(p, plan1, plan2);
+        }
+
+        j = new Join(p,plan1,plan2);
+
+        return j;
+
+    }
+
+    /**
+     * Return the best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode,DbIterator,DbIterator)} does,
+     * but choosing between a block nested-loop {@link Join}, a
+     * {@link HashJoin}, a {@link SortMergeJoin} and an {@link IndexJoin} by
+     * their estimated costs.
+     * An equality join is hashed, building the table from the side with the
+     * smaller estimated cardinality, and partitioned to disk by a
+     * {@link GraceHashJoin} if that side is estimated not to fit in
+     * {@link GraceHashJoin#getMemoryPages()} pages. An IndexJoin is
+     * considered whenever plan2 scans a base table with an index that can
+     * answer the join predicate on its join field, and a range join is
+     * sort-merged when that is cheaper than comparing every pair.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1
+     * @param card2
+     *            Estimated cardinality of plan2
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     */
+    public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2,
+            int card1, int card2, Map<String, TableStats> stats) throws ParsingException { //@ADDED
+        JoinPredicate p = joinPredicate(lj, plan1, plan2);
+
+        IndexScan probe = indexProbe(lj, plan2, p.getField2());
+        TableStats s2 = probe == null ? null : stats.get(probe.getTableName());
+        if (s2 != null) {
+            // the cost of producing plan1 is the same either way
+            double scanCost = estimateJoinCost(lj, card1, card2, 0, s2.estimateScanCost());
+            double probeCost = estimateIndexJoinCost(lj, card1, card2, 0, probe.index,
+                    s2.getIoCostPerPage(), stats);
+            if (probeCost < scanCost)
+                return new IndexJoin(p, plan1, probe);
+        }
+        if (lj.p == Predicate.Op.EQUALS) {
+            boolean buildLeft = card1 < card2;
+            TupleDesc buildTd = (buildLeft ? plan1 : plan2).getTupleDesc();
+            if (Math.min(card1, card2) > TupleFile.tuplesIn(buildTd,
+                    GraceHashJoin.getMemoryPages()))
+                return new GraceHashJoin(p, plan1, plan2, buildLeft);
+            return new HashJoin(p, plan1, plan2, buildLeft);
+        }
+        if (!(lj instanceof LogicalSubplanJoinNode) && SortMergeJoin.canJoin(lj.p)) {
+            double cost1 = scanCost(plan1, stats);
+            double cost2 = scanCost(plan2, stats);
+            int card = estimateJoinCardinality(lj, card1, card2, stats);
+            if (estimateSortMergeJoinCost(lj, card1, card2, cost1, cost2, card)
+                    < estimateJoinCost(lj, card1, card2, cost1, cost2))
+                return new SortMergeJoin(p, plan1, plan2);
+        }
+        return new Join(p, plan1, plan2);
+    }
+
+    /**
+     * @return the estimated cost of one full scan of plan if it scans a base
+     *         table, or 0 if it is not known
+     */
+    private static double scanCost(DbIterator plan, Map<String, TableStats> stats) { //@ADDED
+        if (!(plan instanceof SeqScan))
+            return 0;
+        TableStats s = stats.get(((SeqScan) plan).getTableName());
+        return s == null ? 0 : s.estimateScanCost();
+    }
+
+    /** @return the predicate of lj on the fields of plan1 and plan2 */
+    private static JoinPredicate joinPredicate(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException { //@ADDED
+        int t1id = 0, t2id = 0;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -66,12 +159,44 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
-
-        j = new Join(p,plan1,plan2);
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
 
-        return j;
+    /**
+     * @return an index scan of the table plan2 scans, to be probed with the
+     *         join field of each outer tuple, or null if plan2 is not a scan
+     *         of a base table or the table has no index on field2 that can
+     *         answer the join predicate
+     */
+    private static IndexScan indexProbe(LogicalJoinNode lj, DbIterator plan2, int field2) { //@ADDED
+        if (lj instanceof LogicalSubplanJoinNode || !(plan2 instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) plan2;
+        // outer op inner, asked of the index as inner op' outer
+        Predicate.Op op = reverse(lj.p);
+        IndexFile index = op == null ? null : Database.getCatalog().getIndex(scan.tableid, field2, op);
+        if (index == null)
+            return null;
+        return new IndexScan(scan.tid, index, op, null, scan.getAlias());
+    }
 
+    /** @return op' such that (a op b) is (b op' a), or null if there is none */
+    private static Predicate.Op reverse(Predicate.Op op) { //@ADDED
+        switch (op) {
+        case EQUALS:
+        case NOT_EQUALS:
+            return op;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return null;
+        }
     }
 
     /**
@@ -106,15 +231,108 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            return estimateHashJoinCost(j, card1, card2, cost1, cost2); //@ADDED
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // a scan of the inner side per block of outer tuples, each inner
+            // tuple compared with every tuple of the block
+            double blocks = Math.ceil((double) card1 / Join.BLOCK_SIZE); //@ADDED
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * Estimate the cost of a {@link HashJoin}: one scan of each side, one
+     * insert into the hash table per tuple of the side it is built from and
+     * one lookup per tuple of the other.
+     * 
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the table on the left-hand
+     *            side of the query
+     * @param cost2
+     *            Estimated cost of one full scan of the table on the right-hand
+     *            side of the query
+     * @return An estimate of the cost of this query, in terms of cost1 and
+     *         cost2
+     */
+    public double estimateHashJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) { //@ADDED
+        return cost1 + cost2 + card1 + card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}: one scan of each side,
+     * the comparisons of sorting each side, and one step per result, since
+     * the inner tuples an outer tuple does not match are never compared
+     * with it. Runs the sorts write out cost no more than another scan of
+     * each side, and are left out.
+     * 
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the table on the left-hand
+     *            side of the query
+     * @param cost2
+     *            Estimated cost of one full scan of the table on the right-hand
+     *            side of the query
+     * @param card
+     *            Estimated cardinality of the join
+     * @return An estimate of the cost of this query, in terms of cost1 and
+     *         cost2
+     */
+    public double estimateSortMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, int card) { //@ADDED
+        return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card;
+    }
+
+    /** @return the number of comparisons sorting n tuples takes */
+    private static double sortCost(int n) { //@ADDED
+        return n < 2 ? 0 : n * (Math.log(n) / Math.log(2));
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexJoin}: one probe of the index on
+     * the right-hand side per tuple of the left-hand side, each reading the
+     * pages of the index a lookup does and, for every match, a page of the
+     * table, since the matches of one probe are rarely on the same page.
+     * 
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the table on the left-hand
+     *            side of the query
+     * @param index
+     *            the index on the join field of the right-hand table
+     * @param ioCostPerPage
+     *            the cost of reading a page of the right-hand table or its index
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     * @return An estimate of the cost of this query, in terms of cost1
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, IndexFile index, int ioCostPerPage, Map<String, TableStats> stats) { //@ADDED
+        int card = estimateJoinCardinality(j, card1, card2, stats);
+        double perProbe = index.probePages() + (double) card / Math.max(card1, 1);
+        return cost1 + card1 * perProbe * ioCostPerPage + card;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -147,6 +365,20 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Same as {@link #estimateJoinCardinality(LogicalJoinNode,int,int,boolean,boolean,Map)},
+     * working out from the catalog whether either join field is the primary
+     * key of its table.
+     */
+    public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2,
+            Map<String, TableStats> stats) { //@ADDED
+        boolean t1pkey = j.t1Alias != null && p.getTableId(j.t1Alias) != null
+                && isPkey(j.t1Alias, j.f1PureName);
+        boolean t2pkey = j.t2Alias != null && p.getTableId(j.t2Alias) != null
+                && isPkey(j.t2Alias, j.f2PureName);
+        return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey, stats);
+    }
+
     /**
      * Estimate the join cardinality of two tables.
      * */
@@ -155,9 +387,50 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card; //@ADDED
+        int distinct = Math.max(numDistinct(table1Alias, field1PureName, stats, tableAliasToId),
+                numDistinct(table2Alias, field2PureName, stats, tableAliasToId));
+        if (joinOp == Predicate.Op.EQUALS && distinct > 0) {
+            // each value of the side with fewer distinct values is assumed
+            // to match the tuples of one value of the other side
+            card = (double) card1 * card2 / distinct;
+        } else if (joinOp == Predicate.Op.EQUALS) {
+            // a key matches at most one tuple of its table
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (double) card1 * card2;
+        } else {
+            // a range predicate keeps a fixed fraction of the cross product
+            card = 0.3 * card1 * card2;
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card <= 0 ? 1 : (int) card;
+    }
+
+    /**
+     * @return the number of distinct values of a field of a base table, or
+     *         0 if it is not known
+     */
+    private static int numDistinct(String tableAlias, String fieldPureName,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) { //@ADDED
+        Integer tableId = tableAlias == null ? null : tableAliasToId.get(tableAlias);
+        if (tableId == null)
+            return 0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 0;
+        try {
+            return s.numDistinct(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName));
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
     }
 
     /**
@@ -400,7 +673,12 @@ public class JoinOptimizer {
      */
     private boolean isPkey(String tableAlias, String field) {
         int tid1 = p.getTableId(tableAlias);
-        String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
+        String pkey1;
+        try { //@ADDED
+            pkey1 = Database.getCatalog().getPrimaryKey(tid1);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
 
         return pkey1.equals(field);
     }
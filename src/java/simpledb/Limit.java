@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit returns the first k tuples of its child and no more. Once k tuples
+ * have been returned it stops pulling from the child, so a scan under it
+ * reads only the pages those tuples are on (and those it reads ahead).
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    //@ADDED
+    private DbIterator child;
+    private final int limit;
+    private int count = 0;
+    //@ADDED
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the number of tuples to return at most
+     * @param child
+     *            the tuples to return the first of
+     */
+    public Limit(int limit, DbIterator child) { //@ADDED
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+        this.child = child;
+    }
+
+    public int getLimit() { //@ADDED
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        child.open();
+        count = 0;
+        super.open();
+    }
+
+    public void close() { //@ADDED
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        child.rewind();
+        count = 0;
+    }
+
+    /**
+     * Returns the next tuple of the child, or null once the child is done
+     * or limit tuples have been returned.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException { //@ADDED
+        if (count >= limit || !child.hasNext())
+            return null;
+        count++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        this.child = children[0];
+    }
+}
@@ -35,6 +35,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1; //@ADDED
     private String query;
 //    private Query owner;
 
@@ -216,6 +217,22 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT: only the first k tuples of the result are returned, after
+        ordering them if there is an ORDER BY.
+        @param k the number of tuples to return at most
+     * @throws ParsingException if k is negative
+    */
+    public void addLimit(int k) throws ParsingException { //@ADDED
+        if (k < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = k;
+    }
+
+    /** @return the LIMIT of the query, or -1 if it has none */
+    public int getLimit() { //@ADDED
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +288,24 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return an index that can find the tuples passing filter lf, or null
+     *         if its table has no index on the field or the index cannot
+     *         answer the predicate
+     */
+    private IndexFile indexFor(LogicalFilterNode lf) { //@ADDED
+        Integer tableId = getTableId(lf.tableAlias);
+        if (tableId == null)
+            return null;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return Database.getCatalog().getIndex(tableId, field, lf.p);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,7 +341,24 @@ public class LogicalPlan {
 
         }
 
-        Iterator<LogicalFilterNode> filterIt = filters.iterator();        
+        // a filter on an indexed field is answered by an IndexScan instead
+        // of scanning the table and filtering it; an equality beats a range.
+        // Those filters go first, while their subplans are still SeqScans.
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>(); //@ADDED
+        for (LogicalFilterNode lf : filters) {
+            if (indexFor(lf) == null)
+                continue;
+            LogicalFilterNode prev = indexFilters.get(lf.tableAlias);
+            if (prev == null || (prev.p != Predicate.Op.EQUALS && lf.p == Predicate.Op.EQUALS))
+                indexFilters.put(lf.tableAlias, lf);
+        }
+        Vector<LogicalFilterNode> orderedFilters = new Vector<LogicalFilterNode>(indexFilters.values());
+        for (LogicalFilterNode lf : filters) {
+            if (!orderedFilters.contains(lf))
+                orderedFilters.add(lf);
+        }
+
+        Iterator<LogicalFilterNode> filterIt = orderedFilters.iterator();
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
             DbIterator subplan = subplanMap.get(lf.tableAlias);
@@ -334,7 +386,17 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (indexFilters.get(lf.tableAlias) == lf) //@ADDED
+                subplanMap.put(lf.tableAlias, new IndexScan(t, indexFor(lf), lf.p, f, lf.tableAlias));
+            else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+                // the scan below skips the pages that cannot match
+                DbIterator scan = subplan; //@ADDED
+                while (scan instanceof Filter)
+                    scan = ((Filter) scan).child;
+                if (scan instanceof SeqScan)
+                    ((SeqScan) scan).addPredicate(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -348,6 +410,15 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, so that each join can be
+        // instantiated with the algorithm that suits the sizes of its inputs
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>(); //@ADDED
+        for (String alias : subplanMap.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+            if (s != null)
+                cardMap.put(alias, s.estimateTableCardinality(filterSelectivities.get(alias)));
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -382,7 +453,15 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            Integer card1 = cardMap.get(t1name); //@ADDED
+            Integer card2 = isSubqueryJoin ? null : cardMap.get(t2name);
+            if (card1 != null && card2 != null) {
+                j = jo.instantiateJoin(lj,plan1,plan2,card1,card2,statsMap);
+                cardMap.put(t1name, jo.estimateJoinCardinality(lj,card1,card2,statsMap));
+            } else {
+                j = jo.instantiateJoin(lj,plan1,plan2);
+                cardMap.remove(t1name);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -475,7 +554,15 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int field = node.getTupleDesc().fieldNameToIndex(oByField); //@ADDED
+            // only the first tuples are wanted: keep the best of them as
+            // they come instead of sorting them all
+            if (limit >= 0)
+                node = new TopN(field, oByAsc, limit, node);
+            else
+                node = new OrderBy(field, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node); //@ADDED
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). A page is "hot" once it
+ * has been referenced K times; pages with fewer than K references have an
+ * infinite backward K-distance and are always evicted first, oldest first.
+ * <p>
+ * To keep every operation O(1) the hot pages are kept in order of their
+ * last reference rather than of their K-th most recent one, which is the
+ * usual approximation. Reference counts of recently evicted pages are kept
+ * for a while, so a page that is re-read shortly after eviction is
+ * remembered as hot, and references that follow each other within the
+ * correlated reference period count only once.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    public static final int DEFAULT_K = 2;
+
+    /** references closer together than this many ticks are correlated */
+    static final int CORRELATED_PERIOD = 1;
+
+    private class History {
+        int refs;
+        long lastRef;
+
+        History(long now) {
+            this.refs = 1;
+            this.lastRef = now;
+        }
+    }
+
+    //@ADDED
+    private final int k;
+    private final int retainedHistory;
+    private long now = 0;
+
+    /** resident pages with fewer than K references, oldest first */
+    private final LinkedHashMap<PageId,History> cold = new LinkedHashMap<PageId,History>();
+    /** resident pages with K or more references, least recent first */
+    private final LinkedHashMap<PageId,History> hot = new LinkedHashMap<PageId,History>();
+    /** reference history of pages that are no longer resident */
+    private final LinkedHashMap<PageId,History> evicted = new LinkedHashMap<PageId,History>();
+    //@ADDED
+
+    public LruKPolicy(int numPages, int k) { //@ADDED
+        assert k >= 1;
+        this.k = k;
+        this.retainedHistory = numPages;
+    }
+
+    private void reference(PageId pid, History h) { //@ADDED
+        if(now - h.lastRef > CORRELATED_PERIOD)
+            h.refs++;
+        h.lastRef = now;
+
+        if(h.refs >= k)
+            hot.put(pid,h);
+        else
+            cold.put(pid,h);
+    }
+
+    public synchronized void pageAdmitted(PageId pid) { //@ADDED
+        now++;
+
+        History h = evicted.remove(pid);
+        if(h == null){
+            h = cold.remove(pid);
+            if(h == null) h = hot.remove(pid);
+        }
+
+        if(h == null){
+            h = new History(now);
+            if(h.refs >= k)
+                hot.put(pid,h);
+            else
+                cold.put(pid,h);
+        } else {
+            reference(pid,h);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) { //@ADDED
+        now++;
+
+        History h = cold.remove(pid);
+        if(h == null) h = hot.remove(pid);
+        if(h == null) return;
+
+        reference(pid,h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) { //@ADDED
+        History h = cold.remove(pid);
+        if(h == null) h = hot.remove(pid);
+        if(h == null) return;
+
+        evicted.put(pid,h);
+        if(evicted.size() > retainedHistory){
+            Iterator<PageId> it = evicted.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) { //@ADDED
+        for(PageId pid : cold.keySet()){
+            if(evictable.isEvictable(pid))
+                return pid;
+        }
+        for(PageId pid : hot.keySet()){
+            if(evictable.isEvictable(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String getName() { //@ADDED
+        return "LRU-" + k;
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least-recently-used replacement. Pages are kept in a LinkedHashMap in
+ * order of last access, so the victim is found at the head of the map.
+ */
+public class LruPolicy implements ReplacementPolicy {
+    //@ADDED
+    private final LinkedHashMap<PageId,Boolean> lru = new LinkedHashMap<PageId,Boolean>();
+    //@ADDED
+
+    public synchronized void pageAdmitted(PageId pid) { //@ADDED
+        lru.remove(pid);
+        lru.put(pid,Boolean.TRUE);
+    }
+
+    public synchronized void pageAccessed(PageId pid) { //@ADDED
+        if(lru.remove(pid) != null)
+            lru.put(pid,Boolean.TRUE);
+    }
+
+    public synchronized void pageRemoved(PageId pid) { //@ADDED
+        lru.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) { //@ADDED
+        for(PageId pid : lru.keySet()){
+            if(evictable.isEvictable(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String getName() { //@ADDED
+        return "LRU";
+    }
+}
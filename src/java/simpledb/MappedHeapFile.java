@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that reads its pages
+ * out of memory-mapped regions of the file, so a read costs no system call
+ * and no copy: the page is a view of the mapping and its tuples are decoded
+ * straight from it as they are used. A page about to be modified moves off
+ * the mapping first, since writing it back changes the mapped bytes.
+ * <p>
+ * The file is mapped in read-only regions of REGION_PAGES pages. Writes
+ * still go through the file channel; since the mappings are shared with the
+ * OS page cache they see those writes immediately. When the file grows past
+ * the end of its last mapped region (e.g. through insertTuple), that region
+ * is mapped again at its new length on the next read that needs it.
+ */
+public class MappedHeapFile extends HeapFile {
+    /** Pages per mapped region; 1MB regions. */
+    public static final int REGION_PAGES = 256;
+
+    private static final long REGION_BYTES = (long)REGION_PAGES * BufferPool.PAGE_SIZE;
+
+    //@ADDED
+    private transient MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    //@ADDED
+
+    public MappedHeapFile(File f, TupleDesc td) { //@ADDED
+        super(f, td);
+    }
+
+    /**
+     * @return the mapped region holding page pageNo, mapping or remapping it
+     *         if the page lies past what is mapped so far
+     */
+    private synchronized MappedByteBuffer region(int pageNo) throws IOException { //@ADDED
+        int r = pageNo / REGION_PAGES;
+        long offsetInRegion = (long)(pageNo % REGION_PAGES) * BufferPool.PAGE_SIZE;
+
+        if(regions == null)
+            regions = new MappedByteBuffer[0];
+        if(r >= regions.length)
+            regions = Arrays.copyOf(regions, r + 1);
+
+        MappedByteBuffer region = regions[r];
+        if(region == null || region.capacity() < offsetInRegion + BufferPool.PAGE_SIZE){
+            FileChannel ch = channel();
+            long start = r * REGION_BYTES;
+            long len = Math.min(REGION_BYTES, ch.size() - start);
+            region = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            regions[r] = region;
+        }
+        return region;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException { //@ADDED
+        if(pid.pageNumber() < 0 || pid.pageNumber() >= numPages()){
+            throw new IllegalArgumentException();
+        }
+
+        try{
+            ByteBuffer view = region(pid.pageNumber()).duplicate();
+            int offset = (pid.pageNumber() % REGION_PAGES) * BufferPool.PAGE_SIZE;
+            view.position(offset);
+            view.limit(offset + BufferPool.PAGE_SIZE);
+
+            return new HeapPage(new HeapPageId(pid.getTableId(),pid.pageNumber()),view.slice());
+        } catch (IOException e){
+            System.out.println("IO Exception:" + e);
+            assert false : "Pid:" + pid + "\nThis should not happen!";
+            return null;
+        }
+    }
+
+    /**
+     * Drops the mappings along with the channel. The memory is released
+     * once the buffers are garbage collected.
+     */
+    public synchronized void close() { //@ADDED
+        regions = new MappedByteBuffer[0];
+        super.close();
+    }
+}
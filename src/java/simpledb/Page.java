@@ -7,8 +7,9 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
+ * and no other constructor taking two arguments whose second is a byte[].
  */
 public interface Page {
 
@@ -46,6 +47,15 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the bytes getPageData would return into buf, starting at its
+   * position, without allocating anything. Used to write pages straight
+   * into reusable I/O buffers.
+   *
+   * @param buf a buffer with at least BufferPool.PAGE_SIZE bytes remaining
+   */
+    public void writePageData(java.nio.ByteBuffer buf);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -53,7 +63,7 @@ public interface Page {
 
     /*
      * a transaction that wrote this page just committed it.
-     * copy current content to the before image.
+     * copy current content to the before image (possibly lazily, on the next modification).
      */
     public void setBeforeImage();
 }
@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +13,48 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * A LIMIT at the end of a statement. Zql does not parse LIMIT, so it is
+     * taken off the statement before Zql reads it, and added to the plan
+     * of the query after.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)\\s*\\z", Pattern.CASE_INSENSITIVE); //@ADDED
+
+    /**
+     * @return the index of the ';' that ends the first statement of s, or
+     *         the length of s if there is none
+     */
+    static int endOfFirstStatement(String s) { //@ADDED
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == ';' && !quoted)
+                return i;
+        }
+        return s.length();
+    }
+
+    /** @return the LIMIT at the end of the first statement of s, or -1 if there is none */
+    static int limitOf(String s) throws simpledb.ParsingException { //@ADDED
+        Matcher m = LIMIT_CLAUSE.matcher(s.substring(0, endOfFirstStatement(s)));
+        if (!m.find())
+            return -1;
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT too large: " + m.group(1));
+        }
+    }
+
+    /** @return s without the LIMIT at the end of its first statement */
+    static String withoutLimit(String s) { //@ADDED
+        int end = endOfFirstStatement(s);
+        return LIMIT_CLAUSE.matcher(s.substring(0, end)).replaceFirst("") + s.substring(end);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -276,9 +319,22 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * Plans a query as {@link #handleQueryStatement(ZQuery,TransactionId)}
+     * does, returning only its first limit tuples, or all of them if limit
+     * is -1.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException { //@ADDED
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -390,7 +446,8 @@ public class Parser {
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
+        // INSERT ... SELECT can produce any number of rows: load them in bulk
+        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId, s.getValues() == null));
         return insertQ;
     }
 
@@ -465,12 +522,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = limitOf(s); //@ADDED
+        ByteArrayInputStream bis = new ByteArrayInputStream(withoutLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +563,20 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // the statement is read whole to take its LIMIT off
+            ByteArrayOutputStream text = new ByteArrayOutputStream(); //@ADDED
+            byte[] buf = new byte[BufferPool.PAGE_SIZE];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String statement = text.toString("UTF-8");
+            int limit = limitOf(statement);
+
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    withoutLimit(statement).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT applies only to queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,7 +597,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -584,7 +656,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are PaxHeapPages, for wide tables
+ * that are mostly scanned a few columns at a time: the values of a column
+ * sit next to each other on every page, so reading one column touches
+ * only that column's bytes. Files in this format are written by
+ * {@link HeapFileEncoder#convertPax} and picked for a table by the "pax"
+ * option in the catalog file.
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /** Receives the pages of a scan over the file, see {@link #scanPages}. */
+    public interface PageVisitor {
+        public void visit(PaxHeapPage page) throws DbException;
+    }
+
+    public PaxHeapFile(File f, TupleDesc td) { //@ADDED
+        super(f, td);
+    }
+
+    // see HeapFile.java for javadocs
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException { //@ADDED
+        return new PaxHeapPage(pid, data);
+    }
+
+    /**
+     * Hands every page of the file, in order, to v while the page is
+     * pinned in the BufferPool, so that the caller can read the columns it
+     * needs with {@link PaxHeapPage#readInts} or
+     * {@link PaxHeapPage#readColumn} instead of iterating over tuples.
+     */
+    public void scanPages(TransactionId tid, PageVisitor v)
+            throws DbException, TransactionAbortedException { //@ADDED
+        BufferPool pool = Database.getBufferPool();
+        int pages = numPages();
+        BufferPool.ScanRing ring = null;
+        if(pool.isLargeScan(pages))
+            ring = pool.newScanRing();
+        ReadAhead readAhead = new ReadAhead(pool,getId(),pages,ring);
+
+        try{
+            for(int i=0;i<numPages();i++){
+                HeapPageId pid = new HeapPageId(getId(),i);
+                readAhead.advance(i);
+                PaxHeapPage page = (PaxHeapPage)pool.pinPage(tid,pid,Permissions.READ_ONLY,ring);
+                try{
+                    v.visit(page);
+                } finally {
+                    pool.unpinPage(pid);
+                }
+            }
+        } finally {
+            readAhead.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a HeapPage that stores its tuples column by column
+ * (the PAX layout): after the same header as a HeapPage, each field has a
+ * minipage holding that field of every slot, one after another. A page
+ * holds exactly as many tuples as a HeapPage of the same table.
+ * <p>
+ * Tuples read from the page decode each field from its minipage when it
+ * is asked for, and {@link #readInts} and {@link #readColumn} read the
+ * values of one column straight off the page, without a Tuple per row,
+ * for scans and aggregates that only need that column.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxHeapPage extends HeapPage {
+
+    //@ADDED
+    /** where the minipage of each field starts */
+    final int[] columnStarts;
+    //@ADDED
+
+    /**
+     * Create a PaxHeapPage from the bytes of a page read from disk. The
+     * page keeps the array, which must not change afterwards.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxHeapPage over a buffer, starting at its position,
+     * without copying the page out of it.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        this.columnStarts = columnStarts(td, numSlots, header.length);
+    }
+
+    /** @return where the minipage of each field of td starts */
+    static int[] columnStarts(TupleDesc td, int numSlots, int headerSize) { //@ADDED
+        int[] starts = new int[td.numFields()];
+        for (int i=0; i<starts.length; i++)
+            starts[i] = headerSize + numSlots * td.getFieldOffset(i);
+        return starts;
+    }
+
+    /**
+     * Rearranges a page in the HeapPage layout, rows, into the PAX layout
+     * in out. Only bytes move, so the page need not belong to any table.
+     */
+    static void fromRows(byte[] rows, TupleDesc td, ByteBuffer out) { //@ADDED
+        int tupleSize = td.getSize();
+        int numSlots = BufferPool.PAGE_SIZE * 8 / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        out.put(rows, 0, headerSize);
+        for (int i=0; i<td.numFields(); i++) {
+            int len = td.getFieldType(i).getLen();
+            int from = headerSize + td.getFieldOffset(i);
+            for (int slot=0; slot<numSlots; slot++)
+                out.put(rows, from + slot * tupleSize, len);
+        }
+        Utility.putZeros(out, BufferPool.PAGE_SIZE - headerSize - numSlots * tupleSize);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public PaxHeapPage getBeforeImage() {
+        byte[] before = oldData;
+        if (before == null)
+            before = getPageData();
+        try {
+            return new PaxHeapPage(pid, before);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see HeapPage.java for javadocs
+    Tuple tupleAt(int slotId) { //@ADDED
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, columnStarts, slotId);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer buf) { //@ADDED
+        int start = buf.position();
+        buf.put(header);
+
+        for (int col=0; col<td.numFields(); col++) {
+            int len = td.getFieldType(col).getLen();
+            int i = 0;
+            while (i < numSlots) {
+                // a run of used slots never looked at: copy them as read
+                if (tuples[i] == null && isSlotUsed(i)) {
+                    int end = i + 1;
+                    while (end < numSlots && tuples[end] == null && isSlotUsed(end))
+                        end++;
+                    copyData(buf, columnStarts[col] + i * len, (end - i) * len);
+                    i = end;
+                } else if (!isSlotUsed(i)) {
+                    Utility.putZeros(buf, len);
+                    i++;
+                } else {
+                    tuples[i].getField(col).serialize(buf);
+                    i++;
+                }
+            }
+        }
+
+        Utility.putZeros(buf, BufferPool.PAGE_SIZE - (buf.position() - start));
+    }
+
+    /**
+     * Reads the values of int column col of every used slot, in slot order,
+     * straight from the page.
+     *
+     * @param out where to put the values; must have room for numSlots
+     * @return the number of values read
+     */
+    public int readInts(int col, int[] out) { //@ADDED
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("column " + col + " is not an int");
+
+        int n = 0;
+        int base = columnStarts[col];
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple t = tuples[i];
+            if (t == null)
+                out[n++] = data.getInt(base + i * 4);
+            else
+                out[n++] = ((IntField) t.getField(col)).getValue();
+        }
+        return n;
+    }
+
+    /**
+     * Reads column col of every used slot, in slot order, without building
+     * the rest of each tuple.
+     *
+     * @param out where to put the values; must have room for numSlots
+     * @return the number of values read
+     */
+    public int readColumn(int col, Field[] out) { //@ADDED
+        Type type = td.getFieldType(col);
+        int len = type.getLen();
+        int n = 0;
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple t = tuples[i];
+            if (t == null)
+                out[n++] = type.parse(data, columnStarts[col] + i * len);
+            else
+                out[n++] = t.getField(col);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * ReadAhead drives the prefetching of one sequential scan over a DbFile.
+ * The scan calls {@link #advance} every time it moves to a new page, and
+ * the next few pages are requested from the BufferPool on its background
+ * I/O threads while the scan is still busy with the current one.
+ * <p>
+ * The window adapts to how fast the scan consumes pages. If the scan
+ * reaches a page whose prefetch has not finished yet, it is waiting on I/O
+ * and the window doubles; if a prefetched page was evicted before the scan
+ * got to it, the read was wasted and the window halves. Moving to any page
+ * other than the next one (e.g. after a rewind) is not sequential access
+ * and starts over with a small window.
+ * <p>
+ * A scan that passes over some pages (see {@link HeapFile#iterator(TransactionId,List)})
+ * says which, and the read-ahead neither prefetches them nor counts them
+ * in its window: the next page is the next one the scan reads.
+ */
+public class ReadAhead {
+    /** Window used when a scan starts or stops being sequential. */
+    static final int INITIAL_WINDOW = 2;
+
+    //@ADDED
+    private final BufferPool pool;
+    private final BufferPool.ScanRing ring;
+    private final int tableId;
+    private final int filePages;
+    private final int maxWindow;
+    /** pages the scan does not read, or null */
+    private final BitSet skip;
+
+    private int window;
+    private int lastPage = -1;
+    private int nextToIssue = 0;
+    /** prefetches issued for pages the scan has not reached yet */
+    private final TreeMap<Integer,Future<Boolean>> pending = new TreeMap<Integer,Future<Boolean>>();
+    //@ADDED
+
+    /**
+     * @param pool the pool pages are prefetched into
+     * @param tableId the table being scanned
+     * @param filePages number of pages of the table
+     * @param ring the scan's ring, or null if the scan does not use one
+     */
+    public ReadAhead(BufferPool pool, int tableId, int filePages, BufferPool.ScanRing ring) { //@ADDED
+        this(pool, tableId, filePages, ring, null);
+    }
+
+    /**
+     * @param skip pages of the table the scan passes over, or null if it
+     *             reads them all
+     */
+    public ReadAhead(BufferPool pool, int tableId, int filePages, BufferPool.ScanRing ring, BitSet skip) { //@ADDED
+        this.pool = pool;
+        this.skip = skip;
+        this.ring = ring;
+        this.tableId = tableId;
+        this.filePages = filePages;
+
+        // never read so far ahead that the scan would evict its own
+        // prefetched pages before reaching them
+        int max = pool.getReadAheadPages();
+        if(ring != null)
+            max = Math.min(max, ring.capacity()/2);
+        else
+            max = Math.min(max, pool.numPages/4);
+        this.maxWindow = max;
+        this.window = Math.min(INITIAL_WINDOW, max);
+    }
+
+    /**
+     * Tells the read-ahead that the scan is about to read page pageNo, and
+     * issues prefetches for the pages after it.
+     */
+    public void advance(int pageNo) { //@ADDED
+        if(maxWindow <= 0) return;
+
+        if(pageNo != next(lastPage + 1)){
+            window = Math.min(INITIAL_WINDOW, maxWindow);
+            cancel(pending);
+            nextToIssue = next(pageNo + 1);
+        } else {
+            Future<Boolean> f = pending.remove(pageNo);
+            if(f != null){
+                if(!f.isDone()){
+                    window = Math.min(window * 2, maxWindow);
+                    // if the read has not started, the scan does it itself
+                    f.cancel(false);
+                }
+                else if(!pool.isResident(new HeapPageId(tableId, pageNo)))
+                    window = Math.max(1, window / 2);
+            }
+            cancel(pending.headMap(pageNo));
+            nextToIssue = next(Math.max(nextToIssue, pageNo + 1));
+        }
+        lastPage = pageNo;
+
+        int end = windowEnd(pageNo);
+        while(nextToIssue <= end && nextToIssue < filePages){
+            Future<Boolean> f = pool.prefetchPage(new HeapPageId(tableId, nextToIssue), ring);
+            if(f != null)
+                pending.put(nextToIssue, f);
+            nextToIssue = next(nextToIssue + 1);
+        }
+    }
+
+    /** @return the first page from pageNo on that the scan reads */
+    private int next(int pageNo) { //@ADDED
+        return skip == null ? pageNo : skip.nextClearBit(pageNo);
+    }
+
+    /** @return the last page the window reaches when the scan is on pageNo */
+    private int windowEnd(int pageNo) { //@ADDED
+        if(skip == null) return pageNo + window;
+
+        int p = pageNo;
+        for(int i=0;i<window && p < filePages;i++)
+            p = next(p + 1);
+        return p;
+    }
+
+    /**
+     * Drops prefetches the scan no longer needs. Ones still queued never
+     * run, so an executor that has fallen behind the scan does not load
+     * pages the scan has already passed.
+     */
+    private static void cancel(Map<Integer,Future<Boolean>> prefetches) { //@ADDED
+        for(Future<Boolean> f : prefetches.values())
+            f.cancel(false);
+        prefetches.clear();
+    }
+
+    /**
+     * Cancels the prefetches still queued, for a scan that stops before
+     * reaching their pages. Reads already under way are left to finish.
+     */
+    public void close() { //@ADDED
+        cancel(pending);
+    }
+
+    /** @return the current read-ahead window, in pages */
+    public int getWindow() { //@ADDED
+        return window;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the {@link BufferPool}
+ * evicts when it needs a free frame. The pool reports every admission,
+ * access and removal of a page; all of these, as well as
+ * {@link #chooseVictim}, must run in constant (or amortized constant) time,
+ * so that a miss on a full pool does not cost a scan over every frame.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface ReplacementPolicy {
+
+    /** The policies that can be selected when a BufferPool is created. */
+    public enum Kind {
+        LRU, CLOCK, LRU_K, TWO_Q;
+
+        /** @return a fresh policy of this kind for a pool of numPages frames */
+        public ReplacementPolicy create(int numPages) {
+            switch (this) {
+            case LRU:
+                return new LruPolicy();
+            case CLOCK:
+                return new ClockPolicy(numPages);
+            case LRU_K:
+                return new LruKPolicy(numPages, LruKPolicy.DEFAULT_K);
+            case TWO_Q:
+                return new TwoQPolicy(numPages);
+            }
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Lets the policy skip frames the pool cannot give up right now (for
+     * example, pinned pages) without knowing about pins itself.
+     */
+    public interface Evictable {
+        public boolean isEvictable(PageId pid);
+    }
+
+    /** A page was read into the pool. */
+    public void pageAdmitted(PageId pid);
+
+    /** A resident page was requested again. */
+    public void pageAccessed(PageId pid);
+
+    /** A page left the pool, either evicted or discarded. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict next. The page stays tracked by the policy
+     * until the pool calls {@link #pageRemoved}.
+     *
+     * @return the victim, or null if no tracked page is evictable
+     */
+    public PageId chooseVictim(Evictable evictable);
+
+    /** @return a short name for reports */
+    public String getName();
+}
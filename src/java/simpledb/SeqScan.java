@@ -16,6 +16,8 @@ public class SeqScan implements DbIterator {
     public String tableAlias = null;
     public DbFile file = null;
     public DbFileIterator it_db = null;
+    /** predicates pushed down into the scan, or null */
+    public List<Predicate> preds = null;
     //@ADDED
 
     /**
@@ -80,6 +82,25 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Pushes a predicate on the table's fields down into the scan, which
+     * then passes over the pages that the table's zone map shows cannot
+     * satisfy it. The tuples of the pages that are read are all returned,
+     * so the predicate must still be applied above the scan, e.g. by a
+     * Filter. Only HeapFiles have zone maps; scans of other files ignore
+     * the predicate. Must be called before the scan is opened.
+     *
+     * @see HeapFile#iterator(TransactionId,List)
+     */
+    public void addPredicate(Predicate p) { //@ADDED
+        if(!(file instanceof HeapFile)) return;
+
+        if(preds == null)
+            preds = new ArrayList<Predicate>();
+        preds.add(p);
+        it_db = ((HeapFile)file).iterator(tid, preds);
+    }
+
     public void open() throws DbException, TransactionAbortedException { //@ADDED
         it_db.open();
     }
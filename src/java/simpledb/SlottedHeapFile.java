@@ -0,0 +1,23 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedHeapPages, for
+ * tables with short strings: each record takes only as many bytes as its
+ * strings have, so many more tuples fit on a page and a scan reads
+ * correspondingly fewer pages. Files in this format are written by
+ * {@link HeapFileEncoder#convertSlotted} and picked for a table by the
+ * "slotted" option in the catalog file.
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) { //@ADDED
+        super(f, td);
+    }
+
+    // see HeapFile.java for javadocs
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException { //@ADDED
+        return new SlottedHeapPage(pid, data);
+    }
+}
@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a HeapPage whose records are variable-length, so a
+ * string takes the bytes it actually has instead of STRING_LEN+4.
+ * <p>
+ * The page starts with the number of slots (a short), followed by the slot
+ * directory: for each slot, the offset and length (two shorts) of its
+ * record, or two zeroes if the slot is empty. Records are packed at the end
+ * of the page, slot 0 last, and the space between the directory and the
+ * records is free. In a record an int takes 4 bytes and a string takes a
+ * short length followed by its bytes.
+ * <p>
+ * A RecordId names a slot, so deleting a tuple leaves an empty directory
+ * entry for the next insert to reuse; the records themselves are packed
+ * again every time the page is written, which is when the space they
+ * freed is reclaimed. An all-zero page is a valid empty page.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+    static final int HEADER_SIZE = 2;
+    static final int SLOT_SIZE = 4;
+
+    //@ADDED
+    /** number of directory entries, used or not */
+    int slotCount = 0;
+    /** record length per slot, 0 for an empty slot */
+    int[] recLength;
+    /** where in data an unvisited slot's record starts */
+    int[] recOffset;
+    /** total length of all records */
+    int usedBytes = 0;
+    /** size of a record whose strings are all full length */
+    final int maxRecordSize;
+    //@ADDED
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk. The
+     * page keeps the array, which must not change afterwards.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage over a buffer, starting at its position,
+     * without copying the page out of it.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    SlottedHeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException { //@ADDED
+        super(id, td);
+        this.data = data.slice();
+        this.maxRecordSize = maxRecordSize(td);
+        this.numSlots = (BufferPool.PAGE_SIZE - HEADER_SIZE) / (maxRecordSize + SLOT_SIZE);
+
+        ByteBuffer buf = this.data;
+        slotCount = buf.getShort(0) & 0xffff;
+        if (HEADER_SIZE + slotCount * SLOT_SIZE > BufferPool.PAGE_SIZE)
+            throw new IOException("bad slot count " + slotCount);
+
+        int capacity = Math.max(slotCount, 8);
+        recLength = new int[capacity];
+        recOffset = new int[capacity];
+        tuples = new Tuple[capacity];
+        for (int i=0; i<slotCount; i++) {
+            int off = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            int len = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (off == 0)
+                continue;
+            if (off + len > BufferPool.PAGE_SIZE)
+                throw new IOException("bad record in slot " + i);
+            recOffset[i] = off;
+            recLength[i] = len;
+            usedBytes += len;
+        }
+
+        setBeforeImage();
+    }
+
+    /** @return the size of a record of td whose strings are all full length */
+    static int maxRecordSize(TupleDesc td) { //@ADDED
+        int size = 0;
+        for (int i=0; i<td.numFields(); i++)
+            size += fieldSize(td.getFieldType(i), Type.STRING_LEN);
+        return size;
+    }
+
+    private static int fieldSize(Type type, int strLen) { //@ADDED
+        return type == Type.STRING_TYPE ? 2 + strLen : type.getLen();
+    }
+
+    /** @return the number of bytes t takes as a record */
+    static int recordSize(Tuple t) { //@ADDED
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i=0; i<td.numFields(); i++) {
+            Field f = t.getField(i);
+            int strLen = 0;
+            if (f.getType() == Type.STRING_TYPE)
+                strLen = Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+            size += fieldSize(f.getType(), strLen);
+        }
+        return size;
+    }
+
+    /** Writes t as a record. */
+    static void putRecord(ByteBuffer buf, Tuple t) { //@ADDED
+        TupleDesc td = t.getTupleDesc();
+        for (int i=0; i<td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putShort((short) len);
+                for (int j=0; j<len; j++)
+                    buf.put((byte) s.charAt(j));
+            } else {
+                f.serialize(buf);
+            }
+        }
+    }
+
+    /** Decodes the record starting at index offset of data. */
+    static Tuple readRecord(TupleDesc td, ByteBuffer data, int offset) { //@ADDED
+        Tuple t = new Tuple(td);
+        for (int i=0; i<td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            if (type == Type.STRING_TYPE) {
+                int len = data.getShort(offset) & 0xffff;
+                t.setField(i, new StringField(Type.readString(data, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            } else {
+                t.setField(i, type.parse(data, offset));
+                offset += type.getLen();
+            }
+        }
+        return t;
+    }
+
+    /** @return the bytes not taken by the header, the directory or records */
+    int getFreeBytes() { //@ADDED
+        return BufferPool.PAGE_SIZE - HEADER_SIZE - slotCount * SLOT_SIZE - usedBytes;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        byte[] before = oldData;
+        if (before == null)
+            before = getPageData();
+        try {
+            return new SlottedHeapPage(pid, td, ByteBuffer.wrap(before));
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer buf) { //@ADDED
+        int start = buf.position();
+
+        // directory, with each record's place once the records are packed
+        buf.putShort((short) slotCount);
+        int end = BufferPool.PAGE_SIZE;
+        for (int i=0; i<slotCount; i++) {
+            if (recLength[i] == 0) {
+                buf.putInt(0);
+                continue;
+            }
+            end -= recLength[i];
+            buf.putShort((short) end);
+            buf.putShort((short) recLength[i]);
+        }
+        Utility.putZeros(buf, end - (buf.position() - start));
+
+        // records, the one with the lowest offset (the last slot) first
+        for (int i=slotCount-1; i>=0; i--) {
+            if (recLength[i] == 0)
+                continue;
+            if (tuples[i] == null)
+                copyData(buf, recOffset[i], recLength[i]);
+            else
+                putRecord(buf, tuples[i]);
+        }
+        assert buf.position() - start == BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot stays in the
+     * directory, empty, unless it was the last one.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException { //@ADDED
+        RecordId rid = t.getRecordId();
+        int slot = rid.tupleno();
+
+        if (!rid.getPageId().equals(this.pid))
+            throw new DbException("tuple not on this page");
+        if (slot < 0 || slot >= slotCount)
+            throw new DbException("tupleno out of bound");
+        if (recLength[slot] == 0)
+            throw new DbException("slot already empty");
+
+        beforeModification();
+        usedBytes -= recLength[slot];
+        recLength[slot] = 0;
+        tuples[slot] = null;
+        while (slotCount > 0 && recLength[slotCount-1] == 0)
+            slotCount--;
+        spaceChanged(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one at the end of the directory.
+     * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException { //@ADDED
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("tupleDesc mismatch");
+        if (!hasRoomFor(t))
+            throw new DbException("page is full");
+
+        beforeModification();
+        add(t);
+        spaceChanged(t);
+    }
+
+    /**
+     * Puts t in the first empty slot, or a new one. The caller has checked
+     * that it fits. Also used to fill pages that are not in any table yet.
+     */
+    void add(Tuple t) { //@ADDED
+        int slot = firstEmptySlot();
+        if (slot == slotCount) {
+            if (slot == recLength.length) {
+                int capacity = recLength.length * 2;
+                recLength = Arrays.copyOf(recLength, capacity);
+                recOffset = Arrays.copyOf(recOffset, capacity);
+                tuples = Arrays.copyOf(tuples, capacity);
+            }
+            slotCount++;
+        }
+        int size = recordSize(t);
+        recLength[slot] = size;
+        usedBytes += size;
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(this.pid, slot));
+    }
+
+    /** @return the first empty slot, slotCount if there is none */
+    private int firstEmptySlot() { //@ADDED
+        int slot = 0;
+        while (slot < slotCount && recLength[slot] != 0)
+            slot++;
+        return slot;
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page. Smaller tuples may fit even when this is zero.
+     */
+    public int getNumEmptySlots() { //@ADDED
+        return Math.max(0, getFreeBytes()) / (maxRecordSize + SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) { //@ADDED
+        int directory = firstEmptySlot() == slotCount ? SLOT_SIZE : 0;
+        return recordSize(t) + directory <= getFreeBytes();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) { //@ADDED
+        return i >= 0 && i < slotCount && recLength[i] != 0;
+    }
+
+    /** Returns the tuple in a used slot, decoding it the first time. */
+    Tuple tupleAt(int slot) { //@ADDED
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = readRecord(td, data, recOffset[slot]);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() { //@ADDED
+        return new Iterator<Tuple>() {
+            int index=0;
+
+            public boolean hasNext(){
+                while(index < slotCount && recLength[index] == 0)
+                    index++;
+
+                return index < slotCount;
+            }
+
+            public Tuple next(){
+                if(!hasNext())
+                    throw new NoSuchElementException();
+
+                return tupleAt(index++);
+            }
+
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
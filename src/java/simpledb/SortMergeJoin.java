@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children by sorting both on their join fields,
+ * with an {@link ExternalSort} so that large inputs need not fit in
+ * memory, and then reading them side by side once. A child that is an
+ * {@link OrderBy} already in the order needed is not sorted again.
+ * <p>
+ * The children are sorted so that the inner tuples matching an outer tuple
+ * are always a run of the inner side next to where the last outer tuple's
+ * run was: for EQUALS, ascending, and the inner tuples with the same key
+ * are collected and joined with every outer tuple that has it, so keys
+ * repeated on both sides are handled; for GREATER_THAN(_OR_EQ), ascending,
+ * and for LESS_THAN(_OR_EQ) descending, where the matches of each outer
+ * tuple are the inner tuples before the first that does not match, which
+ * only grow as the outer side goes on. Each outer tuple is joined with its
+ * matches without comparing it with the inner tuples that do not match,
+ * which {@link Join} has to do. NOT_EQUALS has no such order and is not
+ * supported.
+ * <p>
+ * The collected inner tuples are kept in memory up to the sort's memory
+ * budget, and in a {@link TupleFile} beyond it.
+ *
+ * @see JoinOptimizer#instantiateJoin(LogicalJoinNode,DbIterator,DbIterator,int,int,java.util.Map)
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    //@ADDED
+    public JoinPredicate p = null;
+    public DbIterator child1 = null;
+    public DbIterator child2 = null;
+    public DbIterator[] children = null;
+
+    private TupleDesc td = null;
+    private boolean asc = true;
+    /** the sorted children */
+    private DbIterator left = null;
+    private DbIterator right = null;
+    /** the next inner tuple not collected yet, or null if there is none */
+    private Tuple rnext = null;
+
+    /** the inner tuples matching the current outer tuple */
+    private ArrayList<Tuple> held = new ArrayList<Tuple>();
+    private TupleFile overflow = null;
+    private Field heldKey = null;
+
+    private Tuple outer = null;
+    private int heldPos = 0;
+    private DbIterator overflowIt = null;
+    //@ADDED
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator
+     *            but NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) { //@ADDED
+        if (!canJoin(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join on " + p.getOperator());
+
+        this.p = p;
+        this.asc = p.getOperator() != Predicate.Op.LESS_THAN
+                && p.getOperator() != Predicate.Op.LESS_THAN_OR_EQ;
+        this.children = new DbIterator[2];
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    /** @return true if a SortMergeJoin can join on op */
+    public static boolean canJoin(Predicate.Op op) { //@ADDED
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() { //@ADDED
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    /** @return child sorted on field in the order of this join */
+    private DbIterator sorted(DbIterator child, int field) { //@ADDED
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            if (o.getOrderByField() == field && o.isASC() == asc)
+                return child;
+        }
+        return new ExternalSort(child, new TupleComparator(field, asc));
+    }
+
+    /** @return true if the child had to be sorted by this join */
+    public boolean sorts(int child) { //@ADDED
+        return (child == 0 ? left : right) instanceof ExternalSort;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        super.open();
+
+        left.open();
+        right.open();
+        start();
+    }
+
+    public void close() { //@ADDED
+        super.close();
+
+        clearHeld();
+        outer = null;
+        rnext = null;
+        left.close();
+        right.close();
+    }
+
+    /** Rewinds the sorted children, which are not sorted again. */
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException { //@ADDED
+        clearHeld();
+        outer = null;
+        rnext = right.hasNext() ? right.next() : null;
+    }
+
+    private void clearHeld() { //@ADDED
+        held.clear();
+        heldKey = null;
+        if (overflowIt != null)
+            overflowIt.close();
+        overflowIt = null;
+        if (overflow != null)
+            overflow.delete();
+        overflow = null;
+    }
+
+    private void hold(Tuple t) throws DbException { //@ADDED
+        if (held.size() < TupleFile.tuplesIn(child2.getTupleDesc(), ExternalSort.getMemoryPages())) {
+            held.add(t);
+            return;
+        }
+        if (overflow == null)
+            overflow = new TupleFile(child2.getTupleDesc());
+        overflow.add(t);
+    }
+
+    /** Collects the inner tuples that match outer, and starts joining them with it. */
+    private void advance() throws DbException, TransactionAbortedException { //@ADDED
+        Field key = outer.getField(p.getField1());
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            if (heldKey == null || !heldKey.equals(key)) {
+                clearHeld();
+                // skip the inner tuples before key, and collect those equal to it
+                while (rnext != null && rnext.getField(p.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                    rnext = right.hasNext() ? right.next() : null;
+                while (rnext != null && rnext.getField(p.getField2()).equals(key)) {
+                    hold(rnext);
+                    rnext = right.hasNext() ? right.next() : null;
+                }
+                heldKey = key;
+            }
+        } else {
+            while (rnext != null && p.filter(outer, rnext)) {
+                hold(rnext);
+                rnext = right.hasNext() ? right.next() : null;
+            }
+        }
+
+        heldPos = 0;
+        if (overflowIt != null)
+            overflowIt.close();
+        overflowIt = null;
+        if (overflow != null) {
+            overflowIt = overflow.iterator();
+            overflowIt.open();
+        }
+    }
+
+    private Tuple mergeTuple(Tuple t1, Tuple t2) { //@ADDED
+        Tuple jointTuple = new Tuple(td);
+
+        int l1 = t1.getTupleDesc().numFields();
+        int l2 = t2.getTupleDesc().numFields();
+        for(int i=0;i<l1;i++){
+            jointTuple.setField(i,t1.getField(i));
+        }
+        for(int i=0;i<l2;i++){
+            jointTuple.setField(i+l1,t2.getField(i));
+        }
+
+        return jointTuple;
+    }
+
+    /**
+     * Returns the next outer tuple joined with the next inner tuple that
+     * matches it, as {@link Join#fetchNext} does, in the order of the outer
+     * side's join field.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException { //@ADDED
+        while (true) {
+            if (outer != null) {
+                if (heldPos < held.size())
+                    return mergeTuple(outer, held.get(heldPos++));
+                if (overflowIt != null && overflowIt.hasNext())
+                    return mergeTuple(outer, overflowIt.next());
+            }
+
+            if (!left.hasNext())
+                return null;
+            outer = left.next();
+            advance();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return this.children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        assert children.length == 2;
+
+        child1 = children[0];
+        child2 = children[1];
+
+        this.children[0] = child1;
+        this.children[1] = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.left = sorted(child1, p.getField1());
+        this.right = sorted(child2, p.getField2());
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -64,8 +65,20 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		while (overflow > 0) {
+			int len = Math.min(overflow, Utility.ZEROS.length);
+			dos.write(Utility.ZEROS, 0, len);
+			overflow -= len;
+		}
+	}
+
+	public void serialize(ByteBuffer buf) { //@ADDED
+		// value is never longer than maxSize, see the constructor
+		int len = value.length();
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i)); // low byte, as writeBytes does
+		Utility.putZeros(buf, maxSize - len);
 	}
 
 	/**
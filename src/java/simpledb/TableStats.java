@@ -1,6 +1,8 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -66,6 +68,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    //@ADDED
+    private int ioCostPerPage;
+    private int numPages = 0;
+    private int numTuples = 0;
+    private int[] numDistinct;
+    //@ADDED
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -84,7 +93,46 @@ public class TableStats {
         // You should try to do this reasonably efficiently, but you don't
         // necessarily have to (for example) do everything
         // in a single scan of the table.
-        // some code goes here
+        this.ioCostPerPage = ioCostPerPage; //@ADDED
+
+        // only the size of the table and the number of distinct values of
+        // each field so far; every selectivity is 1.0
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if(file instanceof HeapFile)
+            numPages = ((HeapFile)file).numPages();
+        int fields = file.getTupleDesc().numFields();
+        ArrayList<HashSet<Field>> values = new ArrayList<HashSet<Field>>();
+        for(int i=0;i<fields;i++)
+            values.add(new HashSet<Field>());
+        DbFileIterator it = file.iterator(new TransactionId());
+        try{
+            it.open();
+            while(it.hasNext()){
+                Tuple t = it.next();
+                numTuples++;
+                for(int i=0;i<fields;i++)
+                    values.get(i).add(t.getField(i));
+            }
+        } catch (DbException e){
+            throw new RuntimeException("could not scan table " + tableid + ": " + e);
+        } catch (TransactionAbortedException e){
+            throw new RuntimeException("could not scan table " + tableid + ": " + e);
+        } finally {
+            it.close();
+        }
+        numDistinct = new int[fields];
+        for(int i=0;i<fields;i++)
+            numDistinct[i] = values.get(i).size();
+    }
+
+    /** @return the number of distinct values of the field in the table */
+    public int numDistinct(int field) { //@ADDED
+        return numDistinct[field];
+    }
+
+    /** @return the cost of reading one page of the table */
+    public int getIoCostPerPage() { //@ADDED
+        return ioCostPerPage;
     }
 
     /**
@@ -99,9 +147,8 @@ public class TableStats {
      * 
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
-        // some code goes here
-        return 0;
+    public double estimateScanCost() { //@ADDED
+        return (double)numPages * ioCostPerPage;
     }
 
     /**
@@ -113,9 +160,8 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+    public int estimateTableCardinality(double selectivityFactor) { //@ADDED
+        return (int)(numTuples * selectivityFactor);
     }
 
     /**
@@ -154,9 +200,8 @@ public class TableStats {
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public int totalTuples() { //@ADDED
+        return numTuples;
     }
 
 }
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY with a LIMIT of k: it returns the first k tuples
+ * its child would have in the order an {@link OrderBy} on the same field
+ * puts them in, ties included. Rather than sorting the whole child, it
+ * keeps the best k tuples seen so far in a heap whose head is the worst of
+ * them, which each new tuple either replaces or is dropped at once. It
+ * holds no more than k tuples, and takes O(n log k) comparisons for a
+ * child of n.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    /** the most room the heap starts out with */
+    private static final int INITIAL_CAPACITY = 64; //@ADDED
+
+    /** A tuple and its position in the child, which breaks ties. */
+    private static class Entry { //@ADDED
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    //@ADDED
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private final Comparator<Entry> order;
+
+    private ArrayList<Tuple> top = null;
+    private Iterator<Tuple> it = null;
+    //@ADDED
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return at most
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) { //@ADDED
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+        this.child = child;
+
+        final TupleComparator cmp = new TupleComparator(orderbyField, asc);
+        this.order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(a.t, b.t);
+                if (c != 0)
+                    return c;
+                return a.seq < b.seq ? -1 : (a.seq > b.seq ? 1 : 0);
+            }
+        };
+    }
+
+    public boolean isASC() { //@ADDED
+        return asc;
+    }
+
+    public int getOrderByField() { //@ADDED
+        return orderByField;
+    }
+
+    public int getLimit() { //@ADDED
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException { //@ADDED
+        child.open();
+        top = select();
+        it = top.iterator();
+        super.open();
+    }
+
+    /** @return the best limit tuples of the child, in order */
+    private ArrayList<Tuple> select() throws DbException, TransactionAbortedException { //@ADDED
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        if (limit == 0)
+            return out;
+
+        // the worst of the tuples kept is at the head; the heap grows as
+        // tuples come, since limit may be far more than the child has
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(limit, INITIAL_CAPACITY),
+                Collections.reverseOrder(order));
+        long seq = 0;
+        while (child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < limit) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+
+        ArrayList<Entry> entries = new ArrayList<Entry>(heap);
+        Collections.sort(entries, order);
+        for (Entry e : entries)
+            out.add(e.t);
+        return out;
+    }
+
+    public void close() { //@ADDED
+        super.close();
+        top = null;
+        it = null;
+        child.close();
+    }
+
+    /** Returns the same tuples again, without reading the child again. */
+    public void rewind() throws DbException, TransactionAbortedException { //@ADDED
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException { //@ADDED
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() { //@ADDED
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) { //@ADDED
+        this.child = children[0];
+    }
+}
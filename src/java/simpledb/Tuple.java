@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -16,6 +19,12 @@ public class Tuple implements Serializable {
     public TupleDesc tupledesc = null;
     public Field[] fields = null;
     public RecordId rid = null;
+
+    /** serialized fields not decoded yet, or null if every field was set */
+    transient ByteBuffer data = null;
+    int dataOffset = 0;
+    /** where each column starts in data, for pages stored column by column */
+    int[] columnStarts = null;
     //@ADDED
 
     /**
@@ -33,6 +42,37 @@ public class Tuple implements Serializable {
         fields = new Field[tupledesc.numFields()];
     }
 
+    /**
+     * Create a tuple backed by the serialized form of its fields, as laid
+     * out on a HeapPage. A field is decoded the first time it is asked for;
+     * data must not change while the tuple is in use.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            bytes holding the serialized tuple, from index 0.
+     * @param offset
+     *            where in data the tuple starts.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) { //@ADDED
+        this(td);
+        this.data = data;
+        this.dataOffset = offset;
+    }
+
+    /**
+     * Create a tuple backed by a page that stores each field in a run of
+     * values of its column, as a PaxHeapPage does. Field i is decoded from
+     * columnStarts[i] + slot * (length of field i) the first time it is
+     * asked for.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int[] columnStarts, int slot) { //@ADDED
+        this(td);
+        this.data = data;
+        this.columnStarts = columnStarts;
+        this.dataOffset = slot;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -80,7 +120,31 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) { //@ADDED
         assert 0 <= i && i < fields.length;
-        return fields[i];
+        Field f = fields[i];
+        if(f == null && data != null){
+            Type type = tupledesc.getFieldType(i);
+            if(columnStarts == null)
+                f = type.parse(data, dataOffset + tupledesc.getFieldOffset(i));
+            else
+                f = type.parse(data, columnStarts[i] + dataOffset * type.getLen());
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /** Decodes every field not decoded yet, and lets go of the page bytes. */
+    void decodeAll() { //@ADDED
+        if(data == null) return;
+        for(int i=0;i<fields.length;i++)
+            getField(i);
+        data = null;
+        columnStarts = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException { //@ADDED
+        // the page bytes are not written out, so neither is anything left in them
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -108,6 +172,9 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields() //@ADDED
     {
+        for(int i=0;i<fields.length;i++){
+            getField(i);
+        }
         return Arrays.asList(fields).iterator();
     }
 }
@@ -46,6 +46,8 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     public TDItem[] items = null; //@ADDED
+    /** byte offset of each field within a serialized tuple, computed on first use */
+    private transient int[] offsets = null; //@ADDED
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -177,6 +179,28 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field within a tuple of this
+     *         TupleDesc as it is stored on a page.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException { //@ADDED
+        if(i < 0 || i >= items.length){
+            throw new NoSuchElementException();
+        }
+
+        int[] off = offsets;
+        if(off == null){
+            off = new int[items.length];
+            for(int j=1;j<items.length;j++){
+                off[j] = off[j-1] + items[j-1].fieldType.getLen();
+            }
+            offsets = off;
+        }
+        return off[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
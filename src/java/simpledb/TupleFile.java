@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * TupleFile is a temporary file of tuples that operators spill to when
+ * their input does not fit in memory. Tuples are appended as their fields
+ * one after the other, with nothing else written: an INT as its 4 bytes,
+ * and a STRING as its length in 2 bytes followed by its characters, one
+ * byte each as on a page, without the padding to {@link Type#STRING_LEN}
+ * a page gives it. The file is deleted by {@link #delete} or when the JVM
+ * exits.
+ * <p>
+ * Tuples are read back in the order they were added through
+ * {@link #iterator}. Tuples may still be added after the file has been
+ * read; an iterator sees those that were there when it was opened.
+ */
+public class TupleFile {
+    //@ADDED
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out = null;
+    private int size = 0;
+    //@ADDED
+
+    /** @return the number of tuples of td that fit in pages pages */
+    public static int tuplesIn(TupleDesc td, int pages) { //@ADDED
+        return (int) Math.max(1, (long) pages * BufferPool.PAGE_SIZE / td.getSize());
+    }
+
+    /** Creates an empty temporary file for tuples of td. */
+    public TupleFile(TupleDesc td) throws DbException { //@ADDED
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tup");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BufferPool.PAGE_SIZE));
+        } catch (IOException e) {
+            throw new DbException("TupleFile: " + e);
+        }
+    }
+
+    public TupleDesc getTupleDesc() { //@ADDED
+        return td;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() { //@ADDED
+        return size;
+    }
+
+    /** Appends t to the end of the file. */
+    public void add(Tuple t) throws DbException { //@ADDED
+        try {
+            if(out == null){
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true), BufferPool.PAGE_SIZE));
+            }
+            for(int i=0;i<td.numFields();i++){
+                Field f = t.getField(i);
+                if(f.getType() == Type.INT_TYPE){
+                    out.writeInt(((IntField)f).getValue());
+                } else {
+                    String v = ((StringField)f).getValue();
+                    out.writeShort(v.length());
+                    out.writeBytes(v);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("TupleFile.add: " + e);
+        }
+        size++;
+    }
+
+    /** Writes out the tuples added so far, so that they can be read. */
+    private void finish() throws DbException { //@ADDED
+        if(out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("TupleFile: " + e);
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file in the order they
+     *         were added. It has to be opened before use, and can be
+     *         rewound.
+     */
+    public DbIterator iterator() throws DbException { //@ADDED
+        finish();
+        return new Reader();
+    }
+
+    /** Removes the file from disk. */
+    public void delete() { //@ADDED
+        try {
+            finish();
+        } catch (DbException e) {
+            // being removed anyway
+        }
+        file.delete();
+    }
+
+    private class Reader implements DbIterator { //@ADDED
+        private static final long serialVersionUID = 1L;
+
+        private DataInputStream in = null;
+        private final byte[] buf = new byte[Type.STRING_LEN];
+        private int read = 0;
+        /** the number of tuples in the file when it was opened */
+        private int limit = 0;
+
+        public void open() throws DbException {
+            close();
+            finish();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BufferPool.PAGE_SIZE));
+            } catch (IOException e) {
+                throw new DbException("TupleFile: " + e);
+            }
+            read = 0;
+            limit = size;
+        }
+
+        public boolean hasNext() {
+            if(in == null)
+                throw new IllegalStateException("TupleFile iterator not open");
+            return read < limit;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for(int i=0;i<td.numFields();i++){
+                    if(td.getFieldType(i) == Type.INT_TYPE){
+                        t.setField(i, new IntField(in.readInt()));
+                    } else {
+                        int len = in.readShort();
+                        in.readFully(buf, 0, len);
+                        t.setField(i, new StringField(new String(buf, 0, len), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("TupleFile.next: " + e);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if(in == null) return;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+            in = null;
+        }
+    }
+}
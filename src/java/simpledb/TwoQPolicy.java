@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha), full version. Pages seen once go to
+ * the FIFO queue A1in; when they are evicted from there their ids are
+ * remembered in the ghost queue A1out. A page that is read again while its
+ * id is still in A1out was evidently not a one-off and is admitted to the
+ * LRU queue Am. One sequential pass over a big table therefore only cycles
+ * through A1in and leaves the hot pages in Am alone.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+    //@ADDED
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashMap<PageId,Boolean> a1in = new LinkedHashMap<PageId,Boolean>();
+    private final LinkedHashMap<PageId,Boolean> a1out = new LinkedHashMap<PageId,Boolean>();
+    private final LinkedHashMap<PageId,Boolean> am = new LinkedHashMap<PageId,Boolean>();
+    //@ADDED
+
+    /** Uses the sizes suggested in the paper: Kin = 25%, Kout = 50% of the pool. */
+    public TwoQPolicy(int numPages) { //@ADDED
+        this.kin = Math.max(1,numPages/4);
+        this.kout = Math.max(1,numPages/2);
+    }
+
+    public synchronized void pageAdmitted(PageId pid) { //@ADDED
+        if(a1out.remove(pid) != null || am.containsKey(pid)){
+            am.remove(pid);
+            am.put(pid,Boolean.TRUE);
+        } else {
+            a1in.remove(pid);
+            a1in.put(pid,Boolean.TRUE);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) { //@ADDED
+        // hits in A1in are treated as correlated references and ignored
+        if(am.remove(pid) != null)
+            am.put(pid,Boolean.TRUE);
+    }
+
+    public synchronized void pageRemoved(PageId pid) { //@ADDED
+        if(a1in.remove(pid) != null){
+            a1out.put(pid,Boolean.TRUE);
+            if(a1out.size() > kout){
+                Iterator<PageId> it = a1out.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) { //@ADDED
+        PageId victim = null;
+        if(a1in.size() > kin || am.isEmpty())
+            victim = firstEvictable(a1in,evictable);
+        if(victim == null)
+            victim = firstEvictable(am,evictable);
+        if(victim == null)
+            victim = firstEvictable(a1in,evictable);
+
+        return victim;
+    }
+
+    private PageId firstEvictable(LinkedHashMap<PageId,Boolean> queue, Evictable evictable) { //@ADDED
+        for(PageId pid : queue.keySet()){
+            if(evictable.isEvictable(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String getName() { //@ADDED
+        return "2Q";
+    }
+}
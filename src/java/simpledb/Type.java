@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,18 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.max(0, Math.min(readInt(data, offset), STRING_LEN));
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = Math.max(0, Math.min(data.getInt(offset), STRING_LEN));
+            return new StringField(readString(data, offset + 4, strLen), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +83,35 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded from
+   *   the getLen() bytes of data starting at offset, in the same format
+   *   {@link #parse(DataInputStream)} reads.
+   */
+    public abstract Field parse(byte[] data, int offset); //@ADDED
+
+  /**
+   * @return a Field object of the same type as this object, decoded from
+   *   the getLen() bytes of data starting at index offset, which may be in
+   *   a direct or memory-mapped buffer. The buffer's position is not used.
+   */
+    public abstract Field parse(ByteBuffer data, int offset); //@ADDED
+
+    /** Reads a big-endian int, as DataInputStream.readInt does. */
+    static int readInt(byte[] data, int offset) { //@ADDED
+        return ((data[offset] & 0xff) << 24) | ((data[offset+1] & 0xff) << 16)
+            | ((data[offset+2] & 0xff) << 8) | (data[offset+3] & 0xff);
+    }
+
+    /** Reads len one-byte characters from index offset of data. */
+    static String readString(ByteBuffer data, int offset, int len) { //@ADDED
+        if (data.hasArray())
+            return new String(data.array(), data.arrayOffset() + offset, len);
+        byte[] bs = new byte[len];
+        ByteBuffer src = data.duplicate();
+        src.position(offset);
+        src.get(bs);
+        return new String(bs);
+    }
+
 }
@@ -1,11 +1,24 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.UUID;
 
 /** Helper methods used for testing and implementing random features. */
 public class Utility {
+    /** zeroes to pad pages and fields with, see {@link #putZeros} */
+    static final byte[] ZEROS = new byte[1024]; //@ADDED
+
+    /** Writes n zero bytes to buf, a block at a time. */
+    public static void putZeros(ByteBuffer buf, int n) { //@ADDED
+        while(n > 0){
+            int len = Math.min(n, ZEROS.length);
+            buf.put(ZEROS, 0, len);
+            n -= len;
+        }
+    }
+
     /**
      * @return a Type array of length len populated with Type.INT_TYPE
      */
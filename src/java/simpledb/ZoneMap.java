@@ -0,0 +1,360 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ZoneMap records, for every page of a HeapFile, the smallest and the
+ * largest value of each field on the page, so that a scan with a predicate
+ * such as <tt>ts &gt; X</tt> can pass over the pages whose range cannot
+ * match without reading them. INT fields keep their exact bounds; STRING
+ * fields keep the first {@link #PREFIX_CHARS} characters of theirs, which
+ * still bound the page's strings since cutting strings short keeps their
+ * order.
+ * <p>
+ * Bounds only ever widen: an insert stretches its page's range to take in
+ * the new tuple, and a delete leaves the range alone. A range may be wider
+ * than the page's tuples need, but never narrower, so skipping a page on
+ * the strength of it is always safe. A page the map knows nothing about
+ * is never skipped.
+ * <p>
+ * Like the {@link FreeSpaceMap}, the map lives in a side file next to the
+ * heap file ({@link #fileFor}), laid out as the number of pages it covers
+ * (an int) followed by one entry per page: a state byte, then the bounds
+ * of each field. HeapFile writes a page's entry before the page itself, so
+ * the ranges on disk always cover the pages on disk. If the side file is
+ * missing or covers a different number of pages than the heap file, the
+ * map is rebuilt by reading every page once.
+ */
+public class ZoneMap {
+    public static final String SUFFIX = ".zmap";
+    /** the number of leading characters of a string kept as its bound */
+    public static final int PREFIX_CHARS = 4;
+
+    static final int HEADER_SIZE = 4;
+    /** page states: no tuple was ever on it, it has a range, or its range is not known */
+    static final byte EMPTY = 0;
+    static final byte RANGE = 1;
+    static final byte UNKNOWN = 2;
+
+    //@ADDED
+    private final File mapFile;
+    private final TupleDesc td;
+    private final int entrySize;
+    private FileChannel channel = null;
+
+    private byte[] state = new byte[64];
+    /** bounds of the INT fields, by field and then page; null for other fields */
+    private int[][] intMin, intMax;
+    /** bound prefixes of the STRING fields, by field and then page */
+    private String[][] strMin, strMax;
+    private int numPages = 0;
+    /** the number of pages the header on disk says the map covers */
+    private int persistedPages = -1;
+    //@ADDED
+
+    /** @return the side file holding the zone map of heap file f */
+    public static File fileFor(File f) { //@ADDED
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /** @return the number of bytes the bounds of one field take in an entry */
+    private static int boundsSize(Type t) { //@ADDED
+        if(t == Type.INT_TYPE) return 8;
+        // a length and the characters, for both bounds
+        return 2 * (2 + 2 * PREFIX_CHARS);
+    }
+
+    /** @return the bound kept for string s */
+    public static String prefix(String s) { //@ADDED
+        return s.length() <= PREFIX_CHARS ? s : s.substring(0, PREFIX_CHARS);
+    }
+
+    /**
+     * Opens the zone map of the given heap file, reading it from its side
+     * file or rebuilding it from the heap file's pages.
+     */
+    public ZoneMap(HeapFile f) throws IOException { //@ADDED
+        this.mapFile = fileFor(f.getFile());
+        this.td = f.getTupleDesc();
+
+        int n = td.numFields();
+        int size = 1;
+        intMin = new int[n][];
+        intMax = new int[n][];
+        strMin = new String[n][];
+        strMax = new String[n][];
+        for(int i=0;i<n;i++){
+            size += boundsSize(td.getFieldType(i));
+            if(td.getFieldType(i) == Type.INT_TYPE){
+                intMin[i] = new int[state.length];
+                intMax[i] = new int[state.length];
+            } else {
+                strMin[i] = new String[state.length];
+                strMax[i] = new String[state.length];
+            }
+        }
+        this.entrySize = size;
+        this.channel = new RandomAccessFile(mapFile,"rw").getChannel();
+
+        int pages = f.numPages();
+        if(!load(pages)){
+            numPages = 0;
+            for(int i=0;i<pages;i++){
+                HeapPage pg = (HeapPage)f.readPage(new HeapPageId(f.getId(),i));
+                grow(i);
+                Iterator<Tuple> it = pg.iterator();
+                while(it.hasNext())
+                    widen(i, it.next());
+            }
+            flushAll();
+        }
+    }
+
+    /** @return false if the side file does not describe a file of pages pages */
+    private boolean load(int pages) throws IOException { //@ADDED
+        if(channel.size() != HEADER_SIZE + (long)pages * entrySize) return false;
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + pages * entrySize);
+        while(buf.hasRemaining()){
+            if(channel.read(buf, buf.position()) < 0) return false;
+        }
+        buf.flip();
+        if(buf.getInt() != pages) return false;
+
+        for(int i=0;i<pages;i++){
+            grow(i);
+            readEntry(buf, i);
+        }
+        persistedPages = pages;
+        return true;
+    }
+
+    /**
+     * Makes room for page pageNo. Pages skipped over on the way there get
+     * an unknown range, so that they are never skipped by a scan.
+     */
+    private void grow(int pageNo) { //@ADDED
+        if(pageNo < numPages) return;
+
+        if(pageNo >= state.length){
+            int cap = Math.max(pageNo + 1, state.length * 2);
+            state = Arrays.copyOf(state, cap);
+            for(int i=0;i<td.numFields();i++){
+                if(intMin[i] != null){
+                    intMin[i] = Arrays.copyOf(intMin[i], cap);
+                    intMax[i] = Arrays.copyOf(intMax[i], cap);
+                } else {
+                    strMin[i] = Arrays.copyOf(strMin[i], cap);
+                    strMax[i] = Arrays.copyOf(strMax[i], cap);
+                }
+            }
+        }
+        for(int i=numPages;i<pageNo;i++)
+            state[i] = UNKNOWN;
+        state[pageNo] = EMPTY;
+        numPages = pageNo + 1;
+    }
+
+    private void widen(int pageNo, Tuple t) { //@ADDED
+        if(state[pageNo] == UNKNOWN) return;
+
+        boolean first = state[pageNo] == EMPTY;
+        for(int i=0;i<td.numFields();i++){
+            Field f = t.getField(i);
+            if(intMin[i] != null){
+                int v = ((IntField)f).getValue();
+                if(first || v < intMin[i][pageNo]) intMin[i][pageNo] = v;
+                if(first || v > intMax[i][pageNo]) intMax[i][pageNo] = v;
+            } else {
+                String v = prefix(((StringField)f).getValue());
+                if(first || v.compareTo(strMin[i][pageNo]) < 0) strMin[i][pageNo] = v;
+                if(first || v.compareTo(strMax[i][pageNo]) > 0) strMax[i][pageNo] = v;
+            }
+        }
+        state[pageNo] = RANGE;
+    }
+
+    /**
+     * Stretches the ranges of a page to take in a tuple just put on it.
+     * Pages past the end of the map extend it.
+     */
+    public synchronized void add(int pageNo, Tuple t) { //@ADDED
+        grow(pageNo);
+        widen(pageNo, t);
+    }
+
+    /** Same as {@link #add(int, Tuple)} for all the tuples of a page at once. */
+    public synchronized void addAll(int pageNo, List<Tuple> tuples) { //@ADDED
+        grow(pageNo);
+        for (Tuple t : tuples)
+            widen(pageNo, t);
+    }
+
+    /** @return the number of pages the map covers */
+    public synchronized int numPages() { //@ADDED
+        return numPages;
+    }
+
+    /**
+     * @return false if no tuple on page pageNo can satisfy p, true if some
+     *         might
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) { //@ADDED
+        if(pageNo < 0 || pageNo >= numPages || state[pageNo] == UNKNOWN) return true;
+        if(state[pageNo] == EMPTY) return false;
+
+        int i = p.getField();
+        Field operand = p.getOperand();
+        if(i < 0 || i >= td.numFields() || operand.getType() != td.getFieldType(i))
+            return true;
+
+        if(intMin[i] != null){
+            int v = ((IntField)operand).getValue();
+            int lo = intMin[i][pageNo];
+            int hi = intMax[i][pageNo];
+            switch(p.getOp()){
+            case EQUALS: return lo <= v && v <= hi;
+            case GREATER_THAN: return hi > v;
+            case GREATER_THAN_OR_EQ: return hi >= v;
+            case LESS_THAN: return lo < v;
+            case LESS_THAN_OR_EQ: return lo <= v;
+            case NOT_EQUALS: return lo != v || hi != v;
+            default: return true;
+            }
+        }
+
+        // s op v only tells that prefix(s) is on the same side of
+        // prefix(v), or equal to it
+        String v = prefix(((StringField)operand).getValue());
+        String lo = strMin[i][pageNo];
+        String hi = strMax[i][pageNo];
+        switch(p.getOp()){
+        case EQUALS: return lo.compareTo(v) <= 0 && v.compareTo(hi) <= 0;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ: return hi.compareTo(v) >= 0;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ: return lo.compareTo(v) <= 0;
+        default: return true;
+        }
+    }
+
+    /**
+     * @return the pages among the first pages pages of the file on which
+     *         no tuple can satisfy all of preds
+     */
+    public synchronized BitSet pagesToSkip(List<Predicate> preds, int pages) { //@ADDED
+        BitSet skip = new BitSet();
+        for(int pg=0;pg<Math.min(pages, numPages);pg++){
+            for(Predicate p : preds){
+                if(!mayMatch(pg, p)){
+                    skip.set(pg);
+                    break;
+                }
+            }
+        }
+        return skip;
+    }
+
+    private void writeEntry(ByteBuffer buf, int pageNo) { //@ADDED
+        buf.put(state[pageNo]);
+        for(int i=0;i<td.numFields();i++){
+            if(intMin[i] != null){
+                buf.putInt(intMin[i][pageNo]);
+                buf.putInt(intMax[i][pageNo]);
+            } else {
+                putPrefix(buf, strMin[i][pageNo]);
+                putPrefix(buf, strMax[i][pageNo]);
+            }
+        }
+    }
+
+    private void readEntry(ByteBuffer buf, int pageNo) { //@ADDED
+        state[pageNo] = buf.get();
+        for(int i=0;i<td.numFields();i++){
+            if(intMin[i] != null){
+                intMin[i][pageNo] = buf.getInt();
+                intMax[i][pageNo] = buf.getInt();
+            } else {
+                strMin[i][pageNo] = getPrefix(buf);
+                strMax[i][pageNo] = getPrefix(buf);
+            }
+        }
+    }
+
+    private static void putPrefix(ByteBuffer buf, String s) { //@ADDED
+        if(s == null) s = "";
+        buf.putShort((short)s.length());
+        for(int i=0;i<PREFIX_CHARS;i++)
+            buf.putChar(i < s.length() ? s.charAt(i) : 0);
+    }
+
+    private static String getPrefix(ByteBuffer buf) { //@ADDED
+        int len = Math.max(0, Math.min(buf.getShort(), PREFIX_CHARS));
+        char[] cs = new char[PREFIX_CHARS];
+        for(int i=0;i<PREFIX_CHARS;i++)
+            cs[i] = buf.getChar();
+        return new String(cs, 0, len);
+    }
+
+    /**
+     * Writes the entry of one page to the side file, along with the page
+     * count if the map has grown since it was last written.
+     */
+    public synchronized void flush(int pageNo) throws IOException { //@ADDED
+        if(pageNo >= numPages) return;
+
+        if(persistedPages < 0 || numPages < persistedPages){
+            flushAll();
+            return;
+        }
+        if(pageNo < persistedPages)
+            writeEntries(pageNo, pageNo + 1);
+
+        if(numPages > persistedPages){
+            // new entries first, then the count that makes them valid
+            writeEntries(persistedPages, numPages);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(numPages);
+            header.flip();
+            channel.write(header, 0);
+            persistedPages = numPages;
+        }
+    }
+
+    private void writeEntries(int from, int to) throws IOException { //@ADDED
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * entrySize);
+        for(int i=from;i<to;i++)
+            writeEntry(buf, i);
+        buf.flip();
+        long pos = HEADER_SIZE + (long)from * entrySize;
+        while(buf.hasRemaining()){
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    /** Writes the whole map to the side file. */
+    public synchronized void flushAll() throws IOException { //@ADDED
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(numPages);
+        header.flip();
+
+        channel.truncate(HEADER_SIZE + (long)numPages * entrySize);
+        writeEntries(0, numPages);
+        while(header.hasRemaining()){
+            channel.write(header, header.position());
+        }
+        persistedPages = numPages;
+    }
+
+    /** Writes the map out and closes the side file. */
+    public synchronized void close() throws IOException { //@ADDED
+        if(channel == null) return;
+
+        flushAll();
+        channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreePageTest extends SimpleDbTestBase {
+    private static final HeapPageId PID = new HeapPageId(-1, 1);
+
+    private static BTreePage empty(int category) throws Exception {
+        BTreePage page = new BTreePage(PID, Type.INT_TYPE, new byte[BufferPool.PAGE_SIZE]);
+        page.reset(category);
+        return page;
+    }
+
+    private static IntField key(int v) {
+        return new IntField(v);
+    }
+
+    /**
+     * Unit test for reading an all-zero page
+     */
+    @Test public void emptyMeta() throws Exception {
+        BTreePage page = new BTreePage(PID, Type.INT_TYPE, new byte[BufferPool.PAGE_SIZE]);
+        assertEquals(BTreePage.META, page.category);
+        assertEquals(0, page.next);
+    }
+
+    /**
+     * Unit test for lowerBound() with duplicate keys
+     */
+    @Test public void leafOrder() throws Exception {
+        BTreePage leaf = empty(BTreePage.LEAF);
+        leaf.insertAt(0, key(5), 3, 1, 0);
+        leaf.insertAt(0, key(5), 2, 7, 0);
+        leaf.insertAt(2, key(9), 0, 0, 0);
+
+        // entries with equal keys are ordered by where their tuple is
+        assertEquals(0, leaf.lowerBound(key(5), Integer.MIN_VALUE, Integer.MIN_VALUE));
+        assertEquals(1, leaf.lowerBound(key(5), 3, 0));
+        assertEquals(2, leaf.lowerBound(key(5), Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(3, leaf.lowerBound(key(10), 0, 0));
+
+        leaf.removeAt(1);
+        assertEquals(2, leaf.count);
+        assertEquals(key(9), leaf.keys[1]);
+    }
+
+    /**
+     * Unit test for childFor() on an internal node
+     */
+    @Test public void internalRouting() throws Exception {
+        BTreePage node = empty(BTreePage.INTERNAL);
+        node.children[0] = 10;
+        node.insertAt(0, key(100), 0, 0, 11);
+        node.insertAt(1, key(200), 0, 0, 12);
+
+        assertEquals(10, node.childFor(key(99), 5, 5));
+        // a separator is the first entry of the child to its right
+        assertEquals(11, node.childFor(key(100), 0, 0));
+        assertEquals(10, node.childFor(key(100), Integer.MIN_VALUE, Integer.MIN_VALUE));
+        assertEquals(12, node.childFor(key(500), 0, 0));
+    }
+
+    /**
+     * Unit test for getPageData() followed by reading the page back
+     */
+    @Test public void roundTrip() throws Exception {
+        BTreePage node = empty(BTreePage.INTERNAL);
+        node.children[0] = 4;
+        for (int i = 0; i < BTreePage.internalCapacity(Type.INT_TYPE); i++)
+            node.insertAt(i, key(i * 2), i, i + 1, 5 + i);
+
+        BTreePage reread = new BTreePage(PID, Type.INT_TYPE, node.getPageData());
+        assertEquals(node.count, reread.count);
+        assertEquals(4, reread.children[0]);
+        assertEquals(key(20), reread.keys[10]);
+        assertEquals(11, reread.ridSlots[10]);
+        assertEquals(5 + node.count - 1, reread.children[node.count]);
+        assertTrue(Arrays.equals(node.getPageData(), reread.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreePageTest.class);
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BloomFilterMapTest extends TestUtil.CreateHeapFile {
+    private static final int PAGES = 100;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Predicate eq(int v) {
+        return new Predicate(0, Predicate.Op.EQUALS, new IntField(v));
+    }
+
+    /** @return the number of tuples a filtered scan with p pushed down returns */
+    private int count(HeapFile hf, Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.addPredicate(p);
+        Filter f = new Filter(p, scan);
+        f.open();
+        int n = 0;
+        while (f.hasNext()) {
+            f.next();
+            n++;
+        }
+        f.close();
+        return n;
+    }
+
+    /**
+     * Converts a table of random even keys spread over the whole int
+     * range, so that no page can be ruled out by its range alone.
+     */
+    private HeapFile sparseTable(ArrayList<ArrayList<Integer>> tuples, double fpr) throws Exception {
+        return sparseTable(tuples, fpr, PAGES);
+    }
+
+    private HeapFile sparseTable(ArrayList<ArrayList<Integer>> tuples, double fpr, int pages) throws Exception {
+        Random r = new Random(20);
+        for (int i = 0; i < 504 * pages; ++i)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(r.nextInt() & ~1, i)));
+        File f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        BloomFilterMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2, new int[] { 0 }, fpr);
+        return Utility.openHeapFile(2, f);
+    }
+
+    @Test public void sizing() {
+        // 504 two-int tuples a page at 1%: 9.6 bits a key and 7 hashes
+        int bits = BloomFilterMap.bitsFor(504, 0.01);
+        assertEquals(4864, bits);
+        assertEquals(7, BloomFilterMap.hashesFor(bits, 504));
+        assertTrue(BloomFilterMap.bitsFor(504, 0.1) < BloomFilterMap.bitsFor(504, 0.001));
+    }
+
+    @Test public void missingKeysSkipPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = sparseTable(tuples, 0.01);
+        BloomFilterMap blooms = hf.getBloomFilters();
+        assertNotNull(blooms);
+        assertEquals(PAGES, blooms.numPages());
+
+        // every key is found where it is
+        for (int i = 0; i < PAGES; ++i) {
+            ArrayList<Integer> t = tuples.get(i * 504 + i);
+            assertTrue(blooms.mayMatch(i, eq(t.get(0))));
+        }
+
+        // odd keys are on no page
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int k = 1; k < 40; k += 2)
+            assertEquals(0, count(hf, eq(k)));
+        long reads = pool.getMissCount() + pool.getPrefetchCount();
+        // 20 scans of 100 pages, at 1% false positives
+        assertTrue("read " + reads, reads < 20 * PAGES / 10);
+
+        int key = tuples.get(504 * PAGES / 2).get(0);
+        assertEquals(1, count(hf, eq(key)));
+
+        assertTrue(blooms.getObservedFalsePositiveRate() < 0.05);
+        assertTrue(blooms.getEstimatedFalsePositiveRate() < 0.02);
+        System.out.println("BloomFilterMapTest: 20 lookups of missing keys in " + PAGES
+                + " pages read " + reads + " pages; " + blooms.getReport());
+    }
+
+    @Test public void rateIsConfigurable() throws Exception {
+        HeapFile hf = sparseTable(new ArrayList<ArrayList<Integer>>(), 0.2);
+        BloomFilterMap blooms = hf.getBloomFilters();
+        assertEquals(0.2, blooms.getFalsePositiveRate(), 0);
+        for (int k = 1; k < 40; k += 2)
+            assertEquals(0, count(hf, eq(k)));
+        double observed = blooms.getObservedFalsePositiveRate();
+        assertTrue("observed " + observed, observed > 0.05 && observed < 0.4);
+    }
+
+    @Test public void insertsDuringBuild() throws Exception {
+        final HeapFile hf = sparseTable(new ArrayList<ArrayList<Integer>>(), 0.01);
+        final HeapFile other = sparseTable(new ArrayList<ArrayList<Integer>>(), 0.01, PAGES * 8);
+        // big enough that the build does not scan through a ring of its
+        // own, small enough that reading other writes back dirty pages of
+        // hf while the build runs
+        final BufferPool pool = Database.resetBufferPool(PAGES * 4 + 16);
+        final Exception[] failed = new Exception[1];
+        final Thread builder = new Thread() {
+            public void run() {
+                try {
+                    hf.createBloomFilters(tid, new int[] { 0 }, BloomFilterMap.DEFAULT_FPR);
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    TransactionId writeTid = new TransactionId();
+                    for (int i = 0; i < 504 * 4; ++i)
+                        pool.insertTuple(writeTid, hf.getId(), Utility.getHeapTuple(new int[] { i * 2 + 1, i }));
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    Random r = new Random(6);
+                    TransactionId readTid = new TransactionId();
+                    while (builder.isAlive())
+                        pool.getPage(readTid, new HeapPageId(other.getId(), r.nextInt(PAGES * 8)), Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        writer.start();
+        builder.start();
+        reader.start();
+        for (Thread t : new Thread[] { builder, writer, reader }) {
+            t.join(60000);
+            assertFalse("the build deadlocked with evictions", t.isAlive());
+        }
+        if (failed[0] != null)
+            throw failed[0];
+
+        // every inserted key is in the new filters, wherever the scan was
+        for (int i = 0; i < 504 * 4; i += 37)
+            assertEquals(1, count(hf, eq(i * 2 + 1)));
+    }
+
+    @Test public void maintainedOnInsert() throws Exception {
+        empty.createBloomFilters(tid, new int[] { 0, 1 }, BloomFilterMap.DEFAULT_FPR);
+        for (int i = 0; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(new int[] { i * 2, i }));
+        ArrayList<Tuple> loaded = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3; ++i)
+            loaded.add(Utility.getHeapTuple(new int[] { 100000 + i * 2, i }));
+        empty.bulkAppend(loaded.iterator());
+        assertEquals(5, empty.numPages());
+
+        BloomFilterMap blooms = empty.getBloomFilters();
+        assertEquals(5, blooms.numPages());
+        assertEquals(1, count(empty, eq(1006)));
+        assertEquals(1, count(empty, eq(100000 + 1000)));
+        assertEquals(1, count(empty, new Predicate(1, Predicate.Op.EQUALS, new IntField(1500))));
+        assertFalse(blooms.mayMatch(4, new Predicate(1, Predicate.Op.EQUALS, new IntField(-1))));
+
+        // the filters survive being written out, and are rebuilt for the
+        // same fields when they no longer cover the file
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(5, reopened.getBloomFilters().numPages());
+        assertEquals(1, count(reopened, eq(1006)));
+        reopened.bulkAppend(Collections.singletonList(Utility.getHeapTuple(new int[] { 7, 7 })).iterator());
+        reopened.close();
+
+        // a map that says it covers fewer pages than the file has
+        File mapFile = BloomFilterMap.fileFor(empty.getFile());
+        RandomAccessFile raf = new RandomAccessFile(mapFile, "rw");
+        raf.writeInt(3);
+        raf.close();
+        reopened = Utility.openHeapFile(2, empty.getFile());
+        blooms = reopened.getBloomFilters();
+        assertArrayEquals(new int[] { 0, 1 }, blooms.getFields());
+        assertEquals(6, blooms.numPages());
+        assertEquals(1, count(reopened, eq(7)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterMapTest.class);
+    }
+}
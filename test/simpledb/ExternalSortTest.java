@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+    /** 3 pages hold 1536 two-int tuples */
+    private static final int PAGES = 3;
+
+    /** @return n tuples of a random key below keys and their position */
+    private static TupleIterator tuples(int n, int keys) {
+        Random r = new Random(24);
+        int[] data = new int[n * 2];
+        for (int i = 0; i < n; ++i) {
+            data[i * 2] = r.nextInt(keys);
+            data[i * 2 + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /** @return the tuples of it, from the first */
+    private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    private static int get(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    @Test public void spillsAndMerges() throws Exception {
+        ExternalSort sort = new ExternalSort(tuples(20000, 500),
+                new TupleComparator(0, true), PAGES);
+        sort.open();
+        ArrayList<Tuple> out = drain(sort);
+        assertEquals(20000, out.size());
+        for (int i = 1; i < out.size(); ++i) {
+            Tuple a = out.get(i - 1), b = out.get(i);
+            assertTrue(get(a, 0) <= get(b, 0));
+            // equal keys keep the order they came in
+            if (get(a, 0) == get(b, 0))
+                assertTrue(get(a, 1) < get(b, 1));
+        }
+        // 14 runs merged 2 at a time: 7, 4, 2
+        assertEquals(14, sort.getInitialRuns());
+        assertEquals(3, sort.getMergePasses());
+
+        // rewinding merges the same runs again
+        sort.rewind();
+        ArrayList<Tuple> again = drain(sort);
+        assertEquals(out.size(), again.size());
+        for (int i = 0; i < out.size(); ++i)
+            assertTrue(TestUtil.compareTuples(out.get(i), again.get(i)));
+        sort.close();
+    }
+
+    @Test public void descending() throws Exception {
+        // 10 pages hold 5120 tuples; 2 runs are merged straight into the result
+        ExternalSort sort = new ExternalSort(tuples(8000, 100000),
+                new TupleComparator(0, false), 10);
+        sort.open();
+        ArrayList<Tuple> out = drain(sort);
+        assertEquals(8000, out.size());
+        for (int i = 1; i < out.size(); ++i)
+            assertTrue(get(out.get(i - 1), 0) >= get(out.get(i), 0));
+        assertEquals(2, sort.getInitialRuns());
+        assertEquals(0, sort.getMergePasses());
+        sort.close();
+    }
+
+    @Test public void fitsInMemory() throws Exception {
+        ExternalSort sort = new ExternalSort(tuples(1536, 10),
+                new TupleComparator(0, true), PAGES);
+        sort.open();
+        assertEquals(1536, drain(sort).size());
+        assertEquals(0, sort.getInitialRuns());
+        sort.rewind();
+        assertEquals(1536, drain(sort).size());
+        sort.close();
+    }
+
+    @Test public void strings() throws Exception {
+        // 90 string tuples fit in 3 pages
+        Random r = new Random(24);
+        String[] words = new String[300];
+        Object[] data = new Object[words.length * 2];
+        for (int i = 0; i < words.length; ++i) {
+            words[i] = "w" + r.nextInt(100000);
+            data[i * 2] = words[i];
+            data[i * 2 + 1] = i;
+        }
+        ExternalSort sort = new ExternalSort(TestUtil.createTupleList(2, data),
+                new TupleComparator(0, true), PAGES);
+        sort.open();
+        ArrayList<Tuple> out = drain(sort);
+        assertEquals(4, sort.getInitialRuns());
+        String[] sorted = words.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; ++i)
+            assertEquals(sorted[i], ((StringField) out.get(i).getField(0)).getValue());
+        sort.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void bucket() {
+        assertEquals(0, FreeSpaceMap.bucket(0, 504));
+        assertEquals(1, FreeSpaceMap.bucket(1, 504));
+        assertEquals(128, FreeSpaceMap.bucket(252, 504));
+        assertEquals(255, FreeSpaceMap.bucket(504, 504));
+    }
+
+    /** Fills two pages, and returns the first tuple inserted. */
+    private Tuple fillTwoPages() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        return first;
+    }
+
+    @Test public void insertGoesToFreedSlot() throws Exception {
+        Tuple first = fillTwoPages();
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getBucket(0));
+        assertEquals(0, fsm.getBucket(1));
+
+        empty.deleteTuple(tid, first);
+        assertEquals(1, fsm.getBucket(0));
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+        assertEquals(0, fsm.getBucket(0));
+    }
+
+    @Test public void persistedAndRebuilt() throws Exception {
+        fillTwoPages();
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+
+        File f = empty.getFile();
+        File mapFile = FreeSpaceMap.fileFor(f);
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 3, mapFile.length());
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(3, fsm.numPages());
+        assertEquals(0, fsm.getBucket(1));
+        assertEquals(FreeSpaceMap.bucket(503, 504), fsm.getBucket(2));
+        assertEquals(2, fsm.findPageWithSpace());
+        reopened.close();
+
+        // without its side file the map is rebuilt from the pages, and
+        // the preallocated empty pages count as part of the file
+        assertTrue(mapFile.delete());
+        reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(HeapFile.DEFAULT_EXTENT_PAGES, reopened.numPages());
+        fsm = reopened.getFreeSpaceMap();
+        assertEquals(HeapFile.DEFAULT_EXTENT_PAGES, fsm.numPages());
+        assertEquals(0, fsm.getBucket(1));
+        assertEquals(2, fsm.findPageWithSpace());
+    }
+
+    @Test public void insertIntoFullTableReadsNoPages() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+        full.getFreeSpaceMap();
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        full.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(101, full.numPages());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -3,6 +3,8 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -121,6 +123,24 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Reading a table whose file does not exist must not create it.
+     */
+    @Test
+    public void missingFile() throws Exception {
+        File f = SystemTestUtil.createTempDataFile("missing");
+        assertTrue(f.delete());
+        HeapFile missing = new HeapFile(f, td);
+
+        assertEquals(0, missing.numPages());
+        try {
+            missing.getAllocatedPages();
+            fail("expected exception");
+        } catch (FileNotFoundException e) {
+        }
+        assertFalse(f.exists());
+    }
+
     /**
      * JUnit suite target
      */
@@ -41,6 +41,30 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         // and one more, just for fun...
         empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
         assertEquals(3, empty.numPages());
+
+        // the file itself grew by a whole extent
+        assertEquals(HeapFile.DEFAULT_EXTENT_PAGES, empty.getAllocatedPages());
+        assertEquals(HeapFile.DEFAULT_EXTENT_PAGES * BufferPool.PAGE_SIZE, empty.getFile().length());
+    }
+
+    /**
+     * Unit test for HeapFile growing by extents
+     */
+    @Test public void extentGrowth() throws Exception {
+        empty.setExtentPages(4);
+        for (int i = 0; i < 504 * 10; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(10, empty.numPages());
+        assertEquals(12, empty.getAllocatedPages());
+        assertEquals(12 * BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        // the high-water mark survives reopening the file
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+        HeapFile reopened = new HeapFile(empty.getFile(), Utility.getTupleDesc(2));
+        assertEquals(10, reopened.numPages());
+        assertEquals(12, reopened.getAllocatedPages());
+        reopened.close();
     }
 
     /**
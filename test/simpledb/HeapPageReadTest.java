@@ -99,6 +99,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for decoding fields only when Tuple.getField() asks for them
+     */
+    @Test public void lazyFields() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(null, tup.fields[0]);
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(null, tup.fields[0]);
+            assertTrue(tup.fields[1] != null);
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        // tuples that were only partly decoded serialize unchanged
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+    /** A tuple list that counts how many times it is read from the start. */
+    private static class CountingScan extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int opens = 0;
+
+        CountingScan(TupleDesc td, Iterable<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        public void open() {
+            opens++;
+            super.open();
+        }
+    }
+
+    @After public void restoreMemory() {
+        ExternalSort.setMemoryPages(ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    private static CountingScan randomTuples(int n) {
+        Random r = new Random(24);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; ++i)
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(1000), i }));
+        return new CountingScan(Utility.getTupleDesc(2), tuples);
+    }
+
+    /** @return the first field of every tuple of it */
+    private static ArrayList<Integer> keys(DbIterator it) throws Exception {
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        while (it.hasNext())
+            out.add(((IntField) it.next().getField(0)).getValue());
+        return out;
+    }
+
+    @Test public void sortsInMemory() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2, new int[] { 3, 0, 1, 1, 2, 2, 1, 3 });
+        OrderBy ob = new OrderBy(0, false, child);
+        ob.open();
+        assertEquals(Arrays.asList(3, 2, 1, 1), keys(ob));
+        assertEquals(0, ob.getSort().getInitialRuns());
+        ob.close();
+    }
+
+    @Test public void spillsRunsAndRewinds() throws Exception {
+        // 3 pages sort 1536 two-int tuples at a time
+        ExternalSort.setMemoryPages(3);
+        CountingScan child = randomTuples(10000);
+        OrderBy ob = new OrderBy(0, true, child);
+        ob.open();
+        ArrayList<Integer> sorted = keys(ob);
+        assertEquals(10000, sorted.size());
+        for (int i = 1; i < sorted.size(); ++i)
+            assertTrue(sorted.get(i - 1) <= sorted.get(i));
+        assertEquals(7, ob.getSort().getInitialRuns());
+
+        // rewinding merges the runs again instead of reading the child
+        ob.rewind();
+        assertEquals(sorted, keys(ob));
+        assertEquals(1, child.opens);
+        ob.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
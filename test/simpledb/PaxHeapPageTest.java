@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "score" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name, int score) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        t.setField(2, new IntField(score));
+        return t;
+    }
+
+    /** @return a page of n tuples in the HeapPage layout */
+    private HeapPage rowPage(int n) throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < n; i++)
+            page.insertTuple(tuple(i, "n" + i, i * 10));
+        return page;
+    }
+
+    private static PaxHeapPage toPax(HeapPageId pid, HeapPage rows) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        PaxHeapPage.fromRows(rows.getPageData(), TD, buf);
+        return new PaxHeapPage(pid, buf.array());
+    }
+
+    private static List<String> strings(HeapPage page) {
+        List<String> rows = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        return rows;
+    }
+
+    /**
+     * Unit test for PaxHeapPage.fromRows() and reading tuples back
+     */
+    @Test public void fromRows() throws Exception {
+        HeapPage rows = rowPage(20);
+        PaxHeapPage pax = toPax(pid, rows);
+        assertEquals(rows.numSlots, pax.numSlots);
+        assertEquals(rows.getNumEmptySlots(), pax.getNumEmptySlots());
+        assertEquals(strings(rows), strings(pax));
+
+        // the ids are the first minipage, right after the header
+        byte[] data = pax.getPageData();
+        int header = (pax.numSlots + 7) / 8;
+        assertEquals(3, ByteBuffer.wrap(data).getInt(header + 3 * 4));
+    }
+
+    /**
+     * Unit test for PaxHeapPage.readInts() and readColumn()
+     */
+    @Test public void readColumns() throws Exception {
+        PaxHeapPage pax = toPax(pid, rowPage(20));
+        pax.deleteTuple(pax.iterator().next());
+
+        int[] scores = new int[pax.numSlots];
+        assertEquals(19, pax.readInts(2, scores));
+        assertEquals(10, scores[0]);
+        assertEquals(190, scores[18]);
+
+        Field[] names = new Field[pax.numSlots];
+        assertEquals(19, pax.readColumn(1, names));
+        assertEquals(new StringField("n1", Type.STRING_LEN), names[0]);
+
+        // a tuple added since the page was read is read from the tuple
+        pax.insertTuple(tuple(99, "new", 990));
+        assertEquals(20, pax.readInts(2, scores));
+        assertEquals(990, scores[0]);
+    }
+
+    /**
+     * Unit test for getPageData() after inserts and deletes
+     */
+    @Test public void roundTrip() throws Exception {
+        PaxHeapPage pax = toPax(pid, rowPage(20));
+        Iterator<Tuple> it = pax.iterator();
+        it.next();
+        Tuple second = it.next();
+        pax.deleteTuple(second);
+        pax.insertTuple(tuple(42, "x", 420));
+        pax.insertTuple(tuple(43, "y", 430));
+
+        PaxHeapPage reread = new PaxHeapPage(pid, pax.getPageData());
+        assertEquals(strings(pax), strings(reread));
+        assertEquals(21, strings(reread).size());
+        assertTrue(Arrays.equals(pax.getPageData(), reread.getPageData()));
+    }
+
+    /**
+     * Unit test for PaxHeapPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        PaxHeapPage pax = toPax(pid, rowPage(5));
+        byte[] committed = pax.getPageData();
+        pax.insertTuple(tuple(6, "z", 60));
+
+        PaxHeapPage before = pax.getBeforeImage();
+        assertTrue(Arrays.equals(committed, before.getPageData()));
+        assertEquals(5, strings(before).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ALL = new ReplacementPolicy.Evictable() {
+        public boolean isEvictable(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /** Evicts the policy's victim, as the BufferPool would. */
+    private static PageId evict(ReplacementPolicy p, ReplacementPolicy.Evictable e) {
+        PageId victim = p.chooseVictim(e);
+        assertNotNull(victim);
+        p.pageRemoved(victim);
+        return victim;
+    }
+
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.LRU.create(3);
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAdmitted(pid(2));
+        p.pageAccessed(pid(0));
+
+        assertEquals(pid(1), evict(p, ALL));
+        assertEquals(pid(2), evict(p, ALL));
+        assertEquals(pid(0), evict(p, ALL));
+        assertNull(p.chooseVictim(ALL));
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.CLOCK.create(3);
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAdmitted(pid(2));
+
+        // first sweep clears all bits, then page 0 goes
+        assertEquals(pid(0), evict(p, ALL));
+        p.pageAdmitted(pid(3));
+        p.pageAccessed(pid(1));
+
+        // 1 was referenced again, so 2 is next
+        assertEquals(pid(2), evict(p, ALL));
+    }
+
+    @Test public void victimsSkipUnevictablePages() {
+        final PageId pinned = pid(0);
+        ReplacementPolicy.Evictable notPinned = new ReplacementPolicy.Evictable() {
+            public boolean isEvictable(PageId pid) {
+                return !pid.equals(pinned);
+            }
+        };
+
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy p = kind.create(2);
+            p.pageAdmitted(pid(0));
+            p.pageAdmitted(pid(1));
+            assertEquals(kind.toString(), pid(1), evict(p, notPinned));
+            assertNull(kind.toString(), p.chooseVictim(notPinned));
+        }
+    }
+
+    @Test public void twoQKeepsHotPagesAcrossScan() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.TWO_Q.create(8);
+
+        // pages 0 and 1 are read, evicted, and read again: they become hot
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageRemoved(pid(0));
+        p.pageRemoved(pid(1));
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+
+        // a long scan of pages seen once only ever evicts other scan pages
+        Set<PageId> resident = new HashSet<PageId>();
+        for (int i = 100; i < 200; i++) {
+            if (resident.size() + 2 >= 8) {
+                PageId victim = evict(p, ALL);
+                assertTrue(victim.pageNumber() >= 100);
+                resident.remove(victim);
+            }
+            p.pageAdmitted(pid(i));
+            resident.add(pid(i));
+        }
+        assertEquals(6, resident.size());
+    }
+
+    @Test public void lruKEvictsPagesWithFewReferencesFirst() {
+        ReplacementPolicy p = ReplacementPolicy.Kind.LRU_K.create(4);
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAccessed(pid(2)); // not resident, ignored
+        p.pageAdmitted(pid(2));
+        p.pageAccessed(pid(0)); // 0 now has two uncorrelated references
+
+        assertEquals(pid(1), evict(p, ALL));
+        assertEquals(pid(2), evict(p, ALL));
+        assertEquals(pid(0), evict(p, ALL));
+    }
+
+    /**
+     * Runs the same mixed workload -- bursts of reads on a small hot table
+     * interleaved with a sequential scan over a table three times the pool
+     * size -- against every policy and reports the hit ratios.
+     */
+    @Test public void hitRatios() throws Exception {
+        final int poolPages = 32;
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 3 * poolPages, null, null);
+        TransactionId tid = new TransactionId();
+
+        double lru = 0, lruK = 0, twoQ = 0;
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            BufferPool pool = Database.resetBufferPool(poolPages, kind);
+            int next = 0;
+            for (int round = 0; round < 30; round++) {
+                for (int rep = 0; rep < 4; rep++)
+                    for (int i = 0; i < hot.numPages(); i++)
+                        pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+                for (int i = 0; i < poolPages; i++, next++)
+                    pool.getPage(tid, new HeapPageId(big.getId(), next % big.numPages()),
+                            Permissions.READ_ONLY);
+            }
+            assertTrue(pool.getNumResidentPages() <= poolPages);
+            System.out.printf("ReplacementPolicyTest: %-6s hit ratio %.3f%n",
+                    pool.getPolicy().getName(), pool.getHitRatio());
+
+            if (kind == ReplacementPolicy.Kind.LRU) lru = pool.getHitRatio();
+            if (kind == ReplacementPolicy.Kind.LRU_K) lruK = pool.getHitRatio();
+            if (kind == ReplacementPolicy.Kind.TWO_Q) twoQ = pool.getHitRatio();
+        }
+        assertTrue(lruK > lru);
+        assertTrue(twoQ > lru);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "code" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String code) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the ids of the tuples on the page, in slot order */
+    private static List<Integer> ids(HeapPage page) {
+        List<Integer> ids = new ArrayList<Integer>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            ids.add(((IntField) it.next().getField(0)).getValue());
+        return ids;
+    }
+
+    /**
+     * Unit test for reading an all-zero page
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(page.numSlots, page.getNumEmptySlots());
+        assertTrue(Arrays.equals(HeapPage.createEmptyPageData(), page.getPageData()));
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() with short strings
+     */
+    @Test public void shortStringsFillPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int count = 0;
+        while (page.hasRoomFor(tuple(count, "AB" + count % 10))) {
+            page.insertTuple(tuple(count, "AB" + count % 10));
+            count++;
+        }
+
+        // 13 bytes per tuple with its slot, against 136 in a HeapPage
+        int fixed = BufferPool.PAGE_SIZE * 8 / (TD.getSize() * 8 + 1);
+        assertEquals((BufferPool.PAGE_SIZE - 2) / 13, count);
+        assertTrue(count > 9 * fixed);
+        assertEquals(0, page.getNumEmptySlots());
+
+        try {
+            page.insertTuple(tuple(count, "AB0"));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for getPageData() followed by reading the page back
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        char[] longCode = new char[Type.STRING_LEN + 10];
+        Arrays.fill(longCode, 'x');
+        page.insertTuple(tuple(1, ""));
+        page.insertTuple(tuple(2, "ABC"));
+        page.insertTuple(tuple(3, new String(longCode)));
+
+        byte[] data = page.getPageData();
+        SlottedHeapPage reread = new SlottedHeapPage(pid, data);
+        assertEquals(Arrays.asList(1, 2, 3), ids(reread));
+
+        Iterator<Tuple> it = reread.iterator();
+        assertEquals("", ((StringField) it.next().getField(1)).getValue());
+        assertEquals("ABC", ((StringField) it.next().getField(1)).getValue());
+        assertEquals(Type.STRING_LEN, ((StringField) it.next().getField(1)).getValue().length());
+        assertTrue(Arrays.equals(data, reread.getPageData()));
+    }
+
+    /**
+     * Unit test for deleting tuples and reusing their slots
+     */
+    @Test public void deleteReusesSlot() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple a = tuple(1, "A");
+        Tuple b = tuple(2, "BB");
+        Tuple c = tuple(3, "CCC");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int free = page.getFreeBytes();
+
+        page.deleteTuple(b);
+        assertFalse(page.isSlotUsed(1));
+        assertEquals(free + 4 + 2 + 2, page.getFreeBytes());
+        try {
+            page.deleteTuple(b);
+            fail("slot should be empty");
+        } catch (DbException e) {
+            // expected
+        }
+
+        Tuple d = tuple(4, "DDDD");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().tupleno());
+        assertEquals(Arrays.asList(1, 4, 3), ids(new SlottedHeapPage(pid, page.getPageData())));
+
+        // emptying the end of the directory shrinks it
+        page.deleteTuple(c);
+        page.deleteTuple(d);
+        assertEquals(1, page.slotCount);
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "A"));
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+
+        page.insertTuple(tuple(2, "B"));
+        SlottedHeapPage before = page.getBeforeImage();
+        assertTrue(Arrays.equals(committed, before.getPageData()));
+        assertEquals(Arrays.asList(1), ids(before));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -380,6 +380,9 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileFor(emptyFile).deleteOnExit();
+            ZoneMap.fileFor(emptyFile).deleteOnExit();
+            BloomFilterMap.fileFor(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+    private static TupleIterator randomTuples(int n, int keys) {
+        Random r = new Random(25);
+        int[] data = new int[n * 2];
+        for (int i = 0; i < n; ++i) {
+            data[i * 2] = r.nextInt(keys);
+            data[i * 2 + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    /** Checks that TopN returns the first k tuples OrderBy does, ties in the same order. */
+    private static void matchOrderBy(int n, int keys, int k, boolean asc) throws Exception {
+        OrderBy ob = new OrderBy(0, asc, randomTuples(n, keys));
+        ob.open();
+        ArrayList<Tuple> sorted = drain(ob);
+        ob.close();
+
+        TopN top = new TopN(0, asc, k, randomTuples(n, keys));
+        top.open();
+        ArrayList<Tuple> out = drain(top);
+        assertEquals(Math.min(n, k), out.size());
+        for (int i = 0; i < out.size(); ++i)
+            assertTrue(TestUtil.compareTuples(sorted.get(i), out.get(i)));
+
+        top.rewind();
+        assertEquals(out.size(), drain(top).size());
+        top.close();
+    }
+
+    @Test public void matchesOrderBy() throws Exception {
+        matchOrderBy(5000, 1000000, 10, true);
+        matchOrderBy(5000, 1000000, 10, false);
+        // many ties
+        matchOrderBy(5000, 20, 300, true);
+        matchOrderBy(5000, 20, 300, false);
+    }
+
+    @Test public void smallAndEmpty() throws Exception {
+        matchOrderBy(7, 100, 50, true);
+        matchOrderBy(100, 100, 0, true);
+        matchOrderBy(0, 100, 5, false);
+        // room is not set aside for more tuples than come
+        matchOrderBy(100, 100, Integer.MAX_VALUE, true);
+    }
+
+    @Test public void limitStopsPulling() throws Exception {
+        TupleIterator child = randomTuples(100, 1000);
+        Limit limit = new Limit(10, child);
+        limit.open();
+        ArrayList<Tuple> out = drain(limit);
+        assertEquals(10, out.size());
+        // the child is left just past the tenth tuple
+        assertEquals(10, ((IntField) child.next().getField(1)).getValue());
+
+        limit.rewind();
+        assertEquals(10, drain(limit).size());
+        limit.close();
+
+        limit = new Limit(1000, randomTuples(100, 1000));
+        limit.open();
+        assertEquals(100, drain(limit).size());
+        limit.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Predicate pred(Predicate.Op op, int v) {
+        return new Predicate(0, op, new IntField(v));
+    }
+
+    /** Fills pages 0 and 1 with 0..1007 in order, and one tuple of page 2. */
+    private Tuple fillInOrder() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            empty.insertTuple(tid, t);
+            if (first == null)
+                first = t;
+        }
+        assertEquals(3, empty.numPages());
+        return first;
+    }
+
+    @Test public void intRanges() throws Exception {
+        fillInOrder();
+        ZoneMap zm = empty.getZoneMap();
+        assertEquals(3, zm.numPages());
+
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.EQUALS, 503)));
+        assertFalse(zm.mayMatch(1, pred(Predicate.Op.EQUALS, 503)));
+        assertFalse(zm.mayMatch(0, pred(Predicate.Op.GREATER_THAN, 503)));
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.GREATER_THAN_OR_EQ, 503)));
+        assertFalse(zm.mayMatch(1, pred(Predicate.Op.LESS_THAN, 504)));
+        assertTrue(zm.mayMatch(1, pred(Predicate.Op.LESS_THAN_OR_EQ, 504)));
+        assertFalse(zm.mayMatch(2, pred(Predicate.Op.NOT_EQUALS, 1008)));
+        assertTrue(zm.mayMatch(1, pred(Predicate.Op.NOT_EQUALS, 1008)));
+        // the second field goes down as the first goes up
+        assertFalse(zm.mayMatch(0, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(-503))));
+        // pages the map does not cover are never ruled out
+        assertTrue(zm.mayMatch(3, pred(Predicate.Op.EQUALS, -1)));
+
+        BitSet skip = zm.pagesToSkip(Arrays.asList(pred(Predicate.Op.GREATER_THAN, 600),
+                pred(Predicate.Op.LESS_THAN, 900)), 3);
+        assertEquals("{0, 2}", skip.toString());
+    }
+
+    @Test public void insertsWidenAndDeletesKeep() throws Exception {
+        Tuple first = fillInOrder();
+        ZoneMap zm = empty.getZoneMap();
+
+        empty.deleteTuple(tid, first);
+        assertTrue(zm.mayMatch(0, pred(Predicate.Op.EQUALS, 0)));
+
+        // a value far outside the range of the page it lands on
+        Tuple t = Utility.getHeapTuple(new int[] { 5000, 0 });
+        empty.insertTuple(tid, t);
+        int landed = t.getRecordId().getPageId().pageNumber();
+        for (int i = 0; i < 3; ++i)
+            assertEquals(i == landed, zm.mayMatch(i, pred(Predicate.Op.GREATER_THAN, 4000)));
+
+        SeqScan scan = new SeqScan(tid, empty.getId(), "");
+        scan.addPredicate(pred(Predicate.Op.GREATER_THAN, 4000));
+        Filter f = new Filter(pred(Predicate.Op.GREATER_THAN, 4000), scan);
+        f.open();
+        assertTrue(f.hasNext());
+        assertEquals(t.getField(0), f.next().getField(0));
+        assertFalse(f.hasNext());
+        f.close();
+    }
+
+    @Test public void stringPrefixes() throws Exception {
+        File file = File.createTempFile("zones", ".dat");
+        file.deleteOnExit();
+        ZoneMap.fileFor(file).deleteOnExit();
+        FreeSpaceMap.fileFor(file).deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        HeapFile hf = new HeapFile(file, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        String[] words = { "apricot", "apple", "avocado", "almond" };
+        for (String w : words) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(w, Type.STRING_LEN));
+            hf.insertTuple(tid, t);
+        }
+        assertEquals(1, hf.numPages());
+        ZoneMap zm = hf.getZoneMap();
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new StringField("banana", Type.STRING_LEN));
+        assertFalse(zm.mayMatch(0, p));
+        p = new Predicate(0, Predicate.Op.EQUALS, new StringField("almond", Type.STRING_LEN));
+        assertTrue(zm.mayMatch(0, p));
+        // only "avoc" is kept, which "avocados" could still be below
+        p = new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("avocados", Type.STRING_LEN));
+        assertTrue(zm.mayMatch(0, p));
+        p = new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("azure", Type.STRING_LEN));
+        assertFalse(zm.mayMatch(0, p));
+        p = new Predicate(0, Predicate.Op.LESS_THAN, new StringField("al", Type.STRING_LEN));
+        assertFalse(zm.mayMatch(0, p));
+    }
+
+    @Test public void persistedAndRebuilt() throws Exception {
+        fillInOrder();
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+
+        File f = empty.getFile();
+        File mapFile = ZoneMap.fileFor(f);
+        assertTrue(mapFile.exists());
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        ZoneMap zm = reopened.getZoneMap();
+        assertEquals(3, zm.numPages());
+        assertFalse(zm.mayMatch(0, pred(Predicate.Op.GREATER_THAN, 503)));
+        assertTrue(zm.mayMatch(2, pred(Predicate.Op.EQUALS, 1008)));
+        reopened.close();
+
+        // without its side file the map is rebuilt from the pages
+        assertTrue(mapFile.delete());
+        reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        zm = reopened.getZoneMap();
+        assertEquals(3, zm.numPages());
+        assertFalse(zm.mayMatch(1, pred(Predicate.Op.EQUALS, 100)));
+        assertTrue(zm.mayMatch(1, pred(Predicate.Op.EQUALS, 600)));
+    }
+
+    @Test public void scanSkipsPages() throws Exception {
+        // time-ordered data: each page holds a narrow band of the first field
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 504 * 100; ++i)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        hf.getZoneMap();
+
+        int x = 504 * 95;
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.addPredicate(pred(Predicate.Op.GREATER_THAN, x));
+        Filter filter = new Filter(pred(Predicate.Op.GREATER_THAN, x), scan);
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            assertTrue(((IntField) filter.next().getField(0)).getValue() > x);
+            n++;
+        }
+        filter.close();
+        assertEquals(504 * 5 - 1, n);
+        assertEquals(5, pool.getMissCount() + pool.getPrefetchCount());
+    }
+
+    @Test public void plannerPushesFilters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "field");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "z");
+        lp.addFilter("z.field0", Predicate.Op.GREATER_THAN, "5");
+        lp.addFilter("z.field1", Predicate.Op.LESS_THAN, "9");
+        lp.addProjectField("z.field0", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+
+        DbIterator node = lp.physicalPlan(tid, stats, false);
+        while (!(node instanceof SeqScan))
+            node = ((Operator) node).getChildren()[0];
+        assertEquals(2, ((SeqScan) node).preds.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Indexes a table with a B+tree, checks that index scans return exactly
+ * what a filtered sequential scan does as the table changes, that the
+ * planner picks the index, and reports how many pages a point lookup
+ * reads each way.
+ */
+public class BTreeIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int KEYS = 5000;
+
+    private static List<String> filtered(HeapFile f, Predicate.Op op, int v) throws Exception {
+        return SystemTestUtil.drainSorted(new Filter(new Predicate(0, op, new IntField(v)),
+                new SeqScan(new TransactionId(), f.getId(), "")));
+    }
+
+    private static List<String> indexed(BTreeFile index, Predicate.Op op, int v) throws Exception {
+        return SystemTestUtil.drainSorted(new IndexScan(new TransactionId(), index, op, new IntField(v), ""));
+    }
+
+    private static final Predicate.Op[] OPS = new Predicate.Op[] {
+        Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private static void checkAgainstScan(HeapFile f, BTreeFile index) throws Exception {
+        for (Predicate.Op op : OPS) {
+            for (int v : new int[] { -1, 0, 17, KEYS / 2, KEYS - 1, KEYS }) {
+                assertEquals(op + " " + v, filtered(f, op, v), indexed(index, op, v));
+            }
+        }
+    }
+
+    /** @return a table of ROWS rows whose first field has KEYS distinct values, indexed on it */
+    private static BTreeFile indexedTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, tuples, "field");
+        BTreeFile index = new BTreeFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    @Test public void testBuildAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = indexedTable(tuples);
+        HeapFile f = (HeapFile) Database.getCatalog().getDbFile(index.getTableId());
+        index.build(new TransactionId());
+
+        assertEquals(ROWS, SystemTestUtil.drainSorted(new IndexScan(new TransactionId(), index, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(Integer.MIN_VALUE), "")).size());
+        checkAgainstScan(f, index);
+
+        // the full iterator returns the table in key order
+        DbFileIterator it = index.iterator(new TransactionId());
+        it.open();
+        int last = Integer.MIN_VALUE, n = 0;
+        while (it.hasNext()) {
+            int k = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(k >= last);
+            last = k;
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS, n);
+
+        // a point lookup reads the path down the tree and a few heap pages
+        int key = tuples.get(ROWS / 2).get(0);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> viaScan = filtered(f, Predicate.Op.EQUALS, key);
+        long scanReads = pool.getMissCount() + pool.getPrefetchCount();
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> viaIndex = indexed(index, Predicate.Op.EQUALS, key);
+        long indexReads = pool.getMissCount() + pool.getPrefetchCount();
+        assertEquals(viaScan, viaIndex);
+        // meta page, root, leaf, then at most a heap page per match
+        assertTrue(indexReads <= 3 + viaIndex.size());
+        assertTrue(indexReads * 2 < scanReads);
+        System.out.printf("BTreeIndexTest: point lookup in %d rows, %d tree pages, SeqScan+Filter read %d pages, IndexScan %d%n",
+                ROWS, index.numPages(), scanReads, indexReads);
+    }
+
+    @Test public void testMaintainedByBufferPool() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = new BTreeFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        // enough inserts to split leaves and internal nodes
+        Random r = new Random(3);
+        for (int i = 0; i < ROWS; i++)
+            pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { r.nextInt(KEYS), i }));
+        assertTrue(index.numPages() > 50);
+        checkAgainstScan(f, index);
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(1)).getValue() % 3 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            pool.deleteTuple(tid, t);
+        checkAgainstScan(f, index);
+
+        // the index survives being written out and read back
+        pool.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkAgainstScan(f, index);
+
+        // batched inserts bypass the pool but still reach the index, a run
+        // of two pages at a time
+        f.setExtentPages(2);
+        ArrayList<Tuple> more = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 5; i++)
+            more.add(Utility.getHeapTuple(new int[] { i, -i }));
+        Insert ins = new Insert(tid, new TupleIterator(f.getTupleDesc(), more), f.getId(), true);
+        ins.open();
+        ins.next();
+        ins.close();
+        checkAgainstScan(f, index);
+    }
+
+    @Test public void testInsertsWhilePoolEvicts() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = new BTreeFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        SystemTestUtil.insertWhileEvicting(f, ROWS / 2, KEYS);
+        checkAgainstScan(f, index);
+    }
+
+    @Test public void testPlannerPicksIndex() throws Exception {
+        BTreeFile index = indexedTable(new ArrayList<ArrayList<Integer>>());
+        int tableId = index.getTableId();
+        HeapFile f = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        index.build(new TransactionId());
+        String name = Database.getCatalog().getTableName(tableId);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.field1", Predicate.Op.GREATER_THAN, "100");
+        lp.addFilter("t.field0", Predicate.Op.EQUALS, "42");
+        lp.addProjectField("t.field0", null);
+        lp.addProjectField("t.field1", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableId, 1000));
+        DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        // somewhere below the projection and the other filter
+        boolean found = false;
+        DbIterator node = plan;
+        while (node != null && !found) {
+            found = node instanceof IndexScan;
+            if (node instanceof Operator && ((Operator) node).getChildren().length > 0)
+                node = ((Operator) node).getChildren()[0];
+            else
+                node = null;
+        }
+        assertTrue(found);
+
+        List<String> expected = SystemTestUtil.drainSorted(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)),
+                new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(42)),
+                        new SeqScan(new TransactionId(), f.getId(), ""))));
+        assertEquals(expected, SystemTestUtil.drainSorted(plan));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeIndexTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Compresses a wide table of small values, checks that it reads back the
+ * same through scans, inserts, deletes, reopening and the catalog, and
+ * reports the compression ratio and what it costs a cold scan.
+ */
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 20000;
+
+    @Test public void testCompressAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File plainDat = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1000, null, tuples);
+        HeapFile plain = SystemTestUtil.register(Utility.openHeapFile(COLUMNS, plainDat));
+        long start = System.nanoTime();
+        CompressedHeapFile compressed = SystemTestUtil.register(
+                CompressedHeapFile.compress(plainDat, SystemTestUtil.createTempDataFile("compressed"),
+                        plain.getTupleDesc()));
+        long compressTime = System.nanoTime() - start;
+
+        assertEquals(plain.numPages(), compressed.numPages());
+        SystemTestUtil.matchTuples(compressed, tuples);
+        // values below 1000 leave half of every int zero
+        assertTrue(compressed.getCompressionRatio() > 1.5);
+        assertTrue(compressed.getFileBytes() * 3 < plainDat.length() * 2);
+
+        long plainTime = 0, compressedTime = 0;
+        final int rounds = 5;
+        for (int r = 0; r < rounds; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            start = System.nanoTime();
+            SystemTestUtil.contents(plain);
+            plainTime += System.nanoTime() - start;
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            start = System.nanoTime();
+            SystemTestUtil.contents(compressed);
+            compressedTime += System.nanoTime() - start;
+        }
+        System.out.printf("CompressedHeapFileTest: %d rows, plain %d bytes (%.1f ms/scan), compressed %d bytes (%.1f ms/scan, %.1f us/page to compress)%n",
+                ROWS, plainDat.length(), plainTime / 1e6 / rounds,
+                compressed.getFileBytes(), compressedTime / 1e6 / rounds,
+                compressTime / 1e3 / compressed.numPages());
+        System.out.println("CompressedHeapFileTest: " + compressed.getCompressionReport());
+
+        // the sizes come from the page map; compress() wrote the pages
+        // through a file that has since been closed
+        assertEquals(0, compressed.getPagesCompressed());
+        assertTrue(compressed.getStoredBytes() <= compressed.getSectorBytes());
+        assertTrue(compressed.getSectorBytes() <= compressed.getFileBytes());
+    }
+
+    @Test public void testInsertDeleteReopen() throws Exception {
+        File dat = SystemTestUtil.createTempDataFile("compressed");
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        CompressedHeapFile f = SystemTestUtil.register(new CompressedHeapFile(dat, td));
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(i % 7, COLUMNS);
+            t.setField(0, new IntField(i));
+            pool.insertTuple(tid, f.getId(), t);
+            expected.add(t.toString());
+        }
+        pool.flushAllPages();
+        assertTrue(f.numPages() > 10);
+
+        // pages that fill up grow, and move to the end of the file
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            pool.deleteTuple(tid, t);
+            expected.remove(t.toString());
+        }
+        pool.flushAllPages();
+        Set<String> want = new HashSet<String>(expected);
+
+        f.close();
+        CompressedHeapFile reopened = SystemTestUtil.register(new CompressedHeapFile(dat, td));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(want, new HashSet<String>(SystemTestUtil.contents(reopened)));
+
+        // without its map the file is walked to find the pages again
+        reopened.close();
+        assertTrue(CompressedHeapFile.mapFileFor(dat).delete());
+        CompressedHeapFile rebuilt = SystemTestUtil.register(new CompressedHeapFile(dat, td));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(f.numPages(), rebuilt.numPages());
+        assertEquals(want, new HashSet<String>(SystemTestUtil.contents(rebuilt)));
+    }
+
+    @Test public void testShrunkPageRebuild() throws Exception {
+        File dat = SystemTestUtil.createTempDataFile("compressed");
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile f = SystemTestUtil.register(new CompressedHeapFile(dat, td));
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        // two pages of random values, which hardly compress
+        Random r = new Random(14);
+        List<Tuple> first = new ArrayList<Tuple>();
+        Set<String> want = new HashSet<String>();
+        for (int i = 0; i < 504 * 2; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() });
+            pool.insertTuple(tid, f.getId(), t);
+            if (i < 504)
+                first.add(t);
+            else
+                want.add(t.toString());
+        }
+        pool.flushAllPages();
+        long fileBytes = f.getFileBytes();
+
+        // emptying the first page rewrites it in place, much shorter
+        for (Tuple t : first)
+            pool.deleteTuple(tid, t);
+        pool.flushAllPages();
+        assertEquals(fileBytes, f.getFileBytes());
+
+        f.close();
+        assertTrue(CompressedHeapFile.mapFileFor(dat).delete());
+        CompressedHeapFile rebuilt = SystemTestUtil.register(new CompressedHeapFile(dat, td));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(2, rebuilt.numPages());
+        assertEquals(fileBytes, rebuilt.getFileBytes());
+        assertEquals(want, new HashSet<String>(SystemTestUtil.contents(rebuilt)));
+    }
+
+    @Test public void testCatalogFormat() throws Exception {
+        File dir = SystemTestUtil.createTempDataFile("compressed").getParentFile();
+        String name = "compressed" + SystemTestUtil.getUUID().replace("-", "");
+        File txt = File.createTempFile("codes", ".txt");
+        txt.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(txt));
+        for (int i = 0; i < 500; i++)
+            w.println(i + "," + (i % 10));
+        w.close();
+        File dat = new File(dir, name + ".dat");
+        dat.deleteOnExit();
+        CompressedHeapFile.mapFileFor(dat).deleteOnExit();
+        HeapFileEncoder.convertCompressed(txt, dat, BufferPool.PAGE_SIZE, 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',');
+
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        w = new PrintWriter(new FileWriter(schema));
+        w.println(name + " (id int, digit int) compressed");
+        w.close();
+        assertEquals(dir, schema.getParentFile());
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof CompressedHeapFile);
+        assertEquals(500, SystemTestUtil.contents(f).size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs sequential scans from several threads at once against a shared
+ * buffer pool. Every thread must see every tuple, the pool must never grow
+ * past its capacity, and the aggregate scan throughput is printed for 1..N
+ * threads so that lock contention in BufferPool shows up as flat scaling.
+ */
+public class ConcurrentScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 504 * 40;   // 40 pages
+    private static final int SCANS_PER_THREAD = 20;
+
+    /** Sums the first column of every tuple of a full scan. */
+    private static long scanSum(HeapFile f) throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        long sum = 0;
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(0)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        return sum;
+    }
+
+    /**
+     * Runs SCANS_PER_THREAD full scans in each of nThreads threads.
+     * @return the number of pages scanned per second over all threads
+     */
+    private static double runScans(final HeapFile f, int nThreads, final long expected)
+            throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < SCANS_PER_THREAD; j++)
+                            assertEquals(expected, scanSum(f));
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        long elapsed = System.nanoTime() - start;
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        return (double) nThreads * SCANS_PER_THREAD * f.numPages() / (elapsed / 1e9);
+    }
+
+    private static long expectedSum(ArrayList<ArrayList<Integer>> tuples) {
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            sum += t.get(0);
+        return sum;
+    }
+
+    /** The table fits in the pool: after warmup every access is a hit. */
+    @Test public void testResidentScanScaling() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        long expected = expectedSum(tuples);
+        assertEquals(expected, scanSum(f));
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int n = 1; n <= maxThreads; n *= 2) {
+            double pagesPerSec = runScans(f, n, expected);
+            System.out.printf("ConcurrentScanTest: %2d threads, %.0f pages/s%n", n, pagesPerSec);
+        }
+    }
+
+    /** The table is larger than the pool, so threads evict each other's pages. */
+    @Test public void testScanWithEviction() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        final int poolPages = 16;
+        BufferPool pool = Database.resetBufferPool(poolPages);
+
+        runScans(f, 8, expectedSum(tuples));
+        assertTrue(pool.getNumResidentPages() <= poolPages);
+    }
+
+    /**
+     * Pages are discarded while other threads evict them. Each frame must
+     * be given back exactly once, or the pool ends up holding more pages
+     * than it has frames.
+     */
+    @Test public void testDiscardWithEviction() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        final int poolPages = 16;
+        final BufferPool pool = Database.resetBufferPool(poolPages);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread discarder = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    for (int i = 0; i < f.numPages(); i++)
+                        pool.discardPage(new HeapPageId(f.getId(), i));
+                }
+            }
+        };
+        discarder.start();
+        try {
+            runScans(f, 8, expectedSum(tuples));
+        } finally {
+            done.set(true);
+            discarder.join();
+        }
+
+        // with the frames counted right, one more scan still fits the pool
+        scanSum(f);
+        assertTrue(pool.getNumResidentPages() <= poolPages);
+    }
+
+    /** A page somebody has pinned is not discarded from under them. */
+    @Test public void testDiscardPinned() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null);
+        BufferPool pool = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+
+        pool.pinPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        pool.discardPage(pid);
+        assertTrue(pool.isResident(pid));
+        pool.unpinPage(pid);
+
+        pool.discardPage(pid);
+        assertFalse(pool.isResident(pid));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ConcurrentScanTest.class);
+    }
+}
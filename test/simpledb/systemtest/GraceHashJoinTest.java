@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Joins tables far larger than a GraceHashJoin's memory budget, checks the
+ * result against an in-memory join, and that the partitions were spilled,
+ * split again, or joined a chunk at a time as their sizes call for.
+ */
+public class GraceHashJoinTest extends SimpleDbTestBase {
+    /** 4 pages: 2 partitions a round and 1024 two-int tuples in memory */
+    private static final int PAGES = 4;
+
+    @After public void restoreMemory() {
+        GraceHashJoin.setMemoryPages(GraceHashJoin.DEFAULT_MEMORY_PAGES);
+    }
+
+    /** @return the number of times each tuple of t1 JOIN t2 ON t1.0 = t2.0 occurs */
+    private static HashMap<ArrayList<Integer>, Integer> expected(ArrayList<ArrayList<Integer>> t1Tuples,
+            ArrayList<ArrayList<Integer>> t2Tuples) {
+        HashMap<ArrayList<Integer>, Integer> out = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> t : SystemTestUtil.expectedJoin(t1Tuples, t2Tuples, Predicate.Op.EQUALS)) {
+            Integer n = out.get(t);
+            out.put(t, n == null ? 1 : n + 1);
+        }
+        return out;
+    }
+
+    /** Runs join and checks that it returns exactly the tuples counted in expected. */
+    private static void matchJoin(DbIterator join, HashMap<ArrayList<Integer>, Integer> expected)
+            throws Exception {
+        HashMap<ArrayList<Integer>, Integer> left = new HashMap<ArrayList<Integer>, Integer>(expected);
+        join.open();
+        while (join.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(join.next());
+            Integer n = left.get(t);
+            assertNotNull("unexpected tuple " + t, n);
+            if (n == 1)
+                left.remove(t);
+            else
+                left.put(t, n - 1);
+        }
+        join.close();
+        assertTrue("missing " + left.size() + " tuples", left.isEmpty());
+    }
+
+    private GraceHashJoin join(TransactionId tid, HeapFile table1, HeapFile table2, boolean buildLeft) {
+        return new GraceHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""),
+                buildLeft, PAGES);
+    }
+
+    @Test public void testSpillsAndRepartitions() throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 10000, 20000, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 10000, 20000, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        GraceHashJoin join = join(tid, table1, table2, false);
+        matchJoin(join, expected(t1Tuples, t2Tuples));
+        // 10000 tuples halve 4 times to fit in 1024
+        assertTrue(join.getSpilledPartitions() > 2);
+        assertTrue(join.getDeepestLevel() >= 3);
+        assertEquals(0, join.getNestedPartitions());
+        System.out.println("GraceHashJoinTest: 10000 x 10000 join in " + PAGES + " pages spilled "
+                + join.getSpilledPartitions() + " partitions, " + join.getDeepestLevel() + " rounds deep");
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSkewedKey() throws Exception {
+        // 3000 build tuples with one key never split, and are joined 1024 at a time
+        HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+        columnSpecification.put(0, 7);
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 5, columnSpecification, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 3000, columnSpecification, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        GraceHashJoin join = join(tid, table1, table2, false);
+        matchJoin(join, expected(t1Tuples, t2Tuples));
+        assertEquals(1, join.getNestedPartitions());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildLeftAndRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 2000, 500, null, t2Tuples);
+        HashMap<ArrayList<Integer>, Integer> expected = expected(t1Tuples, t2Tuples);
+        int total = 0;
+        for (int n : expected.values())
+            total += n;
+
+        TransactionId tid = new TransactionId();
+        GraceHashJoin join = join(tid, table1, table2, true);
+        join.open();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        assertEquals(total, n);
+        assertTrue(join.getSpilledPartitions() > 0);
+
+        // joined again from the start, with new partition files
+        join.rewind();
+        n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        assertEquals(total, n);
+        join.close();
+
+        matchJoin(join(tid, table1, table2, true), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerChoosesBySize() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null, "a");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null, "b");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile f : new HeapFile[] { big, small }) {
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), 1000));
+        }
+
+        // 3000 tuples fit in the default 50 pages, not in 2
+        for (int pages : new int[] { GraceHashJoin.DEFAULT_MEMORY_PAGES, 2 }) {
+            GraceHashJoin.setMemoryPages(pages);
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(big.getId(), "g");
+            lp.addScan(small.getId(), "s");
+            lp.addJoin("g.a0", "s.b0", Predicate.Op.EQUALS);
+            lp.addProjectField("s.b0", null);
+            DbIterator node = lp.physicalPlan(new TransactionId(), stats, false);
+            while (node instanceof Operator && !(node instanceof HashJoin)
+                    && !(node instanceof GraceHashJoin))
+                node = ((Operator) node).getChildren()[0];
+            if (pages == 2) {
+                assertTrue(node instanceof GraceHashJoin);
+                assertFalse(((GraceHashJoin) node).buildLeft);
+            } else {
+                assertTrue(node instanceof HashJoin);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GraceHashJoinTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Indexes a table with an extendible hash index, checks that lookups
+ * return exactly what a filtered sequential scan does as the table
+ * changes, and that an equality join probes the index. Reports how many
+ * pages a point lookup reads.
+ */
+public class HashIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int KEYS = 20000;
+
+    private static List<String> filtered(HeapFile f, int v) throws Exception {
+        return SystemTestUtil.drainSorted(new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(v)),
+                new SeqScan(new TransactionId(), f.getId(), "")));
+    }
+
+    private static List<String> looked(HashFile index, int v) throws Exception {
+        return SystemTestUtil.drainSorted(new IndexScan(new TransactionId(), index, Predicate.Op.EQUALS, new IntField(v), ""));
+    }
+
+    private static void checkAgainstScan(HeapFile f, HashFile index, int... keys) throws Exception {
+        for (int v : keys)
+            assertEquals("key " + v, filtered(f, v), looked(index, v));
+        assertEquals(SystemTestUtil.drainSorted(new SeqScan(new TransactionId(), f.getId(), "")),
+                SystemTestUtil.drainSorted(new IndexScan(new TransactionId(), index, null, null, "")));
+    }
+
+    @Test public void testBuildAndLookup() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, tuples);
+        HashFile index = new HashFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        index.build(new TransactionId());
+
+        checkAgainstScan(f, index, -1, 0, tuples.get(0).get(0), tuples.get(ROWS - 1).get(0), KEYS);
+
+        // a lookup reads the directory, a bucket and the heap pages of its matches
+        int key = tuples.get(ROWS / 2).get(0);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> viaScan = filtered(f, key);
+        long scanReads = pool.getMissCount() + pool.getPrefetchCount();
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> viaIndex = looked(index, key);
+        long indexReads = pool.getMissCount() + pool.getPrefetchCount();
+        assertEquals(viaScan, viaIndex);
+        assertTrue(indexReads <= 2 + viaIndex.size());
+        System.out.printf("HashIndexTest: point lookup in %d rows, %d index pages, SeqScan+Filter read %d pages, hash index %d%n",
+                ROWS, index.numPages(), scanReads, indexReads);
+    }
+
+    @Test public void testMaintainedByBufferPool() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashFile index = new HashFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        // enough distinct keys to split buckets and grow the directory, and
+        // enough copies of one key to need overflow pages
+        Random r = new Random(5);
+        for (int i = 0; i < ROWS; i++)
+            pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { r.nextInt(KEYS), i }));
+        for (int i = 0; i < 1500; i++)
+            pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 7, -i }));
+        assertTrue(index.numPages() > 60);
+        checkAgainstScan(f, index, 7, 0, 1, KEYS / 2, KEYS - 1);
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(1)).getValue() % 3 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            pool.deleteTuple(tid, t);
+        checkAgainstScan(f, index, 7, 0, 1, KEYS / 2, KEYS - 1);
+
+        // the index survives being written out and read back
+        pool.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkAgainstScan(f, index, 7, 0, 1, KEYS / 2, KEYS - 1);
+    }
+
+    @Test public void testInsertsWhilePoolEvicts() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashFile index = new HashFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        SystemTestUtil.insertWhileEvicting(f, ROWS / 2, KEYS);
+        checkAgainstScan(f, index, 0, 1, KEYS / 2, KEYS - 1);
+    }
+
+    @Test public void testJoinProbesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 200, 1000, null, outerTuples, "a");
+        ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, innerTuples, "b");
+        HashFile index = new HashFile(SystemTestUtil.createTempIndexFile(), inner.getId(), 0, inner.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        index.build(new TransactionId());
+
+        ArrayList<ArrayList<Integer>> expected =
+                SystemTestUtil.expectedJoin(outerTuples, innerTuples, Predicate.Op.EQUALS);
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("o", "i", "o.a0", "i.b0", Predicate.Op.EQUALS);
+        DbIterator join = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        assertTrue(join instanceof IndexJoin);
+        SystemTestUtil.matchTuples(join, expected);
+
+        // rewinding replays the outer side and probes again
+        join = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0;
+            while (join.hasNext()) {
+                join.next();
+                n++;
+            }
+            assertEquals(expected.size(), n);
+            join.rewind();
+        }
+        join.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks HashJoin against the nested-loop result, building from either side,
+ * and that the planner picks it for equality joins.
+ */
+public class HashJoinTest extends SimpleDbTestBase {
+    private void validateJoin(int rows1, int rows2, int maxValue, boolean buildLeft) throws Exception {
+        // few distinct keys, so that both sides have duplicates
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, rows1, maxValue, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, rows2, maxValue, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), buildLeft);
+        assertEquals(5, join.getTupleDesc().numFields());
+
+        ArrayList<ArrayList<Integer>> expectedResults = SystemTestUtil.expectedJoin(t1Tuples, t2Tuples, Predicate.Op.EQUALS);
+        SystemTestUtil.matchTuples(join, expectedResults);
+
+        // rewinding probes the table built on the first pass again
+        join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), buildLeft);
+        join.open();
+        while (join.hasNext())
+            join.next();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        assertEquals(expectedResults.size(), n);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildRight() throws Exception {
+        validateJoin(300, 50, 20, false);
+    }
+
+    @Test public void testBuildLeft() throws Exception {
+        validateJoin(50, 300, 20, true);
+    }
+
+    @Test public void testNoMatch() throws Exception {
+        HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+        columnSpecification.put(0, 1);
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 10, columnSpecification, null);
+        columnSpecification.put(0, 2);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 10, columnSpecification, null);
+
+        TransactionId tid = new TransactionId();
+        HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(join, new ArrayList<ArrayList<Integer>>());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerBuildsSmallerSide() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null, "a");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, null, "b");
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(big.getId(), "g");
+        lp.addJoin("s.b0", "g.a0", Predicate.Op.EQUALS);
+        lp.addProjectField("s.b0", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile f : new HeapFile[] { big, small }) {
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), 1000));
+        }
+        DbIterator node = lp.physicalPlan(new TransactionId(), stats, false);
+        while (node instanceof Operator && !(node instanceof HashJoin))
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof HashJoin);
+        assertTrue(((HashJoin) node).buildLeft);
+
+        // without estimates the inner side is built
+        assertTrue(JoinOptimizer.instantiateJoin(new LogicalJoinNode("s", "g", "b0", "a0",
+                Predicate.Op.EQUALS), new SeqScan(new TransactionId(), small.getId(), "s"),
+                new SeqScan(new TransactionId(), big.getId(), "g")) instanceof HashJoin);
+        try {
+            new HashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                    new SeqScan(new TransactionId(), small.getId(), "s"),
+                    new SeqScan(new TransactionId(), big.getId(), "g"));
+            fail("a hash join can only match equal keys");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
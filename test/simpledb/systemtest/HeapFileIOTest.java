@@ -0,0 +1,245 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that HeapFile's long-lived channel survives being closed and
+ * reopened, and compares the cost of reading a page through it with the
+ * old approach of opening the file and asking for its length on every read.
+ */
+public class HeapFileIOTest extends SimpleDbTestBase {
+    private static final int PAGES = 100;
+    private static final int ROUNDS = 20;
+
+    @Test public void testCloseAndReopen() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        f.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(3, f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testWriteReadRoundTrip() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapPageId pid = new HeapPageId(f.getId(), 1);
+        HeapPage page = (HeapPage) f.readPage(pid);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        f.writePage(page);
+
+        HeapPage reread = (HeapPage) f.readPage(pid);
+        assertEquals(1, reread.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+    }
+
+    /** Reads every page the way HeapFile used to: a new file handle and a stat per read. */
+    private static long readOpenPerCall(File file, int tableId) throws Exception {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < PAGES; i++) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                assertTrue(i < (int) (file.length() / BufferPool.PAGE_SIZE));
+                byte[] data = new byte[BufferPool.PAGE_SIZE];
+                raf.seek((long) i * BufferPool.PAGE_SIZE);
+                raf.read(data);
+                raf.close();
+                new HeapPage(new HeapPageId(tableId, i), data);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long readThroughChannel(HeapFile f) {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < PAGES; i++) {
+                assertTrue(i < f.numPages());
+                f.readPage(new HeapPageId(f.getId(), i));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test public void testReadPageMicrobenchmark() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, f.numPages());
+
+        // warm up both paths before timing them
+        readOpenPerCall(f.getFile(), f.getId());
+        readThroughChannel(f);
+
+        long old = readOpenPerCall(f.getFile(), f.getId());
+        long now = readThroughChannel(f);
+        System.out.printf("HeapFileIOTest: open per read %.1f us/page, persistent channel %.1f us/page%n",
+                old / 1e3 / (PAGES * ROUNDS), now / 1e3 / (PAGES * ROUNDS));
+    }
+
+    /**
+     * Times decoding pages as a scan does, with and without serializing
+     * each page again right away, which is what capturing the before image
+     * eagerly used to cost on every read.
+     */
+    @Test public void testPageLoadBenchmark() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        byte[][] raw = new byte[PAGES][];
+        for (int i = 0; i < PAGES; i++)
+            raw[i] = ((HeapPage) f.readPage(new HeapPageId(f.getId(), i))).getPageData();
+
+        long eager = 0, lazy = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < PAGES; i++)
+                new HeapPage(new HeapPageId(f.getId(), i), raw[i]).getPageData();
+            eager += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < PAGES; i++)
+                new HeapPage(new HeapPageId(f.getId(), i), raw[i]);
+            lazy += System.nanoTime() - start;
+        }
+        System.out.printf("HeapFileIOTest: page load with eager before image %.1f us/page, lazy %.1f us/page%n",
+                eager / 1e3 / (PAGES * ROUNDS), lazy / 1e3 / (PAGES * ROUNDS));
+    }
+
+    /**
+     * Scans a wide table reading one column, then every column, which is
+     * what decoding every field on each page read used to cost regardless.
+     */
+    @Test public void testOneColumnOfWideTable() throws Exception {
+        final int columns = 20;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, 50 * PAGES, null, null);
+        long all = 0, one = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            all += timeColumnScan(f, columns);
+            one += timeColumnScan(f, 1);
+        }
+        System.out.printf("HeapFileIOTest: %d-column scan, all fields %.1f ms, one field %.1f ms%n",
+                columns, all / 1e6 / ROUNDS, one / 1e6 / ROUNDS);
+    }
+
+    private static long timeColumnScan(HeapFile f, int columns) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+        scan.open();
+        long sum = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            for (int i = 0; i < columns; i++)
+                sum += ((IntField) t.getField(i)).getValue();
+        }
+        scan.close();
+        assertTrue(sum != 0);
+        return System.nanoTime() - start;
+    }
+
+    /** Serializes a page the way getPageData used to: streams and a byte at a time. */
+    private static byte[] streamPageData(HeapPage page, byte[] header, int numSlots,
+            TupleDesc td) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < header.length; i++)
+            dos.writeByte(header[i]);
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < numSlots; i++) {
+            if (!page.isSlotUsed(i)) {
+                for (int j = 0; j < td.getSize(); j++)
+                    dos.writeByte(0);
+                continue;
+            }
+            Tuple t = it.next();
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        }
+        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * numSlots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** @return bytes allocated by this thread so far, or -1 if the JVM cannot tell */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    /**
+     * Compares serializing a half-full page of (int, string) tuples through
+     * streams, as getPageData used to, with writing it into a reused buffer.
+     */
+    @Test public void testPageSerializationBenchmark() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        int tableId = 0x5e71a1;
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(tableId, td), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(tableId, 0), HeapPage.createEmptyPageData());
+        int numSlots = page.getNumEmptySlots();
+        for (int i = 0; i < numSlots / 2; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("value" + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        byte[] expected = page.getPageData();
+        byte[] header = Arrays.copyOf(expected, (numSlots + 7) / 8);
+        assertArrayEquals(expected, streamPageData(page, header, numSlots, td));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        final int reps = 2000;
+        for (int r = 0; r < reps; r++) { // warm up both paths
+            streamPageData(page, header, numSlots, td);
+            buf.clear();
+            page.writePageData(buf);
+        }
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int r = 0; r < reps; r++)
+            streamPageData(page, header, numSlots, td);
+        long streamTime = System.nanoTime() - start;
+        long streamBytes = allocatedBytes() - bytes;
+
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int r = 0; r < reps; r++) {
+            buf.clear();
+            page.writePageData(buf);
+        }
+        long bufferTime = System.nanoTime() - start;
+        long bufferBytes = allocatedBytes() - bytes;
+
+        buf.flip();
+        byte[] written = new byte[BufferPool.PAGE_SIZE];
+        buf.get(written);
+        assertArrayEquals(expected, written);
+
+        System.out.printf("HeapFileIOTest: page serialization, streams %.2f us/page %d B/page, buffer %.2f us/page %d B/page%n",
+                streamTime / 1e3 / reps, streamBytes / reps, bufferTime / 1e3 / reps, bufferBytes / reps);
+        if (bytes >= 0)
+            assertTrue(bufferBytes < streamBytes);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapFileIOTest.class);
+    }
+}
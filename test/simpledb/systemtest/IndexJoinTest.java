@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Joins a small table with a large one that has a B+tree index on the join
+ * field, checks that the planner picks an index nested-loop join from the
+ * tables' sizes and that its result is right, and reports how many pages
+ * it reads compared to scanning the large table.
+ */
+public class IndexJoinTest extends SimpleDbTestBase {
+    private static final int INNER_ROWS = 60000;
+
+    private static BTreeFile index(HeapFile f) throws Exception {
+        BTreeFile index = new BTreeFile(SystemTestUtil.createTempIndexFile(), f.getId(), 0, f.getTupleDesc());
+        Database.getCatalog().addIndex(index);
+        index.build(new TransactionId());
+        return index;
+    }
+
+    /** @return the physical plan of o JOIN i ON o.a0 = i.b0 */
+    private static DbIterator plan(HeapFile outer, HeapFile inner) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        lp.addJoin("o.a0", "i.b0", Predicate.Op.EQUALS);
+        lp.addProjectField("o.a0", null);
+        lp.addProjectField("o.a1", null);
+        lp.addProjectField("i.b0", null);
+        lp.addProjectField("i.b1", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile f : new HeapFile[] { outer, inner }) {
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), 1000));
+        }
+        return lp.physicalPlan(new TransactionId(), stats, false);
+    }
+
+    /** @return the first join below the projection */
+    private static DbIterator join(DbIterator plan) {
+        DbIterator node = plan;
+        while (node instanceof Operator && !(node instanceof Join) && !(node instanceof IndexJoin)
+                && !(node instanceof HashJoin))
+            node = ((Operator) node).getChildren()[0];
+        return node;
+    }
+
+    @Test public void testSmallOuterProbesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 10, INNER_ROWS, null, outerTuples, "a");
+        ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, INNER_ROWS, INNER_ROWS, null, innerTuples, "b");
+        BTreeFile index = index(inner);
+
+        DbIterator plan = plan(outer, inner);
+        assertTrue(join(plan) instanceof IndexJoin);
+
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(plan, SystemTestUtil.expectedJoin(outerTuples, innerTuples, Predicate.Op.EQUALS));
+        long reads = pool.getMissCount() + pool.getPrefetchCount();
+        assertTrue(reads * 2 < inner.numPages());
+        System.out.printf("IndexJoinTest: 10 x %d row join, %d tree pages, IndexJoin read %d pages, a scan of the inner table %d%n",
+                INNER_ROWS, index.numPages(), reads, inner.numPages());
+    }
+
+    @Test public void testLargeOuterScans() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null, "a");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null, "b");
+        index(inner);
+
+        // probing 20000 times costs more than hashing the inner side once
+        assertTrue(join(plan(outer, inner)) instanceof HashJoin);
+    }
+
+    @Test public void testRangeProbe() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 20, 1000, null, outerTuples, "a");
+        ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, innerTuples, "b");
+        BTreeFile index = index(inner);
+
+        // o.a0 > i.b0 asks the tree for the inner tuples less than each outer value
+        TransactionId tid = new TransactionId();
+        IndexJoin join = new IndexJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new SeqScan(tid, outer.getId(), "o"),
+                new IndexScan(tid, index, Predicate.Op.LESS_THAN, null, "i"));
+        SystemTestUtil.matchTuples(join, SystemTestUtil.expectedJoin(outerTuples, innerTuples, Predicate.Op.GREATER_THAN));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import simpledb.*;
 
 import static org.junit.Assert.*;
@@ -10,6 +11,11 @@ import org.junit.Test;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows, boolean bulk)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -23,7 +29,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulk);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -68,6 +74,139 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkEmptyToEmpty()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(3, 0, 0, true);
+    }
+
+    @Test public void testBulkOneToOne()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(1, 1, 1, true);
+    }
+
+    @Test public void testBulkManyToSome()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(2, 504 * 70 + 3, 1000, true);
+    }
+
+    @Test public void testBulkAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 504 * 70 + 3, null, sourceTuples);
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 1000, null, destinationTuples);
+        int pages = destination.numPages();
+
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId(), true);
+        insOp.open();
+        while (insOp.hasNext())
+            insOp.next();
+        insOp.close();
+        assertTrue(destination.numPages() > pages);
+
+        // the rows are gone once the transaction aborts
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(pages, destination.numPages());
+        SystemTestUtil.matchTuples(destination, destinationTuples);
+
+        // and stay gone once the table is opened again
+        HeapFile reopened = Utility.openHeapFile(2, destination.getFile());
+        assertEquals(pages, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, destinationTuples);
+    }
+
+    @Test public void testBulkWithConcurrentInsert() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        final HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 1000, null, expected);
+        final ArrayList<Tuple> loaded = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 20; ++i) {
+            loaded.add(Utility.getHeapTuple(new int[] { i, i }));
+            expected.add(SystemTestUtil.tupleToList(loaded.get(i)));
+        }
+        expected.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(new int[] { -1, -1 })));
+
+        // halfway through the load another session inserts into the table
+        final Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    TransactionId tid = new TransactionId();
+                    destination.insertTuple(tid, Utility.getHeapTuple(new int[] { -1, -1 }));
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        final Iterator<Tuple> it = loaded.iterator();
+        Iterator<Tuple> tuples = new Iterator<Tuple>() {
+            int pulled = 0;
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Tuple next() {
+                if (++pulled == loaded.size() / 2) {
+                    inserter.start();
+                    try {
+                        inserter.join(5000);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    assertFalse("insert blocked by the load", inserter.isAlive());
+                }
+                return it.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        assertEquals(loaded.size(), destination.bulkAppend(tuples));
+        Database.getBufferPool().flushAllPages();
+        SystemTestUtil.matchTuples(destination, expected);
+    }
+
+    /** Loads the rows of source into an empty table and returns the time taken. */
+    private long timeLoad(HeapFile source, boolean bulk) throws Exception {
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        int emptyPages = destination.numPages();
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId(), bulk);
+
+        long start = System.nanoTime();
+        insOp.open();
+        int count = ((IntField) insOp.next().getField(0)).getValue();
+        insOp.close();
+        Database.getBufferPool().flushAllPages();
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(destination.numPages() <= emptyPages + source.numPages());
+        assertEquals(504 * source.numPages(), count);
+        return elapsed;
+    }
+
+    @Test public void testBulkLoadThroughput() throws Exception {
+        final int PAGES = 200;
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        timeLoad(source, false);
+        timeLoad(source, true);
+
+        // the best of a few loads each, so that a pause in one does not decide
+        long single = Long.MAX_VALUE;
+        long bulk = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            single = Math.min(single, timeLoad(source, false));
+            bulk = Math.min(bulk, timeLoad(source, true));
+        }
+        double mb = (double) PAGES * BufferPool.PAGE_SIZE / (1 << 20);
+        System.out.printf("InsertTest: %d rows, one at a time %.1f MB/s, bulk %.1f MB/s%n",
+                504 * PAGES, mb / (single / 1e9), mb / (bulk / 1e9));
+        assertTrue("bulk load no faster than single inserts", bulk < single);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Plans queries with a LIMIT through the parser, checks that ORDER BY ...
+ * LIMIT keeps only the best tuples with a TopN, and that a LIMIT alone
+ * stops the scan under it early.
+ */
+public class LimitTest extends SimpleDbTestBase {
+    private static final int PAGES = 100;
+
+    private static HeapFile table(String name, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, 1000000, null, tuples, "f");
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    private static DbIterator plan(TransactionId tid, HeapFile hf, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    private static ArrayList<Integer> run(DbIterator plan) throws Exception {
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            out.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        return out;
+    }
+
+    @Test public void testOrderByLimit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = table("topn", tuples);
+        TransactionId tid = new TransactionId();
+
+        DbIterator plan = plan(tid, hf, "SELECT t.f0 FROM topn t ORDER BY t.f0 DESC LIMIT 5;");
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            keys.add(t.get(0));
+        Collections.sort(keys, Collections.reverseOrder());
+        assertEquals(keys.subList(0, 5), run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitStopsScan() throws Exception {
+        HeapFile hf = table("limited", null);
+        TransactionId tid = new TransactionId();
+
+        DbIterator plan = plan(tid, hf, "select t.f0 from limited t where t.f1 > 10 limit 10;");
+        // planning scans the table for its statistics
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(10, run(plan).size());
+        long reads = pool.getMissCount() + pool.getPrefetchCount();
+        // the first page and the pages read ahead of it, not all 100
+        assertTrue("read " + reads, reads <= 1 + BufferPool.DEFAULT_READ_AHEAD * 2);
+        System.out.println("LimitTest: LIMIT 10 over " + PAGES + " pages read " + reads + " pages");
+
+        // without a LIMIT every tuple comes back
+        plan = plan(tid, hf, "SELECT t.f0 FROM limited t;");
+        assertEquals(504 * PAGES, run(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitOfFirstStatementOnly() throws Exception {
+        HeapFile hf = table("several", null);
+        TransactionId tid = new TransactionId();
+
+        // a query file holds more statements than the one that is run
+        assertEquals(3, run(plan(tid, hf,
+                "SELECT t.f0 FROM several t LIMIT 3;\nSELECT t.f0 FROM several t LIMIT 5;")).size());
+        assertEquals(504 * PAGES, run(plan(tid, hf,
+                "SELECT t.f0 FROM several t;\nSELECT t.f0 FROM several t LIMIT 5;")).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimitOnlyOnQueries() throws Exception {
+        HeapFile hf = table("kept", null);
+        new Parser().processNextStatement("DELETE FROM kept LIMIT 1;");
+        TransactionId tid = new TransactionId();
+        assertEquals(504 * PAGES, run(plan(tid, hf, "SELECT t.f0 FROM kept t;")).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LimitTest.class);
+    }
+}
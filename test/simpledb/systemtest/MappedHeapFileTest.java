@@ -0,0 +1,124 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables through MappedHeapFile, checks that the mapping follows the
+ * file as it grows, and compares SeqScan over the mapped and channel read
+ * paths.
+ */
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private static MappedHeapFile openMapped(File file, int columns) {
+        MappedHeapFile f = new MappedHeapFile(file, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    @Test public void testScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(3, 3000, 1000, null, tuples);
+        MappedHeapFile f = openMapped(file, 3);
+
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testGrowth() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 1000, null, tuples);
+        MappedHeapFile f = openMapped(file, 2);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(2, f.numPages());
+
+        // fill the last page and append two more past the mapped length
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i);
+            tuples.add(t);
+        }
+        Database.getBufferPool().flushAllPages();
+        assertEquals(5, f.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testTuplesOutliveWrites() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504, 1000, null, tuples);
+        MappedHeapFile f = openMapped(file, 2);
+
+        // tuples are decoded from the page bytes as they are used, and
+        // writing the page back zeroes the deleted slots in the mapping
+        TransactionId tid = new TransactionId();
+        HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+        Iterator<Tuple> it = pg.iterator();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        Tuple second = it.next();
+        Database.getBufferPool().deleteTuple(tid, second);
+        Database.getBufferPool().flushAllPages();
+
+        assertEquals(tuples.get(1), SystemTestUtil.tupleToList(second));
+        tuples.remove(1);
+        tuples.remove(0);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** Scans f ROUNDS times, each from a cold pool, and returns the average time. */
+    private static double timeScans(HeapFile f, int rows) throws Exception {
+        final int ROUNDS = 5;
+        long total = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            pool.setReadAheadPages(0);
+
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+            scan.open();
+            int count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+            total += System.nanoTime() - start;
+            assertEquals(rows, count);
+        }
+        return total / 1e6 / ROUNDS;
+    }
+
+    @Test public void testSeqScanBenchmark() throws Exception {
+        final int ROWS = 504 * 200;
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        // both files have the id of the underlying file, so registering
+        // one replaces the other in the catalog
+        HeapFile channel = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(channel, SystemTestUtil.getUUID());
+        timeScans(channel, ROWS);
+        double channelMs = timeScans(channel, ROWS);
+
+        MappedHeapFile mapped = openMapped(file, 2);
+        timeScans(mapped, ROWS);
+        double mappedMs = timeScans(mapped, ROWS);
+
+        System.out.printf("MappedHeapFileTest: 200-page SeqScan, channel %.1f ms, mapped %.1f ms%n",
+                channelMs, mappedMs);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a wide table in both the row and the PAX page layout, checks that
+ * both hold the same tuples and give the same aggregates, and reports how
+ * much faster an aggregate over one column runs on the PAX table.
+ */
+public class PaxHeapFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 30000;
+
+    /** Writes ROWS lines of COLUMNS ints; column 1 has 10 distinct values. */
+    private static File writeRows() throws IOException {
+        File txt = File.createTempFile("wide", ".txt");
+        txt.deleteOnExit();
+        Random r = new Random(11);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(txt)));
+        for (int i = 0; i < ROWS; i++) {
+            StringBuilder line = new StringBuilder().append(i).append(',').append(i % 10);
+            for (int j = 2; j < COLUMNS; j++)
+                line.append(',').append(r.nextInt(1000));
+            w.println(line);
+        }
+        w.close();
+        return txt;
+    }
+
+    /** @return the tuples of it as strings, in order */
+    private static List<String> drain(DbIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        return rows;
+    }
+
+    /** @return AVG(column 2) GROUP BY column 1 over f, sorted */
+    private static List<String> avgByGroup(DbFile f) throws Exception {
+        List<String> rows = drain(new Aggregate(new SeqScan(new TransactionId(), f.getId(), ""),
+                2, 1, Aggregator.Op.AVG));
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void testConvertAndAggregate() throws Exception {
+        File txt = writeRows();
+        File rowDat = SystemTestUtil.createTempDataFile("wide");
+        File paxDat = SystemTestUtil.createTempDataFile("wide");
+        Type[] types = Utility.getTypes(COLUMNS);
+        HeapFileEncoder.convert(txt, rowDat, BufferPool.PAGE_SIZE, COLUMNS, types, ',');
+        HeapFileEncoder.convertPax(txt, paxDat, BufferPool.PAGE_SIZE, COLUMNS, types, ',');
+
+        HeapFile rows = SystemTestUtil.register(new HeapFile(rowDat, Utility.getTupleDesc(COLUMNS)));
+        PaxHeapFile pax = SystemTestUtil.register(new PaxHeapFile(paxDat, Utility.getTupleDesc(COLUMNS)));
+        assertEquals(rows.numPages(), pax.numPages());
+        assertEquals(SystemTestUtil.contents(rows), SystemTestUtil.contents(pax));
+        assertEquals(10, avgByGroup(pax).size());
+        assertEquals(avgByGroup(rows), avgByGroup(pax));
+
+        List<String> sum = drain(new Aggregate(new SeqScan(new TransactionId(), pax.getId(), ""),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.SUM));
+        assertEquals(Arrays.asList(String.valueOf(ROWS * (ROWS - 1) / 2)), sum);
+
+        long rowTime = 0, paxTime = 0;
+        final int rounds = 10;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            avgByGroup(rows);
+            rowTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            avgByGroup(pax);
+            paxTime += System.nanoTime() - start;
+        }
+        System.out.printf("PaxHeapFileTest: AVG GROUP BY over %d rows x %d columns, rows %.1f ms, PAX %.1f ms (%.1fx)%n",
+                ROWS, COLUMNS, rowTime / 1e6 / rounds, paxTime / 1e6 / rounds, (double) rowTime / paxTime);
+    }
+
+    @Test public void testInsertDelete() throws Exception {
+        PaxHeapFile f = SystemTestUtil.register(
+                new PaxHeapFile(SystemTestUtil.createTempDataFile("wide"), Utility.getTupleDesc(COLUMNS)));
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = Utility.getHeapTuple(i % 10, COLUMNS);
+            t.setField(0, new IntField(i));
+            pool.insertTuple(tid, f.getId(), t);
+            expected.add(t.toString());
+        }
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            pool.deleteTuple(tid, t);
+            expected.remove(t.toString());
+        }
+        pool.flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(new HashSet<String>(expected), new HashSet<String>(SystemTestUtil.contents(f)));
+    }
+
+    @Test public void testCatalogFormat() throws Exception {
+        File dir = SystemTestUtil.createTempDataFile("wide").getParentFile();
+        String name = "pax" + SystemTestUtil.getUUID().replace("-", "");
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(schema));
+        w.println(name + " (id int, score int) pax");
+        w.close();
+        assertEquals(dir, schema.getParentFile());
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof PaxHeapFile);
+        new File(dir, name + ".dat").deleteOnExit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
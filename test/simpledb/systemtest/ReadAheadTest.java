@@ -0,0 +1,124 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that sequential scans read pages ahead into the buffer pool, that
+ * the prefetched pages are the ones the scan then uses, and reports how much
+ * overlapping I/O with processing saves when reads are slow.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 60;
+
+    /** A heap file whose reads take a while, like a cold disk. */
+    private static class SlowHeapFile extends HeapFile {
+        private final long delay;
+
+        public SlowHeapFile(File f, TupleDesc td, long delay) {
+            super(f, td);
+            this.delay = delay;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    @Test public void testPrefetchDuringScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, null, tuples);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(pool.getNumResidentPages() <= BufferPool.DEFAULT_PAGES);
+        assertTrue(pool.getPrefetchCount() > 0);
+        assertTrue(pool.getPrefetchHitCount() > 0);
+        assertTrue(pool.getPrefetchHitCount() + pool.getPrefetchWasteCount()
+                <= pool.getPrefetchCount());
+        // pages read ahead are not read again by the scan
+        assertEquals(PAGES, pool.getMissCount() + pool.getPrefetchCount());
+    }
+
+    @Test public void testDisabled() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, null, tuples);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setReadAheadPages(0);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, pool.getPrefetchCount());
+        assertEquals(PAGES, pool.getMissCount());
+    }
+
+    /** Scans a slow table, doing some work per page, and returns the time taken. */
+    private static long timeScan(HeapFile f, int readAhead) throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setReadAheadPages(readAhead);
+
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            if (++count % 992 == 0)
+                Thread.sleep(2);
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(992 * PAGES, count);
+        System.out.printf("ReadAheadTest: read-ahead %d, %.1f ms, %d prefetched, %d hits, %d wasted%n",
+                readAhead, elapsed / 1e6, pool.getPrefetchCount(),
+                pool.getPrefetchHitCount(), pool.getPrefetchWasteCount());
+        return elapsed;
+    }
+
+    @Test public void testOverlap() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile f = new SlowHeapFile(file, Utility.getTupleDesc(1), 2);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        timeScan(f, 0);
+        timeScan(f, BufferPool.DEFAULT_READ_AHEAD);
+    }
+
+    @Test public void testCloseCancelsPrefetches() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile f = new SlowHeapFile(file, Utility.getTupleDesc(1), 50);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // the window grows to its largest while the first reads are slow
+        ReadAhead readAhead = new ReadAhead(pool, f.getId(), PAGES, null);
+        for (int i = 0; i < 4; ++i)
+            readAhead.advance(i);
+        assertEquals(BufferPool.DEFAULT_READ_AHEAD, readAhead.getWindow());
+        readAhead.close();
+
+        // only the reads the I/O threads had started are done
+        Thread.sleep(500);
+        long prefetched = pool.getPrefetchCount();
+        assertTrue("prefetched " + prefetched, prefetched <= 4);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
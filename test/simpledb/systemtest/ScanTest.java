@@ -105,6 +105,28 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a scan of a table larger than the pool does not evict
+     * the pages of a small table that is in use. */
+    @Test public void testLargeScanKeepsHotPages() throws IOException, DbException, TransactionAbortedException {
+        final int BUFFER_PAGES = 40;
+        ArrayList<ArrayList<Integer>> hotTuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(1, 992*8, null, hotTuples);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992*100, null, bigTuples);
+        BufferPool pool = Database.resetBufferPool(BUFFER_PAGES);
+        assertFalse(pool.isLargeScan(hot.numPages()));
+        assertTrue(pool.isLargeScan(big.numPages()));
+
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        SystemTestUtil.matchTuples(big, bigTuples);
+        assertTrue(pool.getNumResidentPages() <= BUFFER_PAGES);
+
+        // the small table is still entirely in the pool
+        pool.resetStats();
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(0, pool.getMissCount());
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
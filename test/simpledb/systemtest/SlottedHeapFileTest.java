@@ -0,0 +1,131 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a table of short codes in both the fixed-size and the slotted page
+ * format, checks that both hold the same tuples through inserts, deletes
+ * and the catalog, and reports how much less a scan reads from the
+ * slotted file.
+ */
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "code" });
+    private static final int ROWS = 20000;
+
+    /** Writes ROWS lines of an id and a short code, as HeapFileEncoder reads them. */
+    private static File writeCodes(List<String> lines) throws IOException {
+        File txt = File.createTempFile("codes", ".txt");
+        txt.deleteOnExit();
+        Random r = new Random(7);
+        PrintWriter w = new PrintWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++) {
+            String line = i + ",C" + Integer.toString(r.nextInt(1 << 20), 36).toUpperCase();
+            lines.add(line.replace(',', ' '));
+            w.println(line);
+        }
+        w.close();
+        return txt;
+    }
+
+    @Test public void testConvertAndScan() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        File txt = writeCodes(lines);
+        File fixedDat = SystemTestUtil.createTempDataFile("codes");
+        File slottedDat = SystemTestUtil.createTempDataFile("codes");
+        HeapFileEncoder.convert(txt, fixedDat, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+        HeapFileEncoder.convertSlotted(txt, slottedDat, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+
+        HeapFile fixed = SystemTestUtil.register(new HeapFile(fixedDat, TD));
+        SlottedHeapFile slotted = SystemTestUtil.register(new SlottedHeapFile(slottedDat, TD));
+        assertEquals(lines, SystemTestUtil.contents(fixed));
+        assertEquals(lines, SystemTestUtil.contents(slotted));
+        assertTrue(slotted.numPages() * 5 < fixed.numPages());
+
+        long fixedTime = 0, slottedTime = 0;
+        long fixedReads = 0, slottedReads = 0;
+        final int rounds = 5;
+        for (int r = 0; r < rounds; r++) {
+            BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            SystemTestUtil.contents(fixed);
+            fixedTime += System.nanoTime() - start;
+            fixedReads = pool.getMissCount() + pool.getPrefetchCount();
+
+            pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            start = System.nanoTime();
+            SystemTestUtil.contents(slotted);
+            slottedTime += System.nanoTime() - start;
+            slottedReads = pool.getMissCount() + pool.getPrefetchCount();
+        }
+        assertTrue(slottedReads * 5 < fixedReads);
+        System.out.printf("SlottedHeapFileTest: %d rows, fixed %d pages read (%.1f ms), slotted %d pages read (%.1f ms), %.1fx less I/O%n",
+                ROWS, fixedReads, fixedTime / 1e6 / rounds, slottedReads, slottedTime / 1e6 / rounds,
+                (double) fixedReads / slottedReads);
+    }
+
+    @Test public void testInsertDelete() throws Exception {
+        SlottedHeapFile f = SystemTestUtil.register(
+                new SlottedHeapFile(SystemTestUtil.createTempDataFile("codes"), TD));
+        TransactionId tid = new TransactionId();
+        BufferPool pool = Database.getBufferPool();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("K" + i, Type.STRING_LEN));
+            pool.insertTuple(tid, f.getId(), t);
+            expected.add(t.toString());
+        }
+        // 1000 short tuples fit on a few slotted pages, not 34 fixed ones
+        assertTrue(f.numPages() < 10);
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            pool.deleteTuple(tid, t);
+            expected.remove(t.toString());
+        }
+        pool.flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Set<String> actual = new HashSet<String>(SystemTestUtil.contents(f));
+        assertEquals(new HashSet<String>(expected), actual);
+    }
+
+    @Test public void testCatalogFormat() throws Exception {
+        File dir = SystemTestUtil.createTempDataFile("codes").getParentFile();
+        String name = "slotted" + SystemTestUtil.getUUID().replace("-", "");
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(schema));
+        w.println(name + " (id int, code string) slotted");
+        w.close();
+        assertEquals(dir, schema.getParentFile());
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof SlottedHeapFile);
+        new File(dir, name + ".dat").deleteOnExit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
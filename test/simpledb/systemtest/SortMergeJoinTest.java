@@ -0,0 +1,120 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks SortMergeJoin against the nested-loop result for every operator
+ * it supports, with keys repeated on both sides, with inputs larger than
+ * its sorts' memory, and that the planner sort-merges range joins.
+ */
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    @After public void restoreMemory() {
+        ExternalSort.setMemoryPages(ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    private void validateJoin(Predicate.Op op, int rows1, int rows2, int maxValue) throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, rows1, maxValue, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, rows2, maxValue, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(join, SystemTestUtil.expectedJoin(t1Tuples, t2Tuples, op));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEquals() throws Exception {
+        validateJoin(Predicate.Op.EQUALS, 200, 150, 30);
+    }
+
+    @Test public void testRanges() throws Exception {
+        validateJoin(Predicate.Op.LESS_THAN, 60, 50, 20);
+        validateJoin(Predicate.Op.LESS_THAN_OR_EQ, 60, 50, 20);
+        validateJoin(Predicate.Op.GREATER_THAN, 60, 50, 20);
+        validateJoin(Predicate.Op.GREATER_THAN_OR_EQ, 60, 50, 20);
+    }
+
+    @Test public void testExternalSortAndLargeGroups() throws Exception {
+        // 3 pages sort 1536 two-int tuples at a time, and hold as many matches
+        ExternalSort.setMemoryPages(3);
+        validateJoin(Predicate.Op.EQUALS, 4000, 4000, 4000);
+
+        HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+        columnSpecification.put(0, 7);
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 3, columnSpecification, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 2000, columnSpecification, t2Tuples);
+        TransactionId tid = new TransactionId();
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        SystemTestUtil.matchTuples(join, SystemTestUtil.expectedJoin(t1Tuples, t2Tuples, Predicate.Op.EQUALS));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSortedInputAndRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new OrderBy(0, true, new SeqScan(tid, table1.getId(), "")),
+                new OrderBy(0, false, new SeqScan(tid, table2.getId(), "")));
+        // the left side is in the order needed, the right is not
+        assertFalse(join.sorts(0));
+        assertTrue(join.sorts(1));
+
+        int expected = SystemTestUtil.expectedJoin(t1Tuples, t2Tuples, Predicate.Op.GREATER_THAN).size();
+        join.open();
+        for (int pass = 0; pass < 2; ++pass) {
+            int n = 0;
+            int last = Integer.MIN_VALUE;
+            while (join.hasNext()) {
+                int key = ((IntField) join.next().getField(0)).getValue();
+                // in the order of the outer join field
+                assertTrue(key >= last);
+                last = key;
+                n++;
+            }
+            assertEquals(expected, n);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannerSortMergesRanges() throws Exception {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "a");
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "b");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile f : new HeapFile[] { t1, t2 }) {
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), 1000));
+        }
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(t1.getId(), "x");
+        lp.addScan(t2.getId(), "y");
+        lp.addJoin("x.a0", "y.b0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("x.a0", null);
+        DbIterator node = lp.physicalPlan(new TransactionId(), stats, false);
+        while (node instanceof Operator && !(node instanceof SortMergeJoin) && !(node instanceof Join))
+            node = ((Operator) node).getChildren()[0];
+        assertTrue(node instanceof SortMergeJoin);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
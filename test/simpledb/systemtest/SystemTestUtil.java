@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -79,8 +80,7 @@ public class SystemTestUtil {
         }
 
         // Convert the tuples list to a heap file and open it
-        File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        File temp = createTempDataFile("table");
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return temp;
     }
@@ -147,6 +147,125 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * @return a new empty file for a table, deleted along with its side
+     *         files when the JVM exits
+     */
+    public static File createTempDataFile(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        ZoneMap.fileFor(f).deleteOnExit();
+        BloomFilterMap.fileFor(f).deleteOnExit();
+        CompressedHeapFile.mapFileFor(f).deleteOnExit();
+        return f;
+    }
+
+    /** Adds f to the catalog under a fresh name. */
+    public static <T extends DbFile> T register(T f) {
+        Database.getCatalog().addTable(f, getUUID());
+        return f;
+    }
+
+    /** @return the tuples of f as strings, in scan order */
+    public static List<String> contents(DbFile f) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        return rows;
+    }
+
+    /** @return a new empty file for an index, deleted when the JVM exits */
+    public static File createTempIndexFile() throws IOException {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Runs it and returns its tuples as strings, sorted. */
+    public static List<String> drainSorted(DbIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Joins two lists of tuples with a nested loop, the way a join on
+     * (t1.field0 op t2.field0) should.
+     *
+     * @return the concatenation of each pair of tuples that matches
+     */
+    public static ArrayList<ArrayList<Integer>> expectedJoin(List<ArrayList<Integer>> t1Tuples,
+            List<ArrayList<Integer>> t2Tuples, Predicate.Op op) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            IntField k1 = new IntField(t1.get(0));
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (k1.compare(op, new IntField(t2.get(0)))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    out.add(t);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Inserts rows tuples with random first fields below keys into the
+     * indexed table f through a pool of 16 pages, while another thread keeps
+     * reading pages of a second table so that the pool writes dirty index
+     * pages back in the middle of the inserts. Fails if either thread is
+     * still stuck after a minute.
+     */
+    public static void insertWhileEvicting(final HeapFile f, final int rows, final int keys)
+            throws Exception {
+        final HeapFile other = createRandomHeapFile(2, 504 * 64, null, null);
+        final BufferPool pool = Database.resetBufferPool(16);
+        final TransactionId tid = new TransactionId();
+
+        final Exception[] failed = new Exception[1];
+        final Thread writer = new Thread() {
+            public void run() {
+                try {
+                    Random r = new Random(5);
+                    for (int i = 0; i < rows; i++)
+                        pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { r.nextInt(keys), i }));
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    Random r = new Random(6);
+                    TransactionId readTid = new TransactionId();
+                    while (writer.isAlive())
+                        pool.getPage(readTid, new HeapPageId(other.getId(), r.nextInt(other.numPages())),
+                                Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }
+        };
+        writer.start();
+        reader.start();
+        writer.join(60000);
+        Assert.assertFalse("inserts deadlocked with eviction", writer.isAlive());
+        reader.join(60000);
+        Assert.assertFalse("eviction deadlocked with inserts", reader.isAlive());
+        if (failed[0] != null)
+            throw failed[0];
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM